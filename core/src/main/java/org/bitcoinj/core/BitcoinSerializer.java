@@ -133,6 +133,15 @@ public class BitcoinSerializer extends MessageSerializer {
      */
     @Override
     public void serialize(String name, byte[] message, OutputStream out) throws IOException {
+        byte[] header = serializeHeader(name, message);
+        out.write(header);
+        out.write(message);
+
+        if (log.isDebugEnabled())
+            log.debug("Sending {} message: {}", name, HEX.encode(header) + HEX.encode(message));
+    }
+
+    private byte[] serializeHeader(String name, byte[] message) {
         byte[] header = new byte[4 + COMMAND_LEN + 4 + 4 /* checksum */];
         uint32ToByteArrayBE(params.getPacketMagic(), header, 0);
 
@@ -146,11 +155,7 @@ public class BitcoinSerializer extends MessageSerializer {
 
         byte[] hash = Sha256Hash.hashTwice(message);
         System.arraycopy(hash, 0, header, 4 + COMMAND_LEN + 4, 4);
-        out.write(header);
-        out.write(message);
-
-        if (log.isDebugEnabled())
-            log.debug("Sending {} message: {}", name, HEX.encode(header) + HEX.encode(message));
+        return header;
     }
 
     /**
@@ -158,11 +163,29 @@ public class BitcoinSerializer extends MessageSerializer {
      */
     @Override
     public void serialize(Message message, OutputStream out) throws IOException {
+        serialize(getCommandName(message), message.bitcoinSerialize(), out);
+    }
+
+    @Override
+    public ByteBuffer serializeToBuffer(Message message, boolean direct) {
+        String name = getCommandName(message);
+        byte[] payload = message.bitcoinSerialize();
+        byte[] header = serializeHeader(name, payload);
+        int length = header.length + payload.length;
+        ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+        buffer.put(header).put(payload).flip();
+
+        if (log.isDebugEnabled())
+            log.debug("Sending {} message: {}", name, HEX.encode(header) + HEX.encode(payload));
+        return buffer.asReadOnlyBuffer();
+    }
+
+    private String getCommandName(Message message) {
         String name = names.get(message.getClass());
         if (name == null) {
             throw new Error("BitcoinSerializer doesn't currently know how to serialize " + message.getClass());
         }
-        serialize(name, message.bitcoinSerialize(), out);
+        return name;
     }
 
     /**
@@ -174,11 +174,18 @@ public class BloomFilter extends Message {
      * See this <a href="https://github.com/aappleby/smhasher/blob/master/src/MurmurHash3.cpp">C++ code for the original.</a>
      */
     public static int murmurHash3(byte[] data, long nTweak, int hashNum, byte[] object) {
-        int h1 = (int)(hashNum * 0xFBA4C795L + nTweak);
+        return murmurHash3(data, nTweak, hashNum, mixBlocks(object), object.length);
+    }
+
+    // MurmurHash3 scrambles each 4 byte block of the object the same way whatever the seed is, and BIP 37 only varies
+    // the seed between hash functions. So the scrambled blocks of an element are computed once, by mixBlocks, and
+    // each hash function only repeats the seeded part. The last entry holds the scrambled tail, or zero if none.
+    private static int[] mixBlocks(byte[] object) {
         final int c1 = 0xcc9e2d51;
         final int c2 = 0x1b873593;
 
         int numBlocks = (object.length / 4) * 4;
+        int[] mixed = new int[numBlocks / 4 + 1];
         // body
         for(int i = 0; i < numBlocks; i += 4) {
             int k1 = (object[i] & 0xFF) |
@@ -189,10 +196,7 @@ public class BloomFilter extends Message {
             k1 *= c1;
             k1 = rotateLeft32(k1, 15);
             k1 *= c2;
-
-            h1 ^= k1;
-            h1 = rotateLeft32(h1, 13);
-            h1 = h1*5+0xe6546b64;
+            mixed[i / 4] = k1;
         }
         
         int k1 = 0;
@@ -206,15 +210,62 @@ public class BloomFilter extends Message {
                 // Fall through.
             case 1:
                 k1 ^= (object[numBlocks] & 0xff);
-                k1 *= c1; k1 = rotateLeft32(k1, 15); k1 *= c2; h1 ^= k1;
+                k1 *= c1; k1 = rotateLeft32(k1, 15); k1 *= c2;
+                mixed[numBlocks / 4] = k1;
                 // Fall through.
             default:
                 // Do nothing.
                 break;
         }
+        return mixed;
+    }
+
+    /** The same as {@link #mixBlocks(byte[])} for the serialized form of an outpoint, without serializing it. */
+    private static int[] mixBlocks(TransactionOutPoint outpoint) {
+        final int c1 = 0xcc9e2d51;
+        final int c2 = 0x1b873593;
+
+        // The serialized outpoint is the reversed hash followed by the little endian index.
+        byte[] hash = outpoint.getHash().getBytes();
+        int[] mixed = new int[OUTPOINT_LENGTH / 4 + 1];
+        for (int i = 0; i <= OUTPOINT_LENGTH / 4; i++) {
+            int k1;
+            if (i < Sha256Hash.LENGTH / 4) {
+                int j = Sha256Hash.LENGTH - 1 - i * 4;
+                k1 = (hash[j] & 0xFF) |
+                        ((hash[j-1] & 0xFF) << 8) |
+                        ((hash[j-2] & 0xFF) << 16) |
+                        ((hash[j-3] & 0xFF) << 24);
+            } else if (i == Sha256Hash.LENGTH / 4) {
+                k1 = (int) outpoint.getIndex();
+            } else {
+                break; // no tail
+            }
+            k1 *= c1;
+            k1 = rotateLeft32(k1, 15);
+            k1 *= c2;
+            mixed[i] = k1;
+        }
+        return mixed;
+    }
+
+    private static final int OUTPOINT_LENGTH = Sha256Hash.LENGTH + 4;
+
+    private static int murmurHash3(byte[] data, long nTweak, int hashNum, int[] mixed, int length) {
+        int h1 = (int)(hashNum * 0xFBA4C795L + nTweak);
+
+        int numBlocks = length / 4;
+        // body
+        for (int i = 0; i < numBlocks; i++) {
+            h1 ^= mixed[i];
+            h1 = rotateLeft32(h1, 13);
+            h1 = h1*5+0xe6546b64;
+        }
+        // tail
+        h1 ^= mixed[numBlocks];
 
         // finalization
-        h1 ^= object.length;
+        h1 ^= length;
         h1 ^= h1 >>> 16;
         h1 *= 0x85ebca6b;
         h1 ^= h1 >>> 13;
@@ -223,23 +274,39 @@ public class BloomFilter extends Message {
         
         return (int)((h1&0xFFFFFFFFL) % (data.length * 8));
     }
-    
+
+    private boolean contains(int[] mixed, int length) {
+        for (int i = 0; i < hashFuncs; i++) {
+            if (!Utils.checkBitLE(data, murmurHash3(data, nTweak, i, mixed, length)))
+                return false;
+        }
+        return true;
+    }
+
+    private void insert(int[] mixed, int length) {
+        for (int i = 0; i < hashFuncs; i++)
+            Utils.setBitLE(data, murmurHash3(data, nTweak, i, mixed, length));
+    }
+
     /**
      * Returns true if the given object matches the filter either because it was inserted, or because we have a
      * false-positive.
      */
     public synchronized boolean contains(byte[] object) {
-        for (int i = 0; i < hashFuncs; i++) {
-            if (!Utils.checkBitLE(data, murmurHash3(data, nTweak, i, object)))
-                return false;
-        }
-        return true;
+        return contains(mixBlocks(object), object.length);
+    }
+
+    /**
+     * Returns true if the serialized form of the given outpoint matches the filter either because it was inserted,
+     * or because we have a false-positive.
+     */
+    public synchronized boolean contains(TransactionOutPoint outpoint) {
+        return contains(mixBlocks(outpoint), OUTPOINT_LENGTH);
     }
     
     /** Insert the given arbitrary data into the filter */
     public synchronized void insert(byte[] object) {
-        for (int i = 0; i < hashFuncs; i++)
-            Utils.setBitLE(data, murmurHash3(data, nTweak, i, object));
+        insert(mixBlocks(object), object.length);
     }
 
     /** Inserts the given key and equivalent hashed form (for the address). */
@@ -250,7 +317,7 @@ public class BloomFilter extends Message {
 
     /** Inserts the given transaction outpoint. */
     public synchronized void insert(TransactionOutPoint outpoint) {
-        insert(outpoint.unsafeBitcoinSerialize());
+        insert(mixBlocks(outpoint), OUTPOINT_LENGTH);
     }
 
     /**
@@ -352,7 +419,7 @@ public class BloomFilter extends Message {
         }
         if (found) return true;
         for (TransactionInput input : tx.getInputs()) {
-            if (contains(input.getOutpoint().unsafeBitcoinSerialize())) {
+            if (contains(input.getOutpoint())) {
                 return true;
             }
             for (ScriptChunk chunk : input.getScriptSig().getChunks()) {
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2019 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptChunk;
+import org.bitcoinj.script.ScriptException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * <p>A client side block filter: one small {@link GolombCodedSet} per block that a wallet's elements can be tested
+ * against locally, for example to find out which blocks in the block files are worth reading again when a wallet is
+ * restored, without handing a {@link BloomFilter} to anyone.</p>
+ *
+ * <p>This is not a BIP 158 filter and cannot be exchanged with BIP 157 peers. It uses the Golomb-coded set encoding
+ * and the filter header construction of those BIPs, but not their element set, and the filters are built locally from
+ * full blocks rather than downloaded.</p>
+ *
+ * <p>The elements of the filter are the ones a Bloom filter is matched against in
+ * {@link BloomFilter#applyAndUpdate(Transaction)}: transaction ids, data pushes in output and input scripts, and the
+ * outpoints spent by each input. The BIP 158 basic filter instead commits to the previous output
+ * scripts of the inputs; an SPV client cannot compute those without the spent transactions, whereas the elements here
+ * can be computed from the block alone and are exactly what a wallet already puts into its Bloom filter (see
+ * {@link org.bitcoinj.wallet.Wallet#getBlockFilterElements()}). Pushes shorter than
+ * {@link #MINIMUM_ELEMENT_LENGTH} are left out as no wallet element is that short.</p>
+ *
+ * <p>Filters are chained by filter headers, header = SHA256d(filter hash || previous header), so that a whole range
+ * of filters can be checked against a single trusted header.</p>
+ */
+public class CompactBlockFilter {
+    public static final int MINIMUM_ELEMENT_LENGTH = 8;
+
+    private final Sha256Hash blockHash;
+    private final GolombCodedSet set;
+
+    public CompactBlockFilter(Sha256Hash blockHash, byte[] encoded) {
+        this.blockHash = blockHash;
+        this.set = new GolombCodedSet(GolombCodedSet.BASIC_P, GolombCodedSet.BASIC_M, getKey(blockHash), encoded);
+    }
+
+    private CompactBlockFilter(Sha256Hash blockHash, GolombCodedSet set) {
+        this.blockHash = blockHash;
+        this.set = set;
+    }
+
+    /** Computes the filter of a full block. */
+    public static CompactBlockFilter build(Block block) {
+        List<Transaction> transactions = block.getTransactions();
+        if (transactions == null)
+            throw new IllegalArgumentException("Block " + block.getHashAsString() + " has no transactions");
+        List<byte[]> elements = new ArrayList<>();
+        for (Transaction tx : transactions) {
+            elements.add(tx.getTxId().getReversedBytes());
+            for (TransactionOutput output : tx.getOutputs())
+                addPushes(elements, output.getScriptBytes());
+            for (TransactionInput input : tx.getInputs()) {
+                if (input.isCoinBase())
+                    continue;
+                elements.add(input.getOutpoint().unsafeBitcoinSerialize());
+                addPushes(elements, input.getScriptBytes());
+            }
+        }
+        Sha256Hash blockHash = block.getHash();
+        return new CompactBlockFilter(blockHash,
+                GolombCodedSet.build(GolombCodedSet.BASIC_P, GolombCodedSet.BASIC_M, getKey(blockHash), elements));
+    }
+
+    private static void addPushes(List<byte[]> elements, byte[] scriptBytes) {
+        try {
+            for (ScriptChunk chunk : new Script(scriptBytes).getChunks()) {
+                if (chunk.isPushData() && chunk.data != null && chunk.data.length >= MINIMUM_ELEMENT_LENGTH)
+                    elements.add(chunk.data);
+            }
+        } catch (ScriptException e) {
+            // Unparseable scripts can't pay to or spend from a wallet, so there is nothing to match.
+        }
+    }
+
+    /** The SipHash key of a block's filter: the first 16 bytes of its hash in wire order. */
+    private static byte[] getKey(Sha256Hash blockHash) {
+        return Arrays.copyOf(blockHash.getReversedBytes(), 16);
+    }
+
+    public Sha256Hash getBlockHash() {
+        return blockHash;
+    }
+
+    /** Returns the serialized filter. */
+    public byte[] getFilterBytes() {
+        return set.getEncoded();
+    }
+
+    /** Returns the number of distinct elements in the filter. */
+    public int getElementCount() {
+        return set.getN();
+    }
+
+    public Sha256Hash getFilterHash() {
+        return Sha256Hash.wrapReversed(Sha256Hash.hashTwice(set.getEncoded()));
+    }
+
+    /** Returns the header of this filter, given the header of the filter of the previous block. */
+    public Sha256Hash computeHeader(Sha256Hash previousHeader) {
+        return Sha256Hash.wrapReversed(Sha256Hash.hashTwice(getFilterHash().getReversedBytes(),
+                previousHeader.getReversedBytes()));
+    }
+
+    /** Returns true if the element probably occurs in the block. */
+    public boolean match(byte[] element) {
+        return set.match(element);
+    }
+
+    /** Returns true if any of the elements probably occurs in the block. */
+    public boolean matchAny(Collection<byte[]> elements) {
+        return set.matchAny(elements);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        CompactBlockFilter other = (CompactBlockFilter) o;
+        return blockHash.equals(other.blockHash) && set.equals(other.set);
+    }
+
+    @Override
+    public int hashCode() {
+        return blockHash.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "CompactBlockFilter{block=" + blockHash + ", elements=" + set.getN() + "}";
+    }
+}
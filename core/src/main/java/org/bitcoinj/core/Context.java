@@ -25,6 +25,7 @@ import org.bitcoinj.governance.GovernanceManager;
 import org.bitcoinj.governance.GovernanceTriggerManager;
 import org.bitcoinj.governance.VoteConfidenceTable;
 import org.bitcoinj.quorums.*;
+import org.bitcoinj.store.BlockStoreException;
 import org.bitcoinj.store.FlatDB;
 import org.bitcoinj.store.HashStore;
 import org.bitcoinj.wallet.SendRequest;
@@ -351,6 +352,14 @@ public class Context {
             }
             clh.load(chainLockHandler);
 
+            // open the store of quorum snapshots and rotated quorum members, which is written as they arrive
+            File quorumRotationFile = new File(directory, filePrefix != null ? filePrefix + ".qrstore" : "quorumrotation.dat");
+            try {
+                quorumSnapshotManager.setStore(new QuorumRotationStore(params, quorumRotationFile));
+            } catch (BlockStoreException x) {
+                log.warn("cannot open the quorum rotation store", x);
+            }
+
             signingManager.initializeSignatureLog(directory);
             initializedFiles = true;
             return true;
@@ -382,6 +391,7 @@ public class Context {
             signingManager.close();
             chainLockHandler.close();
             quorumManager.close();
+            quorumSnapshotManager.close();
             if(masternodeSync.hasSyncFlag(MasternodeSync.SYNC_FLAGS.SYNC_INSTANTSENDLOCKS))
                 llmqBackgroundThread.interrupt();
             blockChain.removeNewBestBlockListener(newBestBlockListener);
@@ -456,6 +456,15 @@ public class ECKey implements IKey {
         if (privKey.bitLength() > CURVE.getN().bitLength()) {
             privKey = privKey.mod(CURVE.getN());
         }
+        if (Secp256k1Context.isEnabled() && privKey.signum() > 0 && privKey.compareTo(CURVE.getN()) < 0) {
+            try {
+                byte[] pubKey = NativeSecp256k1.computePubkey(Utils.bigIntegerToBytes(privKey, 32));
+                if (pubKey.length > 0)
+                    return CURVE.getCurve().decodePoint(pubKey);
+            } catch (NativeSecp256k1Util.AssertFailException e) {
+                log.error("Caught AssertFailException inside secp256k1", e);
+            }
+        }
         return new FixedPointCombMultiplier().multiply(CURVE.getG(), privKey);
     }
 
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2019 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>A Golomb-coded set as described in
+ * <a href="https://github.com/bitcoin/bips/blob/master/bip-0158.mediawiki">BIP 158</a>. It is a compact, immutable
+ * probabilistic set: every element that was added is reported as present and other elements are reported as present
+ * with a probability of about 1/M.</p>
+ *
+ * <p>Elements are hashed with SipHash-2-4 into the range [0, N * M), sorted, and the differences between consecutive
+ * values are written with Golomb-Rice coding using P bits for the remainder. Querying walks the encoded differences
+ * once, so {@link #matchAny(Collection)} should be preferred over repeated calls to {@link #match(byte[])} when
+ * looking for many elements at once.</p>
+ */
+public class GolombCodedSet {
+    /** The Golomb-Rice parameter of the BIP 158 basic filter type. */
+    public static final int BASIC_P = 19;
+    /** The inverse false positive rate of the BIP 158 basic filter type. */
+    public static final long BASIC_M = 784931;
+
+    private final int p;
+    private final long m;
+    private final int n;
+    private final HashFunction hashFunction;
+    // The serialized filter: the element count as a VarInt followed by the Golomb-Rice coded differences.
+    private final byte[] encoded;
+    private final int dataOffset;
+
+    /**
+     * Parses an encoded set.
+     * @param key the 16 byte SipHash key the set was built with
+     * @param encoded the element count as a VarInt followed by the coded values, as returned by {@link #getEncoded()}
+     */
+    public GolombCodedSet(int p, long m, byte[] key, byte[] encoded) {
+        checkArgument(p > 0 && p < 32, "p out of range: %s", p);
+        checkArgument(m > 0, "m out of range: %s", m);
+        this.p = p;
+        this.m = m;
+        this.hashFunction = sipHash(key);
+        this.encoded = encoded;
+        VarInt count = new VarInt(encoded, 0);
+        checkArgument(count.value >= 0 && count.value <= Integer.MAX_VALUE, "Too many elements: %s", count.value);
+        this.n = (int) count.value;
+        this.dataOffset = count.getOriginalSizeInBytes();
+    }
+
+    /**
+     * Builds a set from the given elements. Duplicate elements are only added once.
+     * @param key the 16 byte SipHash key, for block filters the first 16 bytes of the block hash in wire order
+     */
+    public static GolombCodedSet build(int p, long m, byte[] key, Collection<byte[]> elements) {
+        checkArgument(p > 0 && p < 32, "p out of range: %s", p);
+        Set<ByteBuffer> unique = new HashSet<>(elements.size());
+        for (byte[] element : elements)
+            unique.add(ByteBuffer.wrap(element));
+        int n = unique.size();
+        long[] values = new long[n];
+        long f = n * m;
+        HashFunction hashFunction = sipHash(key);
+        int i = 0;
+        for (ByteBuffer element : unique)
+            values[i++] = hashToRange(hashFunction, element.array(), f);
+        Arrays.sort(values);
+
+        BitWriter writer = new BitWriter(VarInt.sizeOf(n), n * (p + 2));
+        long last = 0;
+        for (long value : values) {
+            long delta = value - last;
+            long quotient = delta >>> p;
+            for (long q = 0; q < quotient; q++)
+                writer.write(1, 1);
+            writer.write(0, 1);
+            writer.write(delta, p);
+            last = value;
+        }
+        byte[] encoded = writer.toByteArray();
+        System.arraycopy(new VarInt(n).encode(), 0, encoded, 0, VarInt.sizeOf(n));
+        return new GolombCodedSet(p, m, key, encoded);
+    }
+
+    private static HashFunction sipHash(byte[] key) {
+        checkArgument(key.length >= 16, "SipHash key must be 16 bytes");
+        return Hashing.sipHash24(Utils.readInt64(key, 0), Utils.readInt64(key, 8));
+    }
+
+    /** Maps the element uniformly into [0, f) by taking the upper 64 bits of the 128 bit product hash * f. */
+    private static long hashToRange(HashFunction hashFunction, byte[] element, long f) {
+        return multiplyHighUnsigned(hashFunction.hashBytes(element).asLong(), f);
+    }
+
+    static long multiplyHighUnsigned(long x, long y) {
+        long x0 = x & 0xFFFFFFFFL, x1 = x >>> 32;
+        long y0 = y & 0xFFFFFFFFL, y1 = y >>> 32;
+        long w0 = x0 * y0;
+        long t = x1 * y0 + (w0 >>> 32);
+        long w1 = (t & 0xFFFFFFFFL) + x0 * y1;
+        return x1 * y1 + (t >>> 32) + (w1 >>> 32);
+    }
+
+    /** Returns true if the element is probably in this set. */
+    public boolean match(byte[] element) {
+        if (n == 0)
+            return false;
+        long target = hashToRange(hashFunction, element, n * m);
+        BitReader reader = new BitReader(encoded, dataOffset);
+        long value = 0;
+        for (int i = 0; i < n; i++) {
+            value += readDelta(reader);
+            if (value == target)
+                return true;
+            if (value > target)
+                return false;
+        }
+        return false;
+    }
+
+    /** Returns true if any of the elements is probably in this set. The encoded set is only decoded once. */
+    public boolean matchAny(Collection<byte[]> elements) {
+        if (n == 0 || elements.isEmpty())
+            return false;
+        long f = n * m;
+        long[] targets = new long[elements.size()];
+        int t = 0;
+        for (byte[] element : elements)
+            targets[t++] = hashToRange(hashFunction, element, f);
+        Arrays.sort(targets);
+
+        BitReader reader = new BitReader(encoded, dataOffset);
+        long value = readDelta(reader);
+        int decoded = 1;
+        t = 0;
+        while (true) {
+            if (value == targets[t])
+                return true;
+            if (value < targets[t]) {
+                if (decoded == n)
+                    return false;
+                value += readDelta(reader);
+                decoded++;
+            } else if (++t == targets.length) {
+                return false;
+            }
+        }
+    }
+
+    private long readDelta(BitReader reader) {
+        long quotient = 0;
+        while (reader.read(1) == 1)
+            quotient++;
+        return (quotient << p) | reader.read(p);
+    }
+
+    /** Returns the number of distinct elements in this set. */
+    public int getN() {
+        return n;
+    }
+
+    public int getP() {
+        return p;
+    }
+
+    public long getM() {
+        return m;
+    }
+
+    /** Returns the serialized set: the element count as a VarInt followed by the Golomb-Rice coded values. */
+    public byte[] getEncoded() {
+        return Arrays.copyOf(encoded, encoded.length);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        GolombCodedSet other = (GolombCodedSet) o;
+        return p == other.p && m == other.m && Arrays.equals(encoded, other.encoded);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(encoded);
+    }
+
+    @Override
+    public String toString() {
+        return "Golomb-coded set of " + n + " elements in " + encoded.length + " bytes";
+    }
+
+    /** Writes bits most significant first, starting after a reserved prefix for the element count. */
+    private static class BitWriter {
+        private byte[] buffer;
+        private int bitPosition;
+
+        BitWriter(int prefixBytes, int expectedBits) {
+            buffer = new byte[prefixBytes + (expectedBits + 7) / 8];
+            bitPosition = prefixBytes * 8;
+        }
+
+        void write(long value, int bits) {
+            for (int i = bits - 1; i >= 0; i--) {
+                int index = bitPosition >>> 3;
+                if (index == buffer.length)
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                if (((value >>> i) & 1) != 0)
+                    buffer[index] |= 0x80 >>> (bitPosition & 7);
+                bitPosition++;
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, (bitPosition + 7) >>> 3);
+        }
+    }
+
+    private static class BitReader {
+        private final byte[] buffer;
+        private int bitPosition;
+
+        BitReader(byte[] buffer, int offset) {
+            this.buffer = buffer;
+            this.bitPosition = offset * 8;
+        }
+
+        long read(int bits) {
+            long result = 0;
+            for (int i = 0; i < bits; i++) {
+                int index = bitPosition >>> 3;
+                if (index >= buffer.length)
+                    throw new ProtocolException("Golomb-coded set is truncated");
+                result = (result << 1) | ((buffer[index] >>> (7 - (bitPosition & 7))) & 1);
+                bitPosition++;
+            }
+            return result;
+        }
+    }
+}
@@ -1,9 +1,15 @@
 package org.bitcoinj.core;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.bouncycastle.math.ec.ECAlgorithms;
+import org.bouncycastle.math.ec.ECPoint;
 import org.bouncycastle.util.encoders.Base64;
 
+import java.math.BigInteger;
+import java.security.MessageDigest;
 import java.security.SignatureException;
 import java.util.Arrays;
 
@@ -15,6 +21,20 @@ import static org.bitcoinj.core.Utils.HEX;
 public class HashSigner {
     private static final Logger log = LoggerFactory.getLogger(HashSigner.class);
 
+    /*
+     * Masternode voting keys and the spork key sign many messages, so after the first public key recovery for a key
+     * id, later signatures are checked against the recovered key with an ordinary ECDSA verification that also checks
+     * the recovery id in the signature header, which is cheaper than recovery. Signatures that fail that check still go through recovery, so the outcome for
+     * invalid signatures is decided exactly as before. Recent successful verifications are also remembered.
+     */
+    private static final Cache<KeyId, ECKey> knownPublicKeys = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .build();
+
+    private static final Cache<Sha256Hash, Boolean> verifiedSignatures = CacheBuilder.newBuilder()
+            .maximumSize(50000)
+            .build();
+
     public static MasternodeSignature signHash(Sha256Hash hash, ECKey key) {
         return new MasternodeSignature(key.signHash(hash));
     }
@@ -29,10 +49,24 @@ public class HashSigner {
     }
 
     public static boolean verifyHash(Sha256Hash hash, byte [] pubkeyId, MasternodeSignature vchSig, StringBuilder strErrorRet) {
+        byte [] signature = vchSig.getBytes();
+        Sha256Hash verifiedEntry = null;
+        KeyId keyId = null;
+        if (pubkeyId.length == KeyId.MESSAGE_SIZE) {
+            verifiedEntry = getVerifiedEntry(hash, pubkeyId, signature);
+            if (verifiedSignatures.getIfPresent(verifiedEntry) != null)
+                return true;
+            keyId = KeyId.fromBytes(pubkeyId);
+            if (verifyWithKnownKey(hash, knownPublicKeys.getIfPresent(keyId), signature)) {
+                verifiedSignatures.put(verifiedEntry, Boolean.TRUE);
+                return true;
+            }
+        }
+
         ECKey pubkeyFromSig;
 
         try {
-            pubkeyFromSig = ECKey.signedMessageToKey(hash, vchSig.getBytes());
+            pubkeyFromSig = ECKey.signedMessageToKey(hash, signature);
             if (pubkeyFromSig == null) {
                 strErrorRet.append("Error recovering public key.");
                 return false;
@@ -40,10 +74,14 @@ public class HashSigner {
             if (!Arrays.equals(pubkeyFromSig.getPubKeyHash(), pubkeyId)) {
                 strErrorRet.append(String.format("Keys don't match: pubkey=%s, pubkeyFromSig=%s, hash=%s, vchSig=%s",
                         HEX.encode(pubkeyId), HEX.encode(pubkeyFromSig.getPubKeyHash()),
-                        hash.toString(), Base64.toBase64String(vchSig.getBytes())));
+                        hash.toString(), Base64.toBase64String(signature)));
                 return false;
             }
 
+            if (keyId != null) {
+                knownPublicKeys.put(keyId, pubkeyFromSig);
+                verifiedSignatures.put(verifiedEntry, Boolean.TRUE);
+            }
             return true;
         } catch (SignatureException x) {
             strErrorRet.append("exception:  " + x.getMessage());
@@ -51,5 +89,41 @@ public class HashSigner {
         }
     }
 
+    private static Sha256Hash getVerifiedEntry(Sha256Hash hash, byte [] pubkeyId, byte [] signature) {
+        MessageDigest digest = Sha256Hash.newDigest();
+        digest.update(hash.getBytes());
+        digest.update(pubkeyId);
+        digest.update(signature);
+        return Sha256Hash.wrap(digest.digest());
+    }
 
+    private static boolean verifyWithKnownKey(Sha256Hash hash, ECKey key, byte [] signature) {
+        if (key == null || signature.length != 65)
+            return false;
+        int header = signature[0] & 0xFF;
+        if (header < 27 || header > 34)
+            return false;
+        // the compressed flag in the header must match the key that was recovered before
+        if ((header >= 31) != key.isCompressed())
+            return false;
+        BigInteger n = ECKey.CURVE.getN();
+        BigInteger r = new BigInteger(1, Arrays.copyOfRange(signature, 1, 33));
+        BigInteger s = new BigInteger(1, Arrays.copyOfRange(signature, 33, 65));
+        if (r.signum() <= 0 || r.compareTo(n) >= 0 || s.signum() <= 0 || s.compareTo(n) >= 0)
+            return false;
+        // This is ECDSA verification, R = (e / s) * G + (r / s) * Q, but R is kept so that the recovery id in the
+        // header can be checked too. Recovery with a different id would give a different key, so such a signature
+        // must fail here as it does in recovery.
+        BigInteger e = new BigInteger(1, hash.getBytes());
+        BigInteger w = s.modInverse(n);
+        ECPoint point = ECAlgorithms.sumOfTwoMultiplies(ECKey.CURVE.getG(), e.multiply(w).mod(n),
+                key.getPubKeyPoint(), r.multiply(w).mod(n)).normalize();
+        if (point.isInfinity())
+            return false;
+        BigInteger x = point.getAffineXCoord().toBigInteger();
+        if (!x.mod(n).equals(r))
+            return false;
+        int recId = (point.getAffineYCoord().toBigInteger().testBit(0) ? 1 : 0) | (x.compareTo(n) >= 0 ? 2 : 0);
+        return recId == ((header - 27) & 3);
+    }
 }
@@ -18,6 +18,7 @@
 
 package org.bitcoinj.core;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.BufferUnderflowException;
@@ -180,5 +181,26 @@ public abstract class MessageSerializer {
      * it does not support serializing the given message.
      */
     public abstract void serialize(Message message, OutputStream out) throws IOException, UnsupportedOperationException;
-    
+
+    /**
+     * Serializes the message, including its header, into a read-only buffer which can be written to any number of
+     * peers with {@link PeerSocketHandler#sendMessage(ByteBuffer)}, so that a message relayed to many peers is only
+     * serialized once.
+     *
+     * @param direct whether to allocate a direct buffer, which saves the copy into a temporary direct buffer on every
+     * socket write and so is worth it for messages sent to several peers
+     * @throws UnsupportedOperationException if this serializer/deserializer does not support serialization
+     */
+    public ByteBuffer serializeToBuffer(Message message, boolean direct) throws UnsupportedOperationException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            serialize(message, out);
+        } catch (IOException e) {
+            throw new RuntimeException(e);  // Cannot happen.
+        }
+        byte[] bytes = out.toByteArray();
+        ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(bytes.length) : ByteBuffer.allocate(bytes.length);
+        buffer.put(bytes).flip();
+        return buffer.asReadOnlyBuffer();
+    }
 }
@@ -212,7 +212,7 @@ public class PeerGroup implements TransactionBroadcaster, GovernanceVoteBroadcas
 
     private final KeyChainEventListener walletKeyEventListener = new KeyChainEventListener() {
         @Override public void onKeysAdded(List<IKey> keys) {
-            recalculateFastCatchupAndFilter(FilterRecalculateMode.SEND_IF_CHANGED);
+            insertKeysIntoFilter(keys);
         }
     };
 
@@ -335,6 +335,9 @@ public class PeerGroup implements TransactionBroadcaster, GovernanceVoteBroadcas
     /** The default timeout between when a connection attempt begins and version message exchange completes */
     public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 5000;
     private volatile int vConnectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+    // Executor on which new peers process their messages, or null to process them on the network thread.
+    @Nullable private volatile Executor vMessageExecutor;
+    private volatile int vMaxQueuedMessages = PeerSocketHandler.DEFAULT_MAX_QUEUED_MESSAGES;
     
     /** Whether bloom filter support is enabled when using a non FullPrunedBlockchain*/
     private volatile boolean vBloomFilteringEnabled = true;
@@ -1487,6 +1490,60 @@ public class PeerGroup implements TransactionBroadcaster, GovernanceVoteBroadcas
         return future;
     }
     
+    /**
+     * Adds new wallet keys to the Bloom filter given to peers. Where possible the keys are inserted into the last
+     * filter rather than recalculating it from every filter provider, see {@link FilterMerger#insertKeys(List)}.
+     */
+    private void insertKeysIntoFilter(final List<IKey> keys) {
+        Runnable command = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    go();
+                } catch (Throwable e) {
+                    log.error("Exception when trying to insert keys into the Bloom filter", e);
+                }
+            }
+
+            public void go() {
+                checkState(!lock.isHeldByCurrentThread());
+                if ((chain != null && chain.shouldVerifyTransactions()) || !vBloomFilteringEnabled)
+                    return;
+                FilterMerger.Result result = null;
+                // Married key chains put P2SH redeem data into the filter rather than the keys themselves and
+                // other providers may do anything, so this only applies when wallets are the only providers.
+                if (canInsertKeysIntoFilter())
+                    result = bloomFilterMerger.insertKeys(keys);
+                if (result == null) {
+                    recalculateFastCatchupAndFilter(FilterRecalculateMode.SEND_IF_CHANGED);
+                    return;
+                }
+                if (result.changed) {
+                    for (Peer peer : peers /* COW */)
+                        peer.setBloomFilter(result.filter, true);
+                    if (chain != null)
+                        chain.resetFalsePositiveEstimate();
+                }
+            }
+        };
+        try {
+            executor.execute(command);
+        } catch (RejectedExecutionException e) {
+            // Can happen during shutdown.
+        }
+    }
+
+    private boolean canInsertKeysIntoFilter() {
+        for (PeerFilterProvider provider : peerFilterProviders /* COW */) {
+            if (!(provider instanceof Wallet))
+                return false;
+            Wallet wallet = (Wallet) provider;
+            if (!wallet.isBloomFilterInsertingKeys())
+                return false;
+        }
+        return true;
+    }
+
     /**
      * <p>Sets the false positive rate of bloom filters given to peers. The default is {@link #DEFAULT_BLOOM_FILTER_FP_RATE}.</p>
      *
@@ -1571,6 +1628,9 @@ public class PeerGroup implements TransactionBroadcaster, GovernanceVoteBroadcas
         peer.addConnectedEventListener(Threading.SAME_THREAD, startupListener);
         peer.addDisconnectedEventListener(Threading.SAME_THREAD, startupListener);
         peer.setMinProtocolVersion(vMinRequiredProtocolVersion);
+        Executor messageExecutor = vMessageExecutor;
+        if (messageExecutor != null)
+            peer.setMessageExecutor(messageExecutor, vMaxQueuedMessages);
         pendingPeers.add(peer);
 
         try {
@@ -1610,6 +1670,22 @@ public class PeerGroup implements TransactionBroadcaster, GovernanceVoteBroadcas
         this.vConnectTimeoutMillis = connectTimeoutMillis;
     }
 
+    /**
+     * <p>Makes peers process received messages on the given executor, usually a thread pool, instead of on the thread
+     * that reads from the network. Each peer still processes its messages one at a time and in order, but a slow
+     * message such as a masternode list diff or a block full of wallet transactions no longer delays all other
+     * peers. Reading from a peer is paused while more than maxQueuedMessages of its messages are waiting.</p>
+     *
+     * <p>This only applies to peers connected after the call. The executor is not shut down by the peer group.</p>
+     *
+     * @see PeerSocketHandler#setMessageExecutor(Executor, int)
+     */
+    public void setMessageExecutor(@Nullable Executor executor, int maxQueuedMessages) {
+        checkArgument(maxQueuedMessages > 0);
+        this.vMaxQueuedMessages = maxQueuedMessages;
+        this.vMessageExecutor = executor;
+    }
+
     /**
      * <p>Start downloading the blockchain.</p>
      *
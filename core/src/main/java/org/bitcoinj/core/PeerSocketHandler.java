@@ -18,6 +18,7 @@ package org.bitcoinj.core;
 
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.bitcoinj.net.AbstractTimeoutHandler;
 import org.bitcoinj.net.MessageWriteTarget;
 import org.bitcoinj.net.NioClient;
@@ -28,13 +29,16 @@ import com.google.common.annotations.VisibleForTesting;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
 import java.io.IOException;
 import java.net.ConnectException;
 import java.net.InetSocketAddress;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.NotYetConnectedException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.locks.Lock;
 
 import static com.google.common.base.Preconditions.*;
@@ -62,6 +66,17 @@ public abstract class PeerSocketHandler extends AbstractTimeoutHandler implement
 
     private Lock lock = Threading.lock("PeerSocketHandler");
 
+    /** The default number of decoded messages that may wait for processing before we stop reading from the peer. */
+    public static final int DEFAULT_MAX_QUEUED_MESSAGES = 100;
+
+    // If set, decoded messages are processed on this executor, one at a time and in order, rather than on the network
+    // thread. Reading is paused when too many are waiting, which makes TCP flow control throttle the remote peer.
+    @Nullable private volatile Executor messageExecutor;
+    private volatile int maxQueuedMessages = DEFAULT_MAX_QUEUED_MESSAGES;
+    private final Object queueLock = new Object();
+    @GuardedBy("queueLock") private int queuedMessages;
+    @GuardedBy("queueLock") private boolean readingPaused;
+
     public PeerSocketHandler(NetworkParameters params, InetSocketAddress remoteIp) {
         checkNotNull(params);
         serializer = params.getDefaultSerializer();
@@ -80,24 +95,40 @@ public abstract class PeerSocketHandler extends AbstractTimeoutHandler implement
      * TODO: Maybe use something other than the unchecked NotYetConnectedException here
      */
     public ListenableFuture sendMessage(Message message) throws NotYetConnectedException {
-        lock.lock();
+        checkConnected();
         try {
-            if (writeTarget == null)
-                throw new NotYetConnectedException();
-        } finally {
-            lock.unlock();
+            return writeTarget.writeBytes(serializer.serializeToBuffer(message, false));
+        } catch (IOException e) {
+            exceptionCaught(e);
+            return Futures.immediateFailedFuture(e);
         }
-        // TODO: Some round-tripping could be avoided here
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
+    }
+
+    /**
+     * Sends a message which was already serialized with {@link MessageSerializer#serializeToBuffer(Message, boolean)},
+     * without copying it. The same buffer can be sent to any number of peers, which is how a message broadcast to
+     * many peers should be sent. Throws NotYetConnectedException if we are not yet connected to the remote peer.
+     */
+    public ListenableFuture sendMessage(ByteBuffer serializedMessage) throws NotYetConnectedException {
+        checkConnected();
         try {
-            serializer.serialize(message, out);
-            return writeTarget.writeBytes(out.toByteArray());
+            return writeTarget.writeBytes(serializedMessage);
         } catch (IOException e) {
             exceptionCaught(e);
             return Futures.immediateFailedFuture(e);
         }
     }
 
+    private void checkConnected() throws NotYetConnectedException {
+        lock.lock();
+        try {
+            if (writeTarget == null)
+                throw new NotYetConnectedException();
+        } finally {
+            lock.unlock();
+        }
+    }
+
     /**
      * Closes the connection to the peer if one exists, or immediately closes the connection as soon as it opens
      */
@@ -125,6 +156,75 @@ public abstract class PeerSocketHandler extends AbstractTimeoutHandler implement
      */
     protected abstract void processMessage(Message m) throws Exception;
 
+    /**
+     * <p>Makes {@link #processMessage(Message)} run on the given executor instead of on the network thread, so that an
+     * expensive message from this peer doesn't hold up reading from and writing to every other peer. Messages are still
+     * processed one at a time and in the order they were received. The executor is usually a thread pool shared by
+     * all peers.</p>
+     *
+     * <p>If more than maxQueuedMessages are waiting to be processed, reading from the peer is paused until half of them
+     * have been processed. This must be called before the connection is opened.</p>
+     */
+    public void setMessageExecutor(Executor executor, int maxQueuedMessages) {
+        checkArgument(maxQueuedMessages > 0);
+        final Context context = Context.get();
+        final Executor sequentialExecutor = MoreExecutors.newSequentialExecutor(checkNotNull(executor));
+        this.maxQueuedMessages = maxQueuedMessages;
+        this.messageExecutor = new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                sequentialExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        Context.propagate(context);
+                        command.run();
+                    }
+                });
+            }
+        };
+    }
+
+    /** Returns the number of decoded messages waiting to be processed on the message executor. */
+    public int getQueuedMessageCount() {
+        synchronized (queueLock) {
+            return queuedMessages;
+        }
+    }
+
+    private void dispatchMessage(final Message message) throws Exception {
+        Executor executor = messageExecutor;
+        if (executor == null) {
+            processMessage(message);
+            return;
+        }
+        synchronized (queueLock) {
+            queuedMessages++;
+            if (!readingPaused && queuedMessages >= maxQueuedMessages) {
+                log.info("{}: {} messages waiting to be processed, pausing reads", getAddress(), queuedMessages);
+                readingPaused = true;
+                writeTarget.setReadingPaused(true);
+            }
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    processMessage(message);
+                } catch (Exception e) {
+                    exceptionCaught(e);
+                } finally {
+                    synchronized (queueLock) {
+                        queuedMessages--;
+                        if (readingPaused && queuedMessages <= maxQueuedMessages / 2) {
+                            readingPaused = false;
+                            writeTarget.setReadingPaused(false);
+                        }
+                    }
+                }
+            }
+        });
+    }
+
     @Override
     public int receiveBytes(ByteBuffer buff) {
         checkArgument(buff.position() == 0 &&
@@ -144,7 +244,7 @@ public abstract class PeerSocketHandler extends AbstractTimeoutHandler implement
                     // Check the largeReadBuffer's status
                     if (largeReadBufferPos == largeReadBuffer.length) {
                         // ...processing a message if one is available
-                        processMessage(serializer.deserializePayload(header, ByteBuffer.wrap(largeReadBuffer)));
+                        dispatchMessage(serializer.deserializePayload(header, ByteBuffer.wrap(largeReadBuffer)));
                         largeReadBuffer = null;
                         header = null;
                         firstMessage = false;
@@ -184,7 +284,7 @@ public abstract class PeerSocketHandler extends AbstractTimeoutHandler implement
                     return buff.position();
                 }
                 // Process our freshly deserialized message
-                processMessage(message);
+                dispatchMessage(message);
                 firstMessage = false;
             }
         } catch (Exception e) {
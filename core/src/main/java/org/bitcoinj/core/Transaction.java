@@ -36,6 +36,7 @@ import org.bitcoinj.wallet.WalletTransaction.Pool;
 
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
 import com.google.common.primitives.Ints;
 import com.google.common.primitives.Longs;
 import org.slf4j.Logger;
@@ -44,6 +45,8 @@ import org.bouncycastle.crypto.params.KeyParameter;
 
 import javax.annotation.Nullable;
 import java.io.*;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.*;
 
 import static org.bitcoinj.core.Utils.*;
@@ -204,6 +207,10 @@ public class Transaction extends ChildMessage {
     // This is an in memory helpers only. It contains the transaction hash.
     private Sha256Hash cachedTxId;
 
+    // In memory only, the serialized outputs used when calculating SIGHASH_ALL signature hashes. Volatile, as the
+    // array may be built and read on different threads.
+    private volatile byte[] cachedSerializedOutputs;
+
     // Data about how confirmed this tx is. Serialized, may be null.
     @Nullable private TransactionConfidence confidence;
 
@@ -599,6 +606,7 @@ public class Transaction extends ChildMessage {
     protected void unCache() {
         super.unCache();
         cachedTxId = null;
+        cachedSerializedOutputs = null;
     }
 
     protected static int calcLength(byte[] buf, int offset) {
@@ -1166,16 +1174,9 @@ public class Transaction extends ChildMessage {
         //   https://en.bitcoin.it/wiki/Contracts
 
         try {
-            // Create a copy of this transaction to operate upon because we need make changes to the inputs and outputs.
-            // It would not be thread-safe to change the attributes of the transaction object itself.
-            Transaction tx = this.params.getDefaultSerializer().makeTransaction(this.bitcoinSerialize());
-
-            // Clear input scripts in preparation for signing. If we're signing a fresh
-            // transaction that step isn't very helpful, but it doesn't add much cost relative to the actual
-            // EC math so we'll do it anyway.
-            for (int i = 0; i < tx.inputs.size(); i++) {
-                tx.inputs.get(i).clearScriptBytes();
-            }
+            // The modified transaction is streamed straight into the digest from the fields of this transaction rather
+            // than by cloning and re-serializing it, so that signing every input of a large transaction doesn't
+            // allocate a copy per input. This object is never modified, so this stays thread-safe.
 
             // This step has no purpose beyond being synchronized with Dash Core's bugs. OP_CODESEPARATOR
             // is a legacy holdover from a previous, broken design of executing scripts that shipped in Bitcoin 0.1.
@@ -1186,65 +1187,105 @@ public class Transaction extends ChildMessage {
             // do it, we could split off the best chain.
             connectedScript = Script.removeAllInstancesOfOp(connectedScript, ScriptOpCodes.OP_CODESEPARATOR);
 
-            // Set the input to the script of its output. Dash Core does this but the step has no obvious purpose as
-            // the signature covers the hash of the prevout transaction which obviously includes the output script
-            // already. Perhaps it felt safer to him in some way, or is another leftover from how the code was written.
-            TransactionInput input = tx.inputs.get(inputIndex);
-            input.setScriptBytes(connectedScript);
+            boolean anyoneCanPay = (sigHashType & SigHash.ANYONECANPAY.value) == SigHash.ANYONECANPAY.value;
+            int baseType = sigHashType & 0x1f;
+            // SIGHASH_SINGLE means only sign the output at the same index as the input (ie, my output).
+            if (baseType == SigHash.SINGLE.value && inputIndex >= outputs.size()) {
+                // The input index is beyond the number of outputs, it's a buggy signature made by a broken
+                // Bitcoin implementation. Dash Core also contains a bug in handling this case:
+                // any transaction output that is signed in this case will result in both the signed output
+                // and any future outputs to this public key being steal-able by anyone who has
+                // the resulting signature and the public key (both of which are part of the signed tx input).
+
+                // Dash Core's bug is that SignatureHash was supposed to return a hash and on this codepath it
+                // actually returns the constant "1" to indicate an error, which is never checked for. Oops.
+                return Sha256Hash.wrap("0100000000000000000000000000000000000000000000000000000000000000");
+            }
+            // SIGHASH_NONE and SIGHASH_SINGLE: the signature isn't broken by new versions of the transaction issued
+            // by other parties, so the sequence numbers of the other inputs are written as zero.
+            boolean zeroOtherSequences = baseType == SigHash.NONE.value || baseType == SigHash.SINGLE.value;
 
-            if ((sigHashType & 0x1f) == SigHash.NONE.value) {
-                // SIGHASH_NONE means no outputs are signed at all - the signature is effectively for a "blank cheque".
-                tx.outputs = new ArrayList<>(0);
-                // The signature isn't broken by new versions of the transaction issued by other parties.
-                for (int i = 0; i < tx.inputs.size(); i++)
-                    if (i != inputIndex)
-                        tx.inputs.get(i).setSequenceNumber(0);
-            } else if ((sigHashType & 0x1f) == SigHash.SINGLE.value) {
-                // SIGHASH_SINGLE means only sign the output at the same index as the input (ie, my output).
-                if (inputIndex >= tx.outputs.size()) {
-                    // The input index is beyond the number of outputs, it's a buggy signature made by a broken
-                    // Bitcoin implementation. Dash Core also contains a bug in handling this case:
-                    // any transaction output that is signed in this case will result in both the signed output
-                    // and any future outputs to this public key being steal-able by anyone who has
-                    // the resulting signature and the public key (both of which are part of the signed tx input).
-
-                    // Dash Core's bug is that SignatureHash was supposed to return a hash and on this codepath it
-                    // actually returns the constant "1" to indicate an error, which is never checked for. Oops.
-                    return Sha256Hash.wrap("0100000000000000000000000000000000000000000000000000000000000000");
+            MessageDigest digest = Sha256Hash.newDigest();
+            OutputStream stream = new DigestOutputStream(ByteStreams.nullOutputStream(), digest);
+
+            uint32ToByteStreamLE(version, stream);
+
+            if (anyoneCanPay) {
+                // SIGHASH_ANYONECANPAY means the signature in the input is not broken by changes/additions/removals
+                // of other inputs. For example, this is useful for building assurance contracts.
+                stream.write(1);
+                writeInputForSignature(inputs.get(inputIndex), connectedScript, false, stream);
+            } else {
+                stream.write(new VarInt(inputs.size()).encode());
+                for (int i = 0; i < inputs.size(); i++) {
+                    // Set the input to the script of its output and clear the other input scripts. Dash Core does
+                    // this but the step has no obvious purpose as the signature covers the hash of the prevout
+                    // transaction which obviously includes the output script already.
+                    if (i == inputIndex)
+                        writeInputForSignature(inputs.get(i), connectedScript, false, stream);
+                    else
+                        writeInputForSignature(inputs.get(i), EMPTY_SCRIPT, zeroOtherSequences, stream);
                 }
+            }
+
+            if (baseType == SigHash.NONE.value) {
+                // SIGHASH_NONE means no outputs are signed at all - the signature is effectively for a "blank cheque".
+                stream.write(0);
+            } else if (baseType == SigHash.SINGLE.value) {
                 // In SIGHASH_SINGLE the outputs after the matching input index are deleted, and the outputs before
                 // that position are "nulled out". Unintuitively, the value in a "null" transaction is set to -1.
-                tx.outputs = new ArrayList<>(tx.outputs.subList(0, inputIndex + 1));
-                for (int i = 0; i < inputIndex; i++)
-                    tx.outputs.set(i, new TransactionOutput(tx.params, tx, Coin.NEGATIVE_SATOSHI, new byte[] {}));
-                // The signature isn't broken by new versions of the transaction issued by other parties.
-                for (int i = 0; i < tx.inputs.size(); i++)
-                    if (i != inputIndex)
-                        tx.inputs.get(i).setSequenceNumber(0);
+                stream.write(new VarInt(inputIndex + 1).encode());
+                for (int i = 0; i < inputIndex; i++) {
+                    int64ToByteStreamLE(-1, stream);
+                    stream.write(0);
+                }
+                outputs.get(inputIndex).bitcoinSerialize(stream);
+            } else {
+                stream.write(getSerializedOutputsForSignature());
             }
 
-            if ((sigHashType & SigHash.ANYONECANPAY.value) == SigHash.ANYONECANPAY.value) {
-                // SIGHASH_ANYONECANPAY means the signature in the input is not broken by changes/additions/removals
-                // of other inputs. For example, this is useful for building assurance contracts.
-                tx.inputs = new ArrayList<>();
-                tx.inputs.add(input);
+            uint32ToByteStreamLE(lockTime, stream);
+            if (getVersionShort() >= SPECIAL_VERSION && getType() != Type.TRANSACTION_NORMAL) {
+                stream.write(new VarInt(extraPayload.length).encode());
+                stream.write(extraPayload);
             }
-
-            ByteArrayOutputStream bos = new UnsafeByteArrayOutputStream(tx.length == UNKNOWN_LENGTH ? 256 : tx.length + 4);
-            tx.bitcoinSerialize(bos);
             // We also have to write a hash type (sigHashType is actually an unsigned char)
-            uint32ToByteStreamLE(0x000000ff & sigHashType, bos);
+            uint32ToByteStreamLE(0x000000ff & sigHashType, stream);
             // Note that this is NOT reversed to ensure it will be signed correctly. If it were to be printed out
             // however then we would expect that it is IS reversed.
-            Sha256Hash hash = Sha256Hash.twiceOf(bos.toByteArray());
-            bos.close();
-
-            return hash;
+            return Sha256Hash.wrap(digest.digest(digest.digest()));
         } catch (IOException e) {
             throw new RuntimeException(e);  // Cannot happen.
         }
     }
 
+    private static final byte[] EMPTY_SCRIPT = new byte[0];
+
+    private static void writeInputForSignature(TransactionInput input, byte[] scriptBytes, boolean zeroSequence,
+                                               OutputStream stream) throws IOException {
+        input.getOutpoint().bitcoinSerialize(stream);
+        stream.write(new VarInt(scriptBytes.length).encode());
+        stream.write(scriptBytes);
+        uint32ToByteStreamLE(zeroSequence ? 0 : input.getSequenceNumber(), stream);
+    }
+
+    /**
+     * Returns the output count and outputs as they are serialized for SIGHASH_ALL. The result is kept until the
+     * transaction is next modified, so that hashing each input of a transaction doesn't serialize the outputs again.
+     */
+    private byte[] getSerializedOutputsForSignature() throws IOException {
+        byte[] serializedOutputs = cachedSerializedOutputs;
+        if (serializedOutputs == null) {
+            ByteArrayOutputStream bos = new UnsafeByteArrayOutputStream(outputs.size() * 34 + 1);
+            bos.write(new VarInt(outputs.size()).encode());
+            for (TransactionOutput out : outputs)
+                out.bitcoinSerialize(bos);
+            serializedOutputs = bos.toByteArray();
+            cachedSerializedOutputs = serializedOutputs;
+        }
+        return serializedOutputs;
+    }
+
     @Override
     protected void bitcoinSerializeToStream(OutputStream stream) throws IOException {
         uint32ToByteStreamLE(version, stream);
@@ -1372,6 +1413,7 @@ public class Transaction extends ChildMessage {
 
     /** Randomly re-orders the transaction outputs: good for privacy */
     public void shuffleOutputs() {
+        unCache();
         Collections.shuffle(outputs);
     }
 
@@ -1402,10 +1444,12 @@ public class Transaction extends ChildMessage {
 
     /** Sorts transaction outputs according to BIP69 first by amount, then by scriptPubKey **/
     public void sortOutputs() {
+        unCache();
         Collections.sort(outputs, compareTransactionOutputs);
     }
 
     public void sortInputs() {
+        unCache();
         Collections.sort(inputs, compareTransactionInputs);
     }
 
@@ -25,6 +25,7 @@ import org.bitcoinj.wallet.Wallet;
 import org.slf4j.*;
 
 import javax.annotation.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.*;
 
@@ -143,10 +144,12 @@ public class TransactionBroadcast {
             peers = peers.subList(0, numToBroadcastTo);
             log.info("broadcastTransaction: We have {} peers, adding {} to the memory pool", numConnected, tx.getTxId());
             log.info("Sending to {} peers, will wait for {}, sending to: {}", numToBroadcastTo, numWaitingFor, Joiner.on(",").join(peers));
+            // Serialize once and share the bytes between the write queues of all peers.
+            ByteBuffer serializedTx = tx.getParams().getDefaultSerializer().serializeToBuffer(tx, true);
             for (final Peer peer : peers) {
                 try {
                     sentToPeers.put(peer.getAddress(), false);
-                    ListenableFuture future = peer.sendMessage(tx);
+                    ListenableFuture future = peer.sendMessage(serializedTx);
                     if (dropPeersAfterBroadcast) {
                         // We drop the peer shortly after the transaction has been sent, because this peer will not
                         // send us back useful broadcast confirmations.
@@ -40,6 +40,7 @@ public class BLSAbstractLazyObject extends ChildMessage {
         super(lazyObject.params);
         this.buffer = lazyObject.buffer;
         this.initialized = lazyObject.initialized;
+        this.legacy = lazyObject.legacy;
     }
 
     public BLSAbstractLazyObject(NetworkParameters params, byte [] payload, int offset, boolean legacy) {
@@ -30,9 +30,14 @@ import java.util.Objects;
  * to perform an operation that requires BLSPublicKey
  *
  * Unlike BLSLazySignature, this class is Immutable
+ *
+ * Keys are decoded through a {@link BLSPublicKeyCache} shared by all lazy public keys, so
+ * the many entries that hold the same operator key share one BLSPublicKey
  */
 
 public class BLSLazyPublicKey extends BLSAbstractLazyObject {
+    private static final BLSPublicKeyCache publicKeyCache = new BLSPublicKeyCache();
+
     BLSPublicKey publicKey;
 
     @Deprecated
@@ -106,13 +111,18 @@ public class BLSLazyPublicKey extends BLSAbstractLazyObject {
         if(buffer == null && !initialized)
             return invalidSignature;
         if(!initialized) {
-            publicKey = new BLSPublicKey(params, buffer, 0, legacy);
+            publicKey = publicKeyCache.get(params, buffer, legacy);
             buffer = null;  //save memory
             initialized = true;
         }
         return publicKey;
     }
 
+    /** Returns the cache through which lazy public keys are decoded. */
+    public static BLSPublicKeyCache getPublicKeyCache() {
+        return publicKeyCache;
+    }
+
     @Override
     public String toString() {
         return initialized ? publicKey.toString() : (buffer == null ? invalidSignature.toString() : Utils.HEX.encode(buffer));
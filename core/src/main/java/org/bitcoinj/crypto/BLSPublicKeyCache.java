@@ -0,0 +1,118 @@
+/*
+ * Copyright 2022 Dash Core Group.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.crypto;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import org.bitcoinj.core.NetworkParameters;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Maps serialized BLS public keys to the decoded keys, so that each masternode operator key is decoded and checked
+ * by the native library once rather than for every masternode list entry, quorum and rotation cycle it appears in.
+ * {@link BLSLazyPublicKey} takes its keys from this cache, so the lazy keys of all lists share one decoded key.</p>
+ *
+ * <p>The cache is bounded and safe to use from several threads. An evicted key is not freed at once, as lists and
+ * quorums being verified may still use it; its native memory is released when the last of them lets go of it. Keys are
+ * cached per scheme, as the same bytes decode to different keys in the legacy and basic schemes.</p>
+ */
+public class BLSPublicKeyCache {
+    public static final int DEFAULT_MAX_ENTRIES = 20000;
+
+    private final Cache<ByteBuffer, BLSPublicKey> publicKeys;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public BLSPublicKeyCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public BLSPublicKeyCache(int maxEntries) {
+        publicKeys = CacheBuilder.newBuilder()
+                .maximumSize(maxEntries)
+                .concurrencyLevel(Runtime.getRuntime().availableProcessors())
+                .removalListener(new RemovalListener<ByteBuffer, BLSPublicKey>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<ByteBuffer, BLSPublicKey> notification) {
+                        if (notification.wasEvicted())
+                            evictions.incrementAndGet();
+                    }
+                })
+                .build();
+    }
+
+    private static ByteBuffer getEntry(byte[] publicKey, boolean legacy) {
+        byte[] entry = new byte[publicKey.length + 1];
+        entry[0] = (byte) (legacy ? 1 : 0);
+        System.arraycopy(publicKey, 0, entry, 1, publicKey.length);
+        return ByteBuffer.wrap(entry);
+    }
+
+    /**
+     * Returns the decoded public key for the serialized key, decoding it if it is not in the cache. The returned key
+     * is shared and must not be modified.
+     */
+    public BLSPublicKey get(NetworkParameters params, byte[] publicKey, boolean legacy) {
+        Preconditions.checkArgument(publicKey.length == BLSPublicKey.BLS_CURVE_PUBKEY_SIZE);
+        ByteBuffer entry = getEntry(publicKey, legacy);
+        BLSPublicKey key = publicKeys.getIfPresent(entry);
+        if (key != null) {
+            hits.incrementAndGet();
+            return key;
+        }
+        misses.incrementAndGet();
+        key = new BLSPublicKey(params, publicKey, 0, legacy);
+        publicKeys.put(entry, key);
+        return key;
+    }
+
+    public long size() {
+        return publicKeys.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /** Removes all keys from the cache. Keys still used by lists are released when the lists are. */
+    public void clear() {
+        publicKeys.invalidateAll();
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "BLSPublicKeyCache(size=" + size() + ", hits=" + hits.get() + ", misses=" + misses.get() +
+                ", evictions=" + evictions.get() + ")";
+    }
+}
@@ -17,13 +17,23 @@
 package org.bitcoinj.crypto;
 
 import com.google.common.collect.*;
+import org.bitcoin.NativeSecp256k1;
+import org.bitcoin.NativeSecp256k1Util;
+import org.bitcoin.Secp256k1Context;
 import org.bitcoinj.core.*;
+import org.bitcoinj.utils.DaemonThreadFactory;
 import org.bouncycastle.math.ec.*;
 
 import java.math.*;
 import java.nio.*;
 import java.security.*;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nullable;
 
 import static com.google.common.base.Preconditions.*;
 
@@ -133,6 +143,95 @@ public final class HDKeyDerivation {
 
     }
 
+    /** Below this many keys, {@link #deriveLookaheadKeys(DeterministicKey, int, int)} derives on the calling thread. */
+    private static final int MIN_PARALLEL_LOOKAHEAD = 16;
+
+    private static ExecutorService lookaheadExecutor;
+
+    private static synchronized ExecutorService getLookaheadExecutor() {
+        if (lookaheadExecutor == null)
+            lookaheadExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    new DaemonThreadFactory("key-lookahead"));
+        return lookaheadExecutor;
+    }
+
+    /**
+     * Derives {@code count} public-only, non-hardened children of the parent, starting at {@code firstChild}. The
+     * result is the same as calling {@link #deriveThisOrNextChildKey(DeterministicKey, int)} and
+     * {@link DeterministicKey#dropPrivateBytes()} for each child in turn, including skipping children that are
+     * invalid, but the public derivation path is always used and large batches are derived on several threads.
+     * @throws IllegalArgumentException if the children would reach the hardened range
+     * @throws HDDerivationException if the children that replace invalid ones would reach the hardened range
+     */
+    public static List<DeterministicKey> deriveLookaheadKeys(final DeterministicKey parent, final int firstChild, final int count) {
+        checkArgument(!new ChildNumber(firstChild).isHardened(), "Hardened derivation is unsupported (%s).", firstChild);
+        checkArgument(count >= 0 && (long) firstChild + count <= Integer.MAX_VALUE + 1L,
+                "Children %s to %s reach the hardened range.", firstChild, (long) firstChild + count - 1);
+        final DeterministicKey[] derived = new DeterministicKey[count];
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (count < MIN_PARALLEL_LOOKAHEAD || threads == 1) {
+            for (int i = 0; i < count; i++)
+                derived[i] = derivePublicChildOrNull(parent, firstChild + i);
+        } else {
+            // Decode the parent point once, rather than racing to do so on every thread.
+            parent.getPubKeyPoint();
+            int batchSize = (count + threads - 1) / threads;
+            List<Future<?>> futures = new ArrayList<>(threads);
+            for (int start = 0; start < count; start += batchSize) {
+                final int from = start;
+                final int to = Math.min(count, start + batchSize);
+                futures.add(getLookaheadExecutor().submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = from; i < to; i++)
+                            derived[i] = derivePublicChildOrNull(parent, firstChild + i);
+                    }
+                }));
+            }
+            try {
+                for (Future<?> future : futures)
+                    future.get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        List<DeterministicKey> result = new ArrayList<>(count);
+        for (DeterministicKey key : derived) {
+            if (key != null)
+                result.add(key);
+        }
+        // Invalid children are skipped, as deriveThisOrNextChildKey does, so top up after the last one.
+        int nextChild = firstChild + count;
+        int nAttempts = 0;
+        while (result.size() < count) {
+            if (++nAttempts > MAX_CHILD_DERIVATION_ATTEMPTS)
+                throw new HDDerivationException("Maximum number of child derivation attempts reached, this is probably an indication of a bug.");
+            if (new ChildNumber(nextChild).isHardened())
+                throw new HDDerivationException("No more non-hardened children after " + (firstChild + count - 1));
+            DeterministicKey key = derivePublicChildOrNull(parent, nextChild++);
+            if (key != null)
+                result.add(key);
+        }
+        return result;
+    }
+
+    @Nullable
+    private static DeterministicKey derivePublicChildOrNull(DeterministicKey parent, int child) {
+        ChildNumber childNumber = new ChildNumber(child);
+        try {
+            RawKeyBytes rawKey = deriveChildKeyBytesFromPublic(parent, childNumber, PublicDeriveMode.NORMAL);
+            return new DeterministicKey(
+                    HDUtils.append(parent.getPath(), childNumber),
+                    rawKey.chainCode,
+                    new LazyECPoint(ECKey.CURVE.getCurve(), rawKey.keyBytes),
+                    null,
+                    parent);
+        } catch (HDDerivationException e) {
+            return null;
+        }
+    }
+
     /**
      * @throws HDDerivationException if private derivation is attempted for a public-only parent key, or
      * if the resulting derived key is invalid (eg. private key == 0).
@@ -213,7 +312,16 @@ public final class HDKeyDerivation {
         ECPoint Ki;
         switch (mode) {
             case NORMAL:
-                Ki = ECKey.publicPointFromPrivate(ilInt).add(parent.getPubKeyPoint());
+                Ki = null;
+                if (Secp256k1Context.isEnabled()) {
+                    try {
+                        Ki = ECKey.CURVE.getCurve().decodePoint(NativeSecp256k1.pubKeyTweakAdd(parentPublicKey, il));
+                    } catch (NativeSecp256k1Util.AssertFailException | IllegalArgumentException e) {
+                        // fall back to the Java implementation below
+                    }
+                }
+                if (Ki == null)
+                    Ki = ECKey.publicPointFromPrivate(ilInt).add(parent.getPubKeyPoint());
                 break;
             case WITH_INVERSION:
                 // This trick comes from Gregory Maxwell. Check the homomorphic properties of our curve hold. The
@@ -16,8 +16,13 @@
 
 package org.bitcoinj.evolution;
 
+import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
 import org.bitcoinj.core.AbstractBlockChain;
 import org.bitcoinj.core.Context;
@@ -51,7 +56,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -95,7 +103,7 @@ public abstract class AbstractQuorumState<Request extends AbstractQuorumRequest,
     boolean waitingForMNListDiff;
     boolean initChainTipSyncComplete = false;
     LinkedHashMap<Sha256Hash, StoredBlock> pendingBlocksMap;
-    ArrayList<StoredBlock> pendingBlocks;
+    ArrayDeque<StoredBlock> pendingBlocks;
 
     int failedAttempts;
     static final int MAX_ATTEMPTS = 3;
@@ -112,6 +120,14 @@ public abstract class AbstractQuorumState<Request extends AbstractQuorumRequest,
     public SettableFuture<Boolean> bootStrapLoaded;
 
     boolean isLoadingBootstrap = false;
+    // When set, the signatures of the quorums in a bootstrap file are verified in the background after it is loaded
+    boolean deferBootstrapQuorumVerification = false;
+    // One future for each quorum list of the bootstrap file that is verified in the background, guarded by lock
+    final List<ListenableFuture<Boolean>> bootstrapQuorumVerifications = new ArrayList<>();
+    // Diffs of the bootstrap file whose blocks were not in the header chain yet, by block hash, guarded by lock. They
+    // are checked when the headers arrive, and bootstrapHeadersVerified completes once all of them are.
+    final HashMap<Sha256Hash, SimplifiedMasternodeListDiff> bootstrapDiffsWithoutHeader = new HashMap<>();
+    SettableFuture<Boolean> bootstrapHeadersVerified;
 
 
     public AbstractQuorumState(Context context) {
@@ -133,7 +149,7 @@ public abstract class AbstractQuorumState<Request extends AbstractQuorumRequest,
 
     private void initialize() {
         waitingForMNListDiff = false;
-        pendingBlocks = new ArrayList<>();
+        pendingBlocks = new ArrayDeque<>();
         pendingBlocksMap = new LinkedHashMap<>();
     }
 
@@ -171,13 +187,12 @@ public abstract class AbstractQuorumState<Request extends AbstractQuorumRequest,
         pendingBlocksMap.put(block.getHeader().getHash(), block);
     }
 
-    public List<StoredBlock> getPendingBlocks() {
+    public Deque<StoredBlock> getPendingBlocks() {
         return pendingBlocks;
     }
 
     public void popPendingBlock() {
-        StoredBlock thisBlock = pendingBlocks.get(0);
-        pendingBlocks.remove(0);
+        StoredBlock thisBlock = pendingBlocks.pollFirst();
         pendingBlocksMap.remove(thisBlock.getHeader().getHash());
     }
 
@@ -213,10 +228,15 @@ public abstract class AbstractQuorumState<Request extends AbstractQuorumRequest,
     public abstract void requestUpdate(Peer peer, StoredBlock block);
 
     public void retryLastUpdate(Peer peer) {
+        retryUpdate(peer, lastRequest);
+    }
+
+    // Several requests may be outstanding, so a failed send retries the request that failed rather than the last one
+    void retryUpdate(Peer peer, QuorumUpdateRequest<Request> request) {
         if (peer != null) {
-            peer.sendMessage(lastRequest.getRequestMessage());
+            peer.sendMessage(request.getRequestMessage());
         } else {
-            log.info("no peer supplied to retry the last update request: {}", lastRequest.request);
+            log.info("no peer supplied to retry the update request: {}", request.request);
         }
     }
 
@@ -226,9 +246,9 @@ public abstract class AbstractQuorumState<Request extends AbstractQuorumRequest,
 
     public abstract SimplifiedMasternodeList getMasternodeListAtTip();
 
-    public abstract LinkedHashMap<Sha256Hash, SimplifiedMasternodeList> getMasternodeListCache();
+    public abstract ListCache<SimplifiedMasternodeList> getMasternodeListCache();
 
-    public abstract LinkedHashMap<Sha256Hash, SimplifiedQuorumList> getQuorumsCache();
+    public abstract ListCache<SimplifiedQuorumList> getQuorumsCache();
 
     public abstract SimplifiedQuorumList getQuorumListAtTip();
 
@@ -343,12 +363,12 @@ public abstract class AbstractQuorumState<Request extends AbstractQuorumRequest,
             //fill up the pending list with recent blocks
             if (syncOptions != MasternodeListSyncOptions.SYNC_MINIMUM) {
                 Sha256Hash tipHash = blockChain.getChainHead().getHeader().getHash();
-                ArrayList<StoredBlock> blocksToAdd = new ArrayList<>();
+                ArrayDeque<StoredBlock> blocksToAdd = new ArrayDeque<>();
                 if (!getMasternodeListCache().containsKey(tipHash) && !pendingBlocksMap.containsKey(tipHash)) {
                     StoredBlock cursor = blockChain.getChainHead();
                     do {
                         if (!pendingBlocksMap.containsKey(cursor.getHeader().getHash())) {
-                            blocksToAdd.add(0, cursor);
+                            blocksToAdd.addFirst(cursor);
                         } else break;
                         try {
                             cursor = cursor.getPrev(blockChain.getBlockStore());
@@ -384,8 +404,10 @@ public abstract class AbstractQuorumState<Request extends AbstractQuorumRequest,
                     } else break;
                 }
 
-                if (pendingBlocks.size() != 0) {
-                    nextBlock = pendingBlocks.get(0);
+                if (pendingBlocks.size() != 0 && requestPipelinedUpdates(downloadPeer)) {
+                    log.info("{} pending blocks, {} requested", pendingBlocks.size(), getRequestsInFlight());
+                } else if (pendingBlocks.size() != 0) {
+                    nextBlock = pendingBlocks.peekFirst();
                     if (syncInterval > 1 && nextBlock.getHeader().getTimeSeconds() < Utils.currentTimeSeconds() - 60 * 60 && pendingBlocks.size() > syncInterval) {
                         // let's skip up to the next syncInterval blocks
                         while (blockIterator.hasNext()) {
@@ -414,6 +436,25 @@ public abstract class AbstractQuorumState<Request extends AbstractQuorumRequest,
         }
     }
 
+    /**
+     * Requests several of the pending blocks at once, from different peers, if this state supports applying updates
+     * that arrive out of order. Called with the lock held.
+     *
+     * @return false if updates are requested one at a time instead
+     */
+    boolean requestPipelinedUpdates(Peer downloadPeer) {
+        return false;
+    }
+
+    /** Forgets the requests sent ahead of the next update, so that they are sent again from the current list. */
+    void clearRequestsInFlight() {
+    }
+
+    /** Returns the number of update requests which were sent but whose updates have not been applied yet. */
+    public int getRequestsInFlight() {
+        return waitingForMNListDiff ? 1 : 0;
+    }
+
     void maybeGetMNListDiffFresh() {
         if (!shouldProcessMNListDiff())
             return;
@@ -464,7 +505,7 @@ public abstract class AbstractQuorumState<Request extends AbstractQuorumRequest,
 
             if (!blockChain.getChainHead().getHeader().getPrevBlockHash().equals(mnList.getBlockHash())) {
                 if (syncOptions != MasternodeListSyncOptions.SYNC_MINIMUM)
-                    fillPendingBlocksList(mnList.getBlockHash(), blockChain.getChainHead().getHeader().getHash(), pendingBlocks.size());
+                    fillPendingBlocksList(mnList.getBlockHash(), blockChain.getChainHead().getHeader().getHash());
                 requestNextMNListDiff();
                 return;
             }
@@ -496,17 +537,21 @@ public abstract class AbstractQuorumState<Request extends AbstractQuorumRequest,
         return pendingBlocks.isEmpty();
     }
 
-    void fillPendingBlocksList(Sha256Hash first, Sha256Hash last, int insertIndex) {
+    /** Appends the blocks after first, up to and including last, to the pending blocks. */
+    void fillPendingBlocksList(Sha256Hash first, Sha256Hash last) {
         lock.lock();
         try {
+            ArrayDeque<StoredBlock> blocksToAdd = new ArrayDeque<>();
             StoredBlock cursor = blockChain.getBlockStore().get(last);
             while (cursor != null && !cursor.getHeader().getHash().equals(first)) {
-                if (!pendingBlocksMap.containsKey(cursor.getHeader().getHash())) {
-                    pendingBlocks.add(insertIndex, cursor);
-                    pendingBlocksMap.put(cursor.getHeader().getHash(), cursor);
-                }
+                if (!pendingBlocksMap.containsKey(cursor.getHeader().getHash()))
+                    blocksToAdd.addFirst(cursor);
                 cursor = cursor.getPrev(blockChain.getBlockStore());
             }
+            for (StoredBlock block : blocksToAdd) {
+                pendingBlocks.add(block);
+                pendingBlocksMap.put(block.getHeader().getHash(), block);
+            }
         } catch (BlockStoreException x) {
             throw new RuntimeException(x);
         } finally {
@@ -529,6 +574,9 @@ public abstract class AbstractQuorumState<Request extends AbstractQuorumRequest,
     public void addEventListeners(AbstractBlockChain blockChain, PeerGroup peerGroup) {
         this.blockChain = blockChain;
         blockChain.addNewBestBlockListener(Threading.SAME_THREAD, newBestBlockListener);
+        blockChain.addNewBestBlockListener(Threading.SAME_THREAD, bootstrapHeaderListener);
+        if (headerChain != null)
+            headerChain.addNewBestBlockListener(Threading.SAME_THREAD, bootstrapHeaderListener);
         blockChain.addReorganizeListener(reorganizeListener);
         if (peerGroup != null) {
             peerGroup.addConnectedEventListener(peerConnectedEventListener);
@@ -541,8 +589,11 @@ public abstract class AbstractQuorumState<Request extends AbstractQuorumRequest,
     public void removeEventListeners(AbstractBlockChain blockChain, PeerGroup peerGroup) {
         if (blockChain != null) {
             blockChain.removeNewBestBlockListener(newBestBlockListener);
+            blockChain.removeNewBestBlockListener(bootstrapHeaderListener);
             blockChain.removeReorganizeListener(reorganizeListener);
         }
+        if (headerChain != null)
+            headerChain.removeNewBestBlockListener(bootstrapHeaderListener);
          if (peerGroup != null) {
             peerGroup.removeConnectedEventListener(peerConnectedEventListener);
             peerGroup.removeChainDownloadStartedEventListener(chainDownloadStartedEventListener);
@@ -585,6 +636,37 @@ public abstract class AbstractQuorumState<Request extends AbstractQuorumRequest,
         }
     };
 
+    // checks the diffs of the bootstrap file whose headers had not arrived when it was loaded
+    final NewBestBlockListener bootstrapHeaderListener = new NewBestBlockListener() {
+        @Override
+        public void notifyNewBestBlock(StoredBlock block) throws VerificationException {
+            lock.lock();
+            try {
+                if (bootstrapDiffsWithoutHeader.isEmpty())
+                    return;
+                SimplifiedMasternodeListDiff diff = bootstrapDiffsWithoutHeader.remove(block.getHeader().getHash());
+                if (diff == null)
+                    return;
+                SettableFuture<Boolean> verified = bootstrapHeadersVerified;
+                if (!diff.verify(block.getHeader())) {
+                    VerificationException x = new VerificationException("bootstrap coinbase is not in block " + diff.blockHash);
+                    log.warn("failed to verify the bootstrap lists against the header chain, resetting the masternode list", x);
+                    try {
+                        resetAfterFailedVerification(verified);
+                    } finally {
+                        verified.setException(x);
+                    }
+                } else if (bootstrapDiffsWithoutHeader.isEmpty()) {
+                    log.info("verified the bootstrap lists against the header chain");
+                    bootstrapHeadersVerified = null;
+                    verified.set(true);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    };
+
     public final PeerConnectedEventListener peerConnectedEventListener = new PeerConnectedEventListener() {
         @Override
         public void onPeerConnected(Peer peer, int peerCount) {
@@ -631,6 +713,7 @@ public abstract class AbstractQuorumState<Request extends AbstractQuorumRequest,
                     }
                     pendingBlocks.clear();
                     pendingBlocksMap.clear();
+                    clearRequestsInFlight();
                     for (StoredBlock newBlock : newBlocks) {
                         pendingBlocks.add(newBlock);
                         pendingBlocksMap.put(newBlock.getHeader().getHash(), newBlock);
@@ -709,7 +792,8 @@ public abstract class AbstractQuorumState<Request extends AbstractQuorumRequest,
     }
 
     protected void sendRequestWithRetry(Peer peer) {
-        ListenableFuture sendMessageFuture = peer.sendMessage(lastRequest.getRequestMessage());
+        final QuorumUpdateRequest<Request> request = lastRequest;
+        ListenableFuture sendMessageFuture = peer.sendMessage(request.getRequestMessage());
         sendMessageFuture.addListener(new Runnable() {
             @Override
             public void run() {
@@ -719,7 +803,7 @@ public abstract class AbstractQuorumState<Request extends AbstractQuorumRequest,
                 } catch (ExecutionException e) {
                     // send the message again
                     try {
-                        log.info("Exception when sending {}", lastRequest.getRequestMessage().getClass().getSimpleName(), e);
+                        log.info("Exception when sending {}", request.getRequestMessage().getClass().getSimpleName(), e);
 
                         // use tryLock to avoid deadlocks
                         boolean isLocked = context.peerGroup.getLock().tryLock(500, TimeUnit.MILLISECONDS);
@@ -730,7 +814,7 @@ public abstract class AbstractQuorumState<Request extends AbstractQuorumRequest,
                                 if (downloadPeer == null) {
                                     chooseRandomDownloadPeer();
                                 }
-                                retryLastUpdate(downloadPeer);
+                                retryUpdate(downloadPeer, request);
                             }
                         } finally {
                             if (isLocked) {
@@ -750,6 +834,112 @@ public abstract class AbstractQuorumState<Request extends AbstractQuorumRequest,
         }, Threading.THREAD_POOL);
     }
 
+    /**
+     * If set, the BLS signatures of the quorums in a bootstrap file are verified on a background thread after the
+     * file is loaded, rather than before the masternode list becomes usable. The merkle roots of the lists are still
+     * checked while loading, or when their headers arrive if they are not in the header chain yet. Use
+     * {@link #getBootstrapQuorumsVerified()} to find out when the checks are done.
+     */
+    public void setDeferBootstrapQuorumVerification(boolean deferBootstrapQuorumVerification) {
+        this.deferBootstrapQuorumVerification = deferBootstrapQuorumVerification;
+    }
+
+    /**
+     * Returns a future that completes when the deferred verification of the quorums of the bootstrap file is done,
+     * and the lists whose headers were not known when the file was loaded have been checked against them. It is
+     * already complete if nothing was deferred, and fails if a check fails, in which case the lists were reset.
+     */
+    public ListenableFuture<Boolean> getBootstrapQuorumsVerified() {
+        List<ListenableFuture<Boolean>> verifications;
+        lock.lock();
+        try {
+            verifications = new ArrayList<>(bootstrapQuorumVerifications);
+        } finally {
+            lock.unlock();
+        }
+        return Futures.transform(Futures.allAsList(verifications), new Function<List<Boolean>, Boolean>() {
+            @Override
+            public Boolean apply(List<Boolean> input) {
+                return true;
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    boolean isDeferringQuorumVerification(boolean isLoadingBootstrap) {
+        return isLoadingBootstrap && deferBootstrapQuorumVerification;
+    }
+
+    /**
+     * Verifies the quorums of a list from the bootstrap file on the thread pool. If they fail, the masternode and
+     * quorum lists are reset and requested from peers, as the lists that were built on the bootstrap file cannot be
+     * trusted. Must be called with the lock held.
+     */
+    void verifyQuorumsInBackground(final SimplifiedQuorumList quorumList, final AbstractBlockChain chain) {
+        final SettableFuture<Boolean> verified = SettableFuture.create();
+        bootstrapQuorumVerifications.add(verified);
+        Threading.THREAD_POOL.execute(new Runnable() {
+            @Override
+            public void run() {
+                Context.propagate(context);
+                Stopwatch watch = Stopwatch.createStarted();
+                try {
+                    quorumList.verifyQuorums(true, chain, true);
+                    log.info("verified {} bootstrap quorums in {}", quorumList.size(), watch);
+                    verified.set(true);
+                } catch (BlockStoreException | VerificationException x) {
+                    log.warn("failed to verify the bootstrap quorums, resetting the masternode list", x);
+                    try {
+                        resetAfterFailedVerification(verified);
+                    } finally {
+                        verified.setException(x);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Checks that the coinbase transaction of a diff from the bootstrap file is in its block, which ties the merkle
+     * roots of the lists it builds to the header chain. If the block is not known yet, the diff is kept and checked
+     * when the header arrives. Until then {@link #getBootstrapQuorumsVerified()} does not complete.
+     */
+    void verifyBootstrapDiff(SimplifiedMasternodeListDiff diff, @Nullable StoredBlock block) {
+        if (block != null) {
+            if (!diff.verify(block.getHeader()))
+                throw new VerificationException("bootstrap coinbase is not in block " + diff.blockHash);
+            return;
+        }
+        lock.lock();
+        try {
+            log.info("the header of bootstrap block {} is not known yet, checking the list when it arrives", diff.blockHash);
+            bootstrapDiffsWithoutHeader.put(diff.blockHash, diff);
+            if (bootstrapHeadersVerified == null) {
+                bootstrapHeadersVerified = SettableFuture.create();
+                bootstrapQuorumVerifications.add(bootstrapHeadersVerified);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void resetAfterFailedVerification(ListenableFuture<Boolean> verification) {
+        lock.lock();
+        try {
+            // the lists were already reset if the bootstrap file was loaded again since
+            if (!bootstrapQuorumVerifications.contains(verification))
+                return;
+            bootstrapDiffsWithoutHeader.clear();
+            bootstrapHeadersVerified = null;
+            // loading the same bootstrap file again would fail again
+            resetMNList(true, false);
+            requestAfterMNListReset();
+        } catch (BlockStoreException x) {
+            log.warn("failed to request the masternode list after resetting it", x);
+        } finally {
+            lock.unlock();
+        }
+    }
+
     public boolean notUsingBootstrapFile() {
         return bootstrapFilePath == null;
     }
@@ -773,45 +963,49 @@ public abstract class AbstractQuorumState<Request extends AbstractQuorumRequest,
         Preconditions.checkState(getQuorumsCache().size() == 1);
 
         bootStrapLoaded = SettableFuture.create();
+        lock.lock();
+        try {
+            bootstrapQuorumVerifications.clear();
+            bootstrapDiffsWithoutHeader.clear();
+            bootstrapHeadersVerified = null;
+        } finally {
+            lock.unlock();
+        }
 
         log.info("loading bootstrap file: {}", bootstrapFilePath != null ? bootstrapFilePath : "input stream");
 
         // load the files or streams
         InputStream stream = bootstrapStream;
+        Stopwatch watch = Stopwatch.createStarted();
 
         try {
-            if (stream != null)
-                stream.reset();
-            else if (bootstrapFilePath != null) {
-                stream = Files.newInputStream(Paths.get(bootstrapFilePath));
-            }
-            byte[] buffer = null;
-
+            byte[] buffer;
             if (stream != null) {
-                buffer = new byte[(int) stream.available()];
-                //noinspection ResultOfMethodCallIgnored
-                stream.read(buffer);
+                stream.reset();
+                buffer = ByteStreams.toByteArray(stream);
+            } else {
+                // the message constructors parse from an array, so the file is read with a single sized read
+                buffer = Files.readAllBytes(Paths.get(bootstrapFilePath));
             }
+            log.info("read {} bytes of bootstrap data in {}", buffer.length, watch);
 
             isLoadingBootstrap = true;
-            if (buffer != null) {
-                DiffMessage mnlistdiff = loadDiffMessageFromBuffer(buffer, protocolVersion);
-                if (mnlistdiff instanceof SimplifiedMasternodeListDiff) {
-                    stateManager.processDiffMessage(null, (SimplifiedMasternodeListDiff) mnlistdiff, true);
-                } else if (mnlistdiff instanceof QuorumRotationInfo) {
-                    SettableFuture<Boolean> qrinfoComplete = SettableFuture.create();
-                    stateManager.processDiffMessage(null, (QuorumRotationInfo) mnlistdiff, true, qrinfoComplete);
-                    qrinfoComplete.get();
-                } else {
-                    throw new IllegalStateException("Unknown difference message: " + mnlistdiff.getShortName());
-                }
+            DiffMessage mnlistdiff = loadDiffMessageFromBuffer(buffer, protocolVersion);
+            if (mnlistdiff instanceof SimplifiedMasternodeListDiff) {
+                stateManager.processDiffMessage(null, (SimplifiedMasternodeListDiff) mnlistdiff, true);
+            } else if (mnlistdiff instanceof QuorumRotationInfo) {
+                SettableFuture<Boolean> qrinfoComplete = SettableFuture.create();
+                stateManager.processDiffMessage(null, (QuorumRotationInfo) mnlistdiff, true, qrinfoComplete);
+                qrinfoComplete.get();
+            } else {
+                throw new IllegalStateException("Unknown difference message: " + mnlistdiff.getShortName());
             }
 
             if (bootStrapFileFormat < 1) {
                 throw new IllegalArgumentException("file format " + bootStrapFileFormat + " is not supported");
             }
             bootStrapLoaded.set(true);
-            log.info("finished loading bootstrap files");
+            log.info("finished loading bootstrap files in {}", watch);
         } catch (VerificationException | IOException | IllegalStateException | NullPointerException | InterruptedException | ExecutionException x) {
             bootStrapLoaded.setException(x);
             log.info("failed loading bootstrap files: ", x);
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2021 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.evolution;
+
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.quorums.SimplifiedQuorumList;
+
+import javax.annotation.Nullable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>A cache of masternode or quorum lists keyed by the hash of the block they belong to, which can also be searched
+ * by height with {@link #getAtOrBefore(long)}. Iteration follows insertion order, which is chain order, so the cache
+ * can be used wherever the plain {@link LinkedHashMap} it replaces was used. All changes, including those made with
+ * the default methods of {@link Map} and through iterators, go through {@link #put(Sha256Hash, Object)} and
+ * {@link #remove(Object)}, which keep the height index and the size estimate up to date. The entries given out are
+ * read only. The methods of the cache are synchronized, but iterating over it is not, so the owner of a cache must
+ * not iterate over it while another thread changes it.</p>
+ *
+ * <p>The cache is bounded both by the number of lists and by their estimated size in memory. When either limit is
+ * exceeded, the least recently used lists are evicted, skipping the list that was just added and lists for which
+ * {@link #isPinned(Object)} returns true, such as the lists at the tip or those needed by the active rotation
+ * windows. Subclasses say how to find the height of a list and how large it is.</p>
+ */
+public abstract class ListCache<V> extends AbstractMap<Sha256Hash, V> {
+    /** The default limit on the estimated size of the lists in a cache. */
+    public static final long DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+
+    // Rough in-memory sizes, including object headers, the hashes and keys of an entry and the map that holds it.
+    static final int MASTERNODE_ENTRY_BYTES = 400;
+    static final int QUORUM_ENTRY_BYTES = 1000;
+    // A masternode entry changed by a diff, and the branches of the persistent map copied on its path to the root.
+    static final int MASTERNODE_CHANGE_BYTES = 1000;
+    // A list itself, without its entries.
+    static final int LIST_BYTES = 400;
+
+    private long maxBytes = DEFAULT_MAX_BYTES;
+
+    // All fields below are guarded by this cache.
+    private final LinkedHashMap<Sha256Hash, V> lists = new LinkedHashMap<>();
+    // The keys of the lists, least recently used first.
+    private final LinkedHashMap<Sha256Hash, Boolean> recency = new LinkedHashMap<>(16, 0.75f, true);
+    // The key of the last list added at each height.
+    private final TreeMap<Long, Sha256Hash> hashesByHeight = new TreeMap<>();
+    private long estimatedBytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /** Returns the height of the block the list belongs to. */
+    protected abstract long getHeight(V list);
+
+    /** Returns an estimate of how many bytes of memory the list takes, beyond what it shares with other lists. */
+    protected abstract long estimateSize(V list);
+
+    /** Returns true if the list must not be evicted. None are pinned by default. */
+    protected boolean isPinned(V list) {
+        return false;
+    }
+
+    /** Returns the maximum number of lists to keep. Unlimited by default. */
+    protected int getMaxEntries() {
+        return Integer.MAX_VALUE;
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /** Sets the limit on the estimated size of the cached lists, evicting lists if it is now exceeded. */
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        evict(null);
+    }
+
+    @Override
+    public synchronized V get(Object key) {
+        V list = lists.get(key);
+        if (list != null) {
+            hits.incrementAndGet();
+            recency.get(key);
+        } else {
+            misses.incrementAndGet();
+        }
+        return list;
+    }
+
+    @Override
+    public synchronized boolean containsKey(Object key) {
+        return lists.containsKey(key);
+    }
+
+    @Override
+    public synchronized int size() {
+        return lists.size();
+    }
+
+    @Override
+    public synchronized V put(Sha256Hash key, V list) {
+        V old = lists.put(key, list);
+        if (old != null)
+            removed(key, old);
+        recency.put(key, Boolean.TRUE);
+        hashesByHeight.put(getHeight(list), key);
+        estimatedBytes += estimateSize(list);
+        evict(key);
+        return old;
+    }
+
+    @Override
+    public synchronized V remove(Object key) {
+        V old = lists.remove(key);
+        if (old != null)
+            removed(key, old);
+        return old;
+    }
+
+    // Updates the other fields after a list was taken out of lists
+    private void removed(Object key, V list) {
+        recency.remove(key);
+        long height = getHeight(list);
+        if (key.equals(hashesByHeight.get(height)))
+            hashesByHeight.remove(height);
+        estimatedBytes -= estimateSize(list);
+    }
+
+    @Override
+    public synchronized void clear() {
+        lists.clear();
+        recency.clear();
+        hashesByHeight.clear();
+        estimatedBytes = 0;
+    }
+
+    @Override
+    public Set<Map.Entry<Sha256Hash, V>> entrySet() {
+        return new AbstractSet<Map.Entry<Sha256Hash, V>>() {
+            @Override
+            public Iterator<Map.Entry<Sha256Hash, V>> iterator() {
+                final Iterator<Map.Entry<Sha256Hash, V>> iterator = lists.entrySet().iterator();
+                return new Iterator<Map.Entry<Sha256Hash, V>>() {
+                    private Map.Entry<Sha256Hash, V> last;
+
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<Sha256Hash, V> next() {
+                        last = iterator.next();
+                        return new AbstractMap.SimpleImmutableEntry<>(last);
+                    }
+
+                    @Override
+                    public void remove() {
+                        synchronized (ListCache.this) {
+                            iterator.remove();
+                            removed(last.getKey(), last.getValue());
+                        }
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return ListCache.this.size();
+            }
+        };
+    }
+
+    /**
+     * Returns the list with the greatest height that is not above the given height, or null if there is no such list
+     * in the cache. If several cached lists have the same height, the one added last is returned.
+     */
+    @Nullable
+    public synchronized V getAtOrBefore(long height) {
+        Map.Entry<Long, Sha256Hash> entry = hashesByHeight.floorEntry(height);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        recency.get(entry.getValue());
+        return lists.get(entry.getValue());
+    }
+
+    // Only walks the lists when a limit is exceeded, and then from the least recently used one.
+    private void evict(@Nullable Sha256Hash newest) {
+        while (lists.size() > getMaxEntries() || estimatedBytes > maxBytes) {
+            Sha256Hash victim = null;
+            for (Sha256Hash key : recency.keySet()) {
+                if (!key.equals(newest) && !isPinned(lists.get(key))) {
+                    victim = key;
+                    break;
+                }
+            }
+            if (victim == null)
+                return;
+            remove(victim);
+            evictions.incrementAndGet();
+        }
+    }
+
+    /** Returns the estimated number of bytes of memory taken by the cached lists. */
+    public synchronized long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /** Returns the fraction of lookups that found a list, or zero if there were none. */
+    public double getHitRate() {
+        long hits = this.hits.get();
+        long total = hits + misses.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /** Returns a summary of the size and the metrics of the cache, for logging. */
+    public synchronized String getStats() {
+        return String.format("%d lists, ~%d KiB, hit rate %.2f, %d evictions", size(), getEstimatedBytes() / 1024,
+                getHitRate(), getEvictionCount());
+    }
+
+    /** A cache of masternode lists. */
+    public static class MasternodeLists extends ListCache<SimplifiedMasternodeList> {
+        @Override
+        protected long getHeight(SimplifiedMasternodeList list) {
+            return list.getHeight();
+        }
+
+        // A list made from a diff shares its unchanged entries with the list the diff was applied to.
+        @Override
+        protected long estimateSize(SimplifiedMasternodeList list) {
+            return LIST_BYTES + Math.min((long) list.getChangedEntries() * MASTERNODE_CHANGE_BYTES,
+                    (long) list.size() * MASTERNODE_ENTRY_BYTES);
+        }
+    }
+
+    /** A cache of quorum lists. */
+    public static class QuorumLists extends ListCache<SimplifiedQuorumList> {
+        @Override
+        protected long getHeight(SimplifiedQuorumList list) {
+            return list.getHeight();
+        }
+
+        @Override
+        protected long estimateSize(SimplifiedQuorumList list) {
+            return LIST_BYTES + (long) list.size() * QUORUM_ENTRY_BYTES;
+        }
+    }
+}
@@ -30,6 +30,7 @@ import org.bitcoinj.quorums.PreviousQuorumQuarters;
 import org.bitcoinj.quorums.Quorum;
 import org.bitcoinj.quorums.QuorumRotationInfo;
 import org.bitcoinj.quorums.QuorumSnapshot;
+import org.bitcoinj.quorums.QuorumSnapshotManager;
 import org.bitcoinj.quorums.SigningManager;
 import org.bitcoinj.quorums.SimplifiedQuorumList;
 import org.bitcoinj.quorums.SnapshotSkipMode;
@@ -89,8 +90,8 @@ public class QuorumRotationState extends AbstractQuorumState<GetQuorumRotationIn
     List<FinalCommitment> lastCommitments;
     HashMap<Integer, SimplifiedQuorumList> activeQuorumLists;
 
-    LinkedHashMap<Sha256Hash, SimplifiedMasternodeList> mnListsCache;
-    LinkedHashMap<Sha256Hash, SimplifiedQuorumList> quorumsCache;
+    ListCache<SimplifiedMasternodeList> mnListsCache;
+    ListCache<SimplifiedQuorumList> quorumsCache;
     LinkedHashMap<Sha256Hash, QuorumSnapshot> quorumSnapshotCache = new LinkedHashMap<>();
 
     private ReentrantLock memberLock = Threading.lock("memberLock");
@@ -114,7 +115,7 @@ public class QuorumRotationState extends AbstractQuorumState<GetQuorumRotationIn
         mnListAtHMinus3C = new SimplifiedMasternodeList(context.getParams());
         mnListAtHMinus4C = new SimplifiedMasternodeList(context.getParams());
         // add the genesis block list
-        mnListsCache = new LinkedHashMap<>();
+        mnListsCache = newMasternodeListCache();
         mnListsCache.put(mnListAtH.getBlockHash(), mnListAtH);
 
         quorumListTip = new SimplifiedQuorumList(context.getParams());
@@ -125,7 +126,7 @@ public class QuorumRotationState extends AbstractQuorumState<GetQuorumRotationIn
         quorumListAtHMinus4C = new SimplifiedQuorumList(context.getParams());
 
         // add genesis block quorums
-        quorumsCache = new LinkedHashMap<>(10);
+        quorumsCache = newQuorumListCache();
         quorumsCache.put(quorumListAtH.getBlockHash(), quorumListAtH);
 
         quorumSnapshotAtHMinusC = new QuorumSnapshot(0);
@@ -196,6 +197,20 @@ public class QuorumRotationState extends AbstractQuorumState<GetQuorumRotationIn
             blockMinus4C = chain.getBlockStore().get(quorumRotationInfo.getMnListDiffAtHMinus4C().blockHash);
         }
 
+        // a bootstrap file is not checked against a peer, so the lists it contains are tied to the header chain
+        // through the coinbase transactions, which commit to their merkle roots
+        if (isLoadingBootStrap) {
+            verifyBootstrapDiff(quorumRotationInfo.getMnListDiffTip(), blockAtTip);
+            verifyBootstrapDiff(quorumRotationInfo.getMnListDiffAtH(), blockAtH);
+            verifyBootstrapDiff(quorumRotationInfo.getMnListDiffAtHMinusC(), blockMinusC);
+            verifyBootstrapDiff(quorumRotationInfo.getMnListDiffAtHMinus2C(), blockMinus2C);
+            verifyBootstrapDiff(quorumRotationInfo.getMnListDiffAtHMinus3C(), blockMinus3C);
+            if (quorumRotationInfo.hasExtraShare())
+                verifyBootstrapDiff(quorumRotationInfo.getMnListDiffAtHMinus4C(), blockMinus4C);
+            for (SimplifiedMasternodeListDiff diff : quorumRotationInfo.getMnListDiffLists())
+                verifyBootstrapDiff(diff, chain.getBlockStore().get(diff.blockHash));
+        }
+
         // TODO: this may not be needed
         // if (!isLoadingBootStrap && blockAtH.getHeight() != newHeight)
         //     throw new ProtocolException("qrinfo blockhash (height=" + blockAtH.getHeight() + " doesn't match coinbase block height: " + newHeight);
@@ -290,7 +305,7 @@ public class QuorumRotationState extends AbstractQuorumState<GetQuorumRotationIn
                 SimplifiedMasternodeList oldList = new SimplifiedMasternodeList(params);
                 oldList = oldList.applyDiff(oldDiffs.get(i));
                 mnListsCache.put(oldDiffs.get(i).blockHash, oldList);
-                quorumSnapshotCache.put(oldDiffs.get(i).blockHash, oldSnapshots.get(i));
+                putSnapshot(oldDiffs.get(i).blockHash, oldSnapshots.get(i));
             }
 
             // TODO: do we actually need to keep track of the blockchain tip mnlist?
@@ -307,11 +322,11 @@ public class QuorumRotationState extends AbstractQuorumState<GetQuorumRotationIn
             if (quorumRotationInfo.hasExtraShare()) {
                 quorumSnapshotAtHMinus4C = quorumRotationInfo.getQuorumSnapshotAtHMinus4C();
             }
-            quorumSnapshotCache.put(newMNListAtHMinusC.getBlockHash(), quorumSnapshotAtHMinusC);
-            quorumSnapshotCache.put(newMNListAtHMinus2C.getBlockHash(), quorumSnapshotAtHMinus2C);
-            quorumSnapshotCache.put(newMNListAtHMinus3C.getBlockHash(), quorumSnapshotAtHMinus3C);
+            putSnapshot(newMNListAtHMinusC.getBlockHash(), quorumSnapshotAtHMinusC);
+            putSnapshot(newMNListAtHMinus2C.getBlockHash(), quorumSnapshotAtHMinus2C);
+            putSnapshot(newMNListAtHMinus3C.getBlockHash(), quorumSnapshotAtHMinus3C);
             if (quorumRotationInfo.hasExtraShare()) {
-                quorumSnapshotCache.put(newMNListAtHMinus4C.getBlockHash(), quorumSnapshotAtHMinus4C);
+                putSnapshot(newMNListAtHMinus4C.getBlockHash(), quorumSnapshotAtHMinus4C);
             }
 
             // now calculate quorums, but do not validate them since they are all old
@@ -381,7 +396,10 @@ public class QuorumRotationState extends AbstractQuorumState<GetQuorumRotationIn
             }
             if (!hasList) {
                 newList.setBlock(blockAtH != null ? blockAtH : chain.getChainHead());
-                newList.verifyQuorums(isLoadingBootStrap, chain, true);
+                if (isDeferringQuorumVerification(isLoadingBootStrap))
+                    verifyQuorumsInBackground(newList, chain);
+                else
+                    newList.verifyQuorums(isLoadingBootStrap, chain, true);
                 activeQuorumLists.put((int) newList.getHeight(), newList);
             }
             log.info("activeQuorumLists: {}", activeQuorumLists.size());
@@ -552,7 +570,14 @@ public class QuorumRotationState extends AbstractQuorumState<GetQuorumRotationIn
                 }
             }
 
-            ArrayList<ArrayList<Masternode>> q = computeQuorumMembersByQuarterRotation(llmqType, cycleQuorumBaseBlock);
+            // members saved before a restart are used rather than computed again
+            Sha256Hash cycleQuorumBaseBlockHash = cycleQuorumBaseBlock.getHeader().getHash();
+            QuorumSnapshotManager quorumSnapshotManager = context.quorumSnapshotManager;
+            ArrayList<ArrayList<Masternode>> q = quorumSnapshotManager != null ?
+                    quorumSnapshotManager.getQuorumMembersForCycle(llmqType, cycleQuorumBaseBlockHash) : null;
+            if (q == null) {
+                q = computeQuorumMembersByQuarterRotation(llmqType, cycleQuorumBaseBlock);
+            }
             for (int i = 0; i < q.size(); ++i) {
                 mapIndexedQuorumMembers.get(llmqType).put(new Pair<>(cycleQuorumBaseBlock.getHeader().getHash(), i), q.get(i));
             }
@@ -598,6 +623,13 @@ public class QuorumRotationState extends AbstractQuorumState<GetQuorumRotationIn
 
         ArrayList<ArrayList<SimplifiedMasternodeListEntry>> newQuarterMembers = buildNewQuorumQuarterMembers(llmqParameters, quorumBaseBlock, previousQuarters);
 
+        // members are only saved if every quarter was resolved, otherwise they are computed again when asked for
+        boolean complete = previousQuarters.complete;
+        for (ArrayList<SimplifiedMasternodeListEntry> quarter : newQuarterMembers) {
+            if (quarter.size() < llmqParameters.getSize() / 4)
+                complete = false;
+        }
+
         // logging
         if (context.isDebugMode()) {
             for (int i = 0; i < llmqParameters.getSigningActiveQuorumCount(); ++i) {
@@ -653,6 +685,14 @@ public class QuorumRotationState extends AbstractQuorumState<GetQuorumRotationIn
             }
         }
 
+        QuorumSnapshotManager quorumSnapshotManager = context.quorumSnapshotManager;
+        if (complete) {
+            if (quorumSnapshotManager != null)
+                quorumSnapshotManager.storeQuorumMembersForCycle(llmqType, quorumBaseBlock.getHeader().getHash(), quorumMembers);
+        } else {
+            log.info("not saving the incomplete quorum members of llmqType[{}] nHeight[{}]", llmqType, quorumBaseBlock.getHeight());
+        }
+
         return quorumMembers;
     }
 
@@ -894,18 +934,21 @@ public class QuorumRotationState extends AbstractQuorumState<GetQuorumRotationIn
             StoredBlock snapshotBlockHMinus2C = blockHMinusC.getAncestor(store, blockHMinus2C.getHeight() - 8);
             StoredBlock snapshotBlockHMinus3C = blockHMinusC.getAncestor(store, blockHMinus3C.getHeight() - 8);
 
-            QuorumSnapshot quSnapshotHMinusC = quorumSnapshotCache.get(snapshotBlockHMinusC.getHeader().getHash());
+            QuorumSnapshot quSnapshotHMinusC = getSnapshot(snapshotBlockHMinusC.getHeader().getHash());
             if (quSnapshotHMinusC != null) {
 
                 quarters.quarterHMinusC = getQuorumQuarterMembersBySnapshot(llmqParameters, blockHMinusC, quSnapshotHMinusC);
 
-                QuorumSnapshot quSnapshotHMinus2C = quorumSnapshotCache.get(snapshotBlockHMinus2C.getHeader().getHash());
+                QuorumSnapshot quSnapshotHMinus2C = getSnapshot(snapshotBlockHMinus2C.getHeader().getHash());
                 if (quSnapshotHMinus2C != null) {
                     quarters.quarterHMinus2C = getQuorumQuarterMembersBySnapshot(llmqParameters, blockHMinus2C, quSnapshotHMinus2C);
 
-                    QuorumSnapshot quSnapshotHMinus3C = quorumSnapshotCache.get(snapshotBlockHMinus3C.getHeader().getHash());
+                    QuorumSnapshot quSnapshotHMinus3C = getSnapshot(snapshotBlockHMinus3C.getHeader().getHash());
                     if (quSnapshotHMinus3C != null) {
                         quarters.quarterHMinus3C = getQuorumQuarterMembersBySnapshot(llmqParameters, blockHMinus3C, quSnapshotHMinus3C);
+                        // the members of snapshots that keep listed entries are not computed yet
+                        quarters.complete = isResolved(quSnapshotHMinusC) && isResolved(quSnapshotHMinus2C) &&
+                                isResolved(quSnapshotHMinus3C);
                     }
                 }
             }
@@ -916,6 +959,10 @@ public class QuorumRotationState extends AbstractQuorumState<GetQuorumRotationIn
         }
     }
 
+    private static boolean isResolved(QuorumSnapshot snapshot) {
+        return snapshot.getSkipListMode() != SnapshotSkipMode.MODE_NO_SKIPPING_ENTRIES.getValue();
+    }
+
     ArrayList<ArrayList<SimplifiedMasternodeListEntry>> getQuorumQuarterMembersBySnapshot(LLMQParameters llmqParameters, StoredBlock quorumBaseBlock, QuorumSnapshot snapshot) {
         try {
             int numQuorums = llmqParameters.getSigningActiveQuorumCount();
@@ -1039,6 +1086,45 @@ public class QuorumRotationState extends AbstractQuorumState<GetQuorumRotationIn
         }
     }
 
+    // The lists of the active rotation window and of the tip are pinned, older ones are evicted when memory runs short
+    private ListCache<SimplifiedMasternodeList> newMasternodeListCache() {
+        return new ListCache.MasternodeLists() {
+            @Override
+            protected boolean isPinned(SimplifiedMasternodeList list) {
+                return list == mnListTip || list == mnListAtH || list == mnListAtHMinusC || list == mnListAtHMinus2C ||
+                        list == mnListAtHMinus3C || list == mnListAtHMinus4C;
+            }
+        };
+    }
+
+    private ListCache<SimplifiedQuorumList> newQuorumListCache() {
+        return new ListCache.QuorumLists() {
+            @Override
+            protected boolean isPinned(SimplifiedQuorumList list) {
+                return list == quorumListTip || list == quorumListAtH || list == quorumListAtHMinusC ||
+                        list == quorumListAtHMinus2C || list == quorumListAtHMinus3C || list == quorumListAtHMinus4C;
+            }
+        };
+    }
+
+    private void putSnapshot(Sha256Hash blockHash, QuorumSnapshot snapshot) {
+        quorumSnapshotCache.put(blockHash, snapshot);
+        if (context.quorumSnapshotManager != null)
+            context.quorumSnapshotManager.storeSnapshotForBlock(llmqType, blockHash, snapshot);
+    }
+
+    // Snapshots that are not in memory may have been saved before a restart
+    @Nullable
+    private QuorumSnapshot getSnapshot(Sha256Hash blockHash) {
+        QuorumSnapshot snapshot = quorumSnapshotCache.get(blockHash);
+        if (snapshot == null && context.quorumSnapshotManager != null) {
+            snapshot = context.quorumSnapshotManager.getSnapshotForBlock(llmqType, blockHash);
+            if (snapshot != null)
+                quorumSnapshotCache.put(blockHash, snapshot);
+        }
+        return snapshot;
+    }
+
     void initQuorumsCache(HashMap<LLMQParameters.LLMQType, HashMap<Sha256Hash, ArrayList<Masternode>>> cache) {
         for (Map.Entry<LLMQParameters.LLMQType, LLMQParameters> llmq : params.getLlmqs().entrySet()) {
             cache.put(llmq.getKey(), new HashMap<>(llmq.getValue().getSigningActiveQuorumCount() + 1));
@@ -1064,7 +1150,7 @@ public class QuorumRotationState extends AbstractQuorumState<GetQuorumRotationIn
         mnListAtHMinus4C = new SimplifiedMasternodeList(params, payload, cursor, protocolVersion);
         cursor += mnListAtHMinus4C.getMessageSize();
 
-        mnListsCache = new LinkedHashMap<>();
+        mnListsCache = newMasternodeListCache();
         mnListsCache.put(mnListTip.getBlockHash(), mnListTip);
         mnListsCache.put(mnListAtH.getBlockHash(), mnListAtH);
         mnListsCache.put(mnListAtHMinusC.getBlockHash(), mnListAtHMinusC);
@@ -1085,7 +1171,7 @@ public class QuorumRotationState extends AbstractQuorumState<GetQuorumRotationIn
         quorumListAtHMinus4C = new SimplifiedQuorumList(params, payload, cursor, protocolVersion);
         cursor += quorumListAtHMinus4C.getMessageSize();
 
-        quorumsCache = new LinkedHashMap<>();
+        quorumsCache = newQuorumListCache();
         quorumsCache.put(quorumListTip.getBlockHash(), quorumListTip);
         quorumsCache.put(quorumListAtH.getBlockHash(), quorumListAtH);
         quorumsCache.put(quorumListAtHMinusC.getBlockHash(), quorumListAtHMinusC);
@@ -1217,12 +1303,12 @@ public class QuorumRotationState extends AbstractQuorumState<GetQuorumRotationIn
     }
 
     @Override
-    public LinkedHashMap<Sha256Hash, SimplifiedMasternodeList> getMasternodeListCache() {
+    public ListCache<SimplifiedMasternodeList> getMasternodeListCache() {
         return mnListsCache;
     }
 
     @Override
-    public LinkedHashMap<Sha256Hash, SimplifiedQuorumList> getQuorumsCache() {
+    public ListCache<SimplifiedQuorumList> getQuorumsCache() {
         return quorumsCache;
     }
 
@@ -1285,8 +1371,7 @@ public class QuorumRotationState extends AbstractQuorumState<GetQuorumRotationIn
             failedAttempts = 0;
 
             if (!pendingBlocks.isEmpty()) {
-                StoredBlock thisBlock = pendingBlocks.get(0);
-                pendingBlocks.remove(0);
+                StoredBlock thisBlock = pendingBlocks.pollFirst();
                 pendingBlocksMap.remove(thisBlock.getHeader().getHash());
             } else log.warn("pendingBlocks is empty");
 
@@ -1302,8 +1387,7 @@ public class QuorumRotationState extends AbstractQuorumState<GetQuorumRotationIn
                 log.info("lastRequest: {} -> {}", lastRequest.request.getBaseBlockHashes(), lastRequest.request.getBlockRequestHash());
                 // remove this block from the list
                 if (pendingBlocks.size() > 0) {
-                    StoredBlock thisBlock = pendingBlocks.get(0);
-                    pendingBlocks.remove(0);
+                    StoredBlock thisBlock = pendingBlocks.pollFirst();
                     pendingBlocksMap.remove(thisBlock.getHeader().getHash());
                 }
             } else {
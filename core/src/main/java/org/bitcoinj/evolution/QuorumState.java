@@ -26,6 +26,7 @@ import org.bitcoinj.core.PeerGroup;
 import org.bitcoinj.core.ProtocolException;
 import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Utils;
 import org.bitcoinj.core.VerificationException;
 import org.bitcoinj.crypto.BLSScheme;
 import org.bitcoinj.evolution.listeners.MasternodeListDownloadedListener;
@@ -34,15 +35,24 @@ import org.bitcoinj.quorums.LLMQUtils;
 import org.bitcoinj.quorums.SigningManager;
 import org.bitcoinj.quorums.SimplifiedQuorumList;
 import org.bitcoinj.store.BlockStoreException;
+import org.bitcoinj.utils.ContextPropagatingThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
 
 public class QuorumState extends AbstractQuorumState<GetSimplifiedMasternodeListDiff, SimplifiedMasternodeListDiff> {
     private static final Logger log = LoggerFactory.getLogger(QuorumState.class);
@@ -50,19 +60,75 @@ public class QuorumState extends AbstractQuorumState<GetSimplifiedMasternodeList
     SimplifiedMasternodeList mnList;
     SimplifiedQuorumList quorumList;
 
-    LinkedHashMap<Sha256Hash, SimplifiedMasternodeList> mnListsCache = new LinkedHashMap<Sha256Hash, SimplifiedMasternodeList>() {
+    // The lists at the tip are pinned, the others are evicted least recently used first
+    ListCache<SimplifiedMasternodeList> mnListsCache = new ListCache.MasternodeLists() {
+        @Override
+        protected int getMaxEntries() {
+            return getMaxCacheSize();
+        }
+
         @Override
-        protected boolean removeEldestEntry(Map.Entry<Sha256Hash, SimplifiedMasternodeList> eldest) {
-            return size() > (syncOptions == MasternodeListSyncOptions.SYNC_MINIMUM ? SimplifiedMasternodeListManager.MIN_CACHE_SIZE : SimplifiedMasternodeListManager.MAX_CACHE_SIZE);
+        protected boolean isPinned(SimplifiedMasternodeList list) {
+            return list == mnList;
         }
     };
 
-    LinkedHashMap<Sha256Hash, SimplifiedQuorumList> quorumsCache = new LinkedHashMap<Sha256Hash, SimplifiedQuorumList>() {
+    ListCache<SimplifiedQuorumList> quorumsCache = new ListCache.QuorumLists() {
         @Override
-        protected boolean removeEldestEntry(Map.Entry<Sha256Hash, SimplifiedQuorumList> eldest) {
-            return size() > (syncOptions == MasternodeListSyncOptions.SYNC_MINIMUM ? SimplifiedMasternodeListManager.MIN_CACHE_SIZE : SimplifiedMasternodeListManager.MAX_CACHE_SIZE);
+        protected int getMaxEntries() {
+            return getMaxCacheSize();
+        }
+
+        @Override
+        protected boolean isPinned(SimplifiedQuorumList list) {
+            return list == quorumList;
         }
     };
+
+    private int getMaxCacheSize() {
+        return syncOptions == MasternodeListSyncOptions.SYNC_MINIMUM ? SimplifiedMasternodeListManager.MIN_CACHE_SIZE : SimplifiedMasternodeListManager.MAX_CACHE_SIZE;
+    }
+
+    /** The default number of mnlistdiff requests that may be outstanding at once while catching up. */
+    public static final int DEFAULT_MAX_REQUESTS_IN_FLIGHT = 8;
+
+    private int maxRequestsInFlight = DEFAULT_MAX_REQUESTS_IN_FLIGHT;
+    // Requests for pending blocks in the order their diffs must be applied. The first one builds on the block of
+    // mnList and each of the others builds on the block of the one before it.
+    private final ArrayDeque<RequestInFlight> requestsInFlight = new ArrayDeque<>();
+    // Diffs which arrived before the diffs they build on, by the hash of the block they build on
+    private final HashMap<Sha256Hash, DeferredDiff> diffsAhead = new HashMap<>();
+    private int nextPeerIndex;
+    // sends stalled requests again while requests are in flight, even if no block or diff arrives to trigger it
+    private static final ScheduledExecutorService stallChecker = Executors.newSingleThreadScheduledExecutor(
+            new ContextPropagatingThreadFactory("QuorumState stalled requests"));
+    private ScheduledFuture<?> stallCheck;
+    // the last request sent by the pipeline, diffs for it are not processed once it is no longer in flight
+    private QuorumUpdateRequest<GetSimplifiedMasternodeListDiff> lastPipelinedRequest;
+
+    private static class RequestInFlight {
+        final StoredBlock block;
+        QuorumUpdateRequest<GetSimplifiedMasternodeListDiff> request;
+        Peer peer;
+
+        RequestInFlight(StoredBlock block, QuorumUpdateRequest<GetSimplifiedMasternodeListDiff> request, Peer peer) {
+            this.block = block;
+            this.request = request;
+            this.peer = peer;
+        }
+    }
+
+    /** A diff that arrived before the diffs it builds on, with the peer that sent it. */
+    public static class DeferredDiff {
+        @Nullable public final Peer peer;
+        public final SimplifiedMasternodeListDiff mnlistdiff;
+
+        DeferredDiff(@Nullable Peer peer, SimplifiedMasternodeListDiff mnlistdiff) {
+            this.peer = peer;
+            this.mnlistdiff = mnlistdiff;
+        }
+    }
+
     public QuorumState(Context context, MasternodeListSyncOptions syncOptions) {
         super(context);
         this.context = context;
@@ -94,6 +160,218 @@ public class QuorumState extends AbstractQuorumState<GetSimplifiedMasternodeList
     protected void clearState() {
         super.clearState();
         init();
+        clearRequestsInFlight();
+    }
+
+    /**
+     * Sets how many mnlistdiff requests may be outstanding at once. When there are several pending blocks, the diff
+     * for each of them is requested from the block before it, spread over the connected peers, and the diffs are
+     * applied in height order as they arrive. 1 requests one diff at a time.
+     */
+    public void setMaxRequestsInFlight(int maxRequestsInFlight) {
+        checkArgument(maxRequestsInFlight > 0);
+        lock.lock();
+        try {
+            this.maxRequestsInFlight = maxRequestsInFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getRequestsInFlight() {
+        lock.lock();
+        try {
+            return maxRequestsInFlight > 1 ? requestsInFlight.size() : super.getRequestsInFlight();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    boolean requestPipelinedUpdates(Peer downloadPeer) {
+        if (maxRequestsInFlight <= 1)
+            return false;
+        List<Peer> peers = getPeersForRequests(downloadPeer);
+        retryStalledRequests(peers);
+
+        RequestInFlight last = requestsInFlight.peekLast();
+        Sha256Hash baseBlockHash = last != null ? last.block.getHeader().getHash() : mnList.getBlockHash();
+        long lastHeight = last != null ? last.block.getHeight() : mnList.getHeight();
+        int remaining = pendingBlocks.size();
+        Iterator<StoredBlock> iterator = pendingBlocks.iterator();
+        while (requestsInFlight.size() < maxRequestsInFlight && iterator.hasNext()) {
+            StoredBlock block = iterator.next();
+            remaining--;
+            if (block.getHeight() <= lastHeight)
+                continue; // already requested
+            // when catching up on old blocks, only every syncInterval-th list is needed
+            if (syncInterval > 1 && remaining >= syncInterval && block.getHeight() % syncInterval != 0 &&
+                    block.getHeader().getTimeSeconds() < Utils.currentTimeSeconds() - 60 * 60) {
+                iterator.remove();
+                pendingBlocksMap.remove(block.getHeader().getHash());
+                continue;
+            }
+            Peer peer = peers.get(nextPeerIndex++ % peers.size());
+            lastRequest = new QuorumUpdateRequest<>(new GetSimplifiedMasternodeListDiff(baseBlockHash, block.getHeader().getHash()));
+            lastPipelinedRequest = lastRequest;
+            log.info("requesting mnlistdiff {} to {} from {}", lastHeight, block.getHeight(), peer);
+            sendRequestWithRetry(peer);
+            requestsInFlight.add(new RequestInFlight(block, lastRequest, peer));
+            baseBlockHash = block.getHeader().getHash();
+            lastHeight = block.getHeight();
+        }
+        waitingForMNListDiff = !requestsInFlight.isEmpty();
+        scheduleStallCheck();
+        return true;
+    }
+
+    private List<Peer> getPeersForRequests(@Nullable Peer downloadPeer) {
+        List<Peer> peers = new ArrayList<>();
+        if (downloadPeer != null)
+            peers.add(downloadPeer);
+        if (context.peerGroup != null) {
+            for (Peer peer : context.peerGroup.getConnectedPeers()) {
+                // masternode connections are short lived
+                if (peer != downloadPeer && !peer.isMasternode())
+                    peers.add(peer);
+            }
+        }
+        return peers;
+    }
+
+    // Sends the requests whose diffs haven't arrived in time again, to another peer if there is one
+    private void retryStalledRequests(List<Peer> peers) {
+        long now = Utils.currentTimeSeconds();
+        for (RequestInFlight requestInFlight : requestsInFlight) {
+            GetSimplifiedMasternodeListDiff request = requestInFlight.request.getRequestMessage();
+            if (diffsAhead.containsKey(request.baseBlockHash) || requestInFlight.request.getTime() + WAIT_GETMNLISTDIFF * 4 > now)
+                continue;
+            Peer peer = peers.get(nextPeerIndex++ % peers.size());
+            if (peer == requestInFlight.peer && peers.size() > 1)
+                peer = peers.get(nextPeerIndex++ % peers.size());
+            log.info("mnlistdiff for {} stalled on {}, requesting it from {}", requestInFlight.block.getHeight(),
+                    requestInFlight.peer, peer);
+            lastRequest = new QuorumUpdateRequest<>(request);
+            lastPipelinedRequest = lastRequest;
+            requestInFlight.request = lastRequest;
+            requestInFlight.peer = peer;
+            try {
+                sendRequestWithRetry(peer);
+            } catch (RuntimeException x) {
+                // the peer may have disconnected, the request is sent again once it stalls on the next check
+                log.warn("failed to send mnlistdiff request for {} to {}", requestInFlight.block.getHeight(), peer, x);
+            }
+        }
+    }
+
+    // Called with the lock held
+    private void scheduleStallCheck() {
+        if (stallCheck != null || requestsInFlight.isEmpty())
+            return;
+        stallCheck = stallChecker.schedule(new Runnable() {
+            @Override
+            public void run() {
+                // the executor is shared by all quorum states, so nothing may escape from here
+                try {
+                    Context.propagate(context);
+                    checkStalledRequests();
+                } catch (RuntimeException x) {
+                    log.warn("failed to check for stalled mnlistdiff requests", x);
+                }
+            }
+        }, WAIT_GETMNLISTDIFF * 4, TimeUnit.SECONDS);
+    }
+
+    /** Sends the requests whose diffs haven't arrived in time again, and checks again later while any are left. */
+    void checkStalledRequests() {
+        lock.lock();
+        try {
+            stallCheck = null;
+            try {
+                List<Peer> peers = getPeersForRequests(downloadPeer);
+                if (!peers.isEmpty())
+                    retryStalledRequests(peers);
+            } finally {
+                scheduleStallCheck();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    void clearRequestsInFlight() {
+        lock.lock();
+        try {
+            requestsInFlight.clear();
+            diffsAhead.clear();
+            if (stallCheck != null) {
+                stallCheck.cancel(false);
+                stallCheck = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Keeps a diff which was requested ahead of the diffs it builds on, so that it can be applied once they are.
+     * Diffs that are no longer needed, because the list is already at or past their block or because they match no
+     * outstanding request, are dropped. These are late duplicates or answers to requests that were sent again, and
+     * processing them would count as a failed attempt.
+     *
+     * @param peer the peer that sent the diff, which is kept with it
+     * @return true if the diff was kept, and will be returned by {@link #takeDeferredDiff()}, or dropped, false if it
+     * should be processed now
+     */
+    public boolean deferDiff(@Nullable Peer peer, SimplifiedMasternodeListDiff mnlistdiff) {
+        lock.lock();
+        try {
+            if (mnlistdiff.prevBlockHash.equals(mnList.getBlockHash()) && !mnlistdiff.blockHash.equals(mnList.getBlockHash()))
+                return false;
+            if (mnlistdiff.blockHash.equals(mnList.getBlockHash()) || getHeight(mnlistdiff) <= mnList.getHeight()) {
+                log.info("dropping mnlistdiff {} -> {}, the list is already at height {}", mnlistdiff.prevBlockHash,
+                        mnlistdiff.blockHash, mnList.getHeight());
+                return true;
+            }
+            for (RequestInFlight requestInFlight : requestsInFlight) {
+                GetSimplifiedMasternodeListDiff request = requestInFlight.request.getRequestMessage();
+                if (request.baseBlockHash.equals(mnlistdiff.prevBlockHash) && request.blockHash.equals(mnlistdiff.blockHash)) {
+                    log.info("keeping mnlistdiff {} -> {} until the diffs before it are processed",
+                            mnlistdiff.prevBlockHash, mnlistdiff.blockHash);
+                    diffsAhead.put(mnlistdiff.prevBlockHash, new DeferredDiff(peer, mnlistdiff));
+                    return true;
+                }
+            }
+            // a single request, such as a reset from the genesis block, is processed as before
+            if (lastRequest != lastPipelinedRequest && lastRequest.getRequestMessage().blockHash.equals(mnlistdiff.blockHash))
+                return false;
+            log.info("dropping mnlistdiff {} -> {}, it matches no outstanding request", mnlistdiff.prevBlockHash,
+                    mnlistdiff.blockHash);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static long getHeight(SimplifiedMasternodeListDiff mnlistdiff) {
+        SpecialTxPayload payload = mnlistdiff.coinBaseTx.getExtraPayloadObject();
+        return payload instanceof CoinbaseTx ? ((CoinbaseTx) payload).getHeight() : Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns and forgets the kept diff which builds on the current masternode list, if it has arrived, along with
+     * the peer that sent it.
+     */
+    @Nullable
+    public DeferredDiff takeDeferredDiff() {
+        lock.lock();
+        try {
+            return diffsAhead.remove(mnList.getBlockHash());
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
@@ -133,19 +411,24 @@ public class QuorumState extends AbstractQuorumState<GetSimplifiedMasternodeList
         }
         if(!isLoadingBootStrap && block.getHeight() != newHeight)
             throw new ProtocolException("mnlistdiff blockhash (height="+block.getHeight()+" doesn't match coinbase blockheight: " + newHeight);
+        // a bootstrap file is not checked against a peer, so the lists it contains are tied to the header chain
+        // through the coinbase transaction, which commits to their merkle roots
+        if (isLoadingBootStrap)
+            verifyBootstrapDiff(mnlistdiff, block);
+        boolean deferQuorumVerification = isDeferringQuorumVerification(isLoadingBootStrap);
 
         if (peer != null && isSyncingHeadersFirst) peer.queueMasternodeListDownloadedListeners(MasternodeListDownloadedListener.Stage.Processing, mnlistdiff);
 
         SimplifiedMasternodeList newMNList = mnList.applyDiff(mnlistdiff);
-        if(context.masternodeSync.hasVerifyFlag(MasternodeSync.VERIFY_FLAGS.MNLISTDIFF_MNLIST))
+        if(isLoadingBootStrap || context.masternodeSync.hasVerifyFlag(MasternodeSync.VERIFY_FLAGS.MNLISTDIFF_MNLIST))
             newMNList.verify(mnlistdiff.coinBaseTx, mnlistdiff, mnList);
         if (peer != null && isSyncingHeadersFirst) peer.queueMasternodeListDownloadedListeners(MasternodeListDownloadedListener.Stage.ProcessedMasternodes, mnlistdiff);
         newMNList.setBlock(block, block != null && block.getHeader().getPrevBlockHash().equals(mnlistdiff.prevBlockHash));
 
         SimplifiedQuorumList newQuorumList = quorumList;
         if(mnlistdiff.coinBaseTx.getExtraPayloadObject().getVersion() >= SimplifiedMasternodeListManager.LLMQ_FORMAT_VERSION) {
-            newQuorumList = quorumList.applyDiff(mnlistdiff, isLoadingBootStrap, chain, false, true);
-            if(context.masternodeSync.hasVerifyFlag(MasternodeSync.VERIFY_FLAGS.MNLISTDIFF_QUORUM))
+            newQuorumList = quorumList.applyDiff(mnlistdiff, isLoadingBootStrap, chain, false, !deferQuorumVerification);
+            if(isLoadingBootStrap || context.masternodeSync.hasVerifyFlag(MasternodeSync.VERIFY_FLAGS.MNLISTDIFF_QUORUM))
                 newQuorumList.verify(mnlistdiff.coinBaseTx, mnlistdiff, quorumList, newMNList);
         } else {
             quorumList.syncWithMasternodeList(newMNList);
@@ -157,6 +440,9 @@ public class QuorumState extends AbstractQuorumState<GetSimplifiedMasternodeList
         mnList = newMNList;
         quorumsCache.put(newQuorumList.getBlockHash(), newQuorumList);
         quorumList = newQuorumList;
+
+        if (deferQuorumVerification)
+            verifyQuorumsInBackground(newQuorumList, chain);
     }
 
     @Override
@@ -233,11 +519,11 @@ public class QuorumState extends AbstractQuorumState<GetSimplifiedMasternodeList
         return mnList;
     }
 
-    public LinkedHashMap<Sha256Hash, SimplifiedMasternodeList> getMasternodeListCache() {
+    public ListCache<SimplifiedMasternodeList> getMasternodeListCache() {
         return mnListsCache;
     }
 
-    public LinkedHashMap<Sha256Hash, SimplifiedQuorumList> getQuorumsCache() {
+    public ListCache<SimplifiedQuorumList> getQuorumsCache() {
         return quorumsCache;
     }
 
@@ -270,6 +556,8 @@ public class QuorumState extends AbstractQuorumState<GetSimplifiedMasternodeList
             log.info(this.toString());
             unCache();
             clearFailedAttempts();
+            while (!requestsInFlight.isEmpty() && requestsInFlight.peekFirst().block.getHeight() <= mnList.getHeight())
+                requestsInFlight.pollFirst();
 
             if(!pendingBlocks.isEmpty()) {
                 // remove the first pending block
@@ -288,7 +576,7 @@ public class QuorumState extends AbstractQuorumState<GetSimplifiedMasternodeList
                 log.info("lastRequest {} -> {}", lastRequest.request.baseBlockHash, lastRequest.request.blockHash);
                 // remove this block from the list
                 if(getPendingBlocks().size() > 0) {
-                    StoredBlock thisBlock = getPendingBlocks().get(0);
+                    StoredBlock thisBlock = getPendingBlocks().peekFirst();
                     if(thisBlock.getHeader().getPrevBlockHash().equals(mnlistdiff.prevBlockHash) &&
                             thisBlock.getHeader().getHash().equals(mnlistdiff.prevBlockHash)) {
                         popPendingBlock();
@@ -305,6 +593,8 @@ public class QuorumState extends AbstractQuorumState<GetSimplifiedMasternodeList
                 log.info("requires reset {}", x.hasMerkleRootMismatch());
 
                 incrementFailedAttempts();
+                // the diffs requested after this one build on it, so they are requested again
+                clearRequestsInFlight();
                 log.info("failed attempts {}", getFailedAttempts());
                 if (reachedMaxFailedAttempts()) {
                     resetMNList(true);
@@ -314,14 +604,17 @@ public class QuorumState extends AbstractQuorumState<GetSimplifiedMasternodeList
             //request this block again and close this peer
             log.info("verification error: close this peer" + x.getMessage());
             incrementFailedAttempts();
+            clearRequestsInFlight();
             throw x;
         } catch(NullPointerException x) {
             log.info("NPE: close this peer", x);
             incrementFailedAttempts();
+            clearRequestsInFlight();
             throw new VerificationException("verification error: " + x.getMessage());
         } catch(BlockStoreException x) {
             log.info(x.getMessage());
             incrementFailedAttempts();
+            clearRequestsInFlight();
             throw new ProtocolException(x);
         } finally {
             watch.stop();
@@ -348,8 +641,8 @@ public class QuorumState extends AbstractQuorumState<GetSimplifiedMasternodeList
         return "QuorumState{" +
                 "mnList=" + mnList +
                 ", quorumList=" + quorumList +
-                ", mnListsCacheSize=" + mnListsCache.size() +
-                ", quorumsCacheSize=" + quorumsCache.size() +
+                ", mnListsCache=" + mnListsCache.getStats() +
+                ", quorumsCache=" + quorumsCache.getStats() +
                 '}';
     }
 
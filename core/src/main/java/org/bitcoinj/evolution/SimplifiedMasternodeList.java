@@ -5,6 +5,7 @@ import com.google.common.collect.Lists;
 import org.bitcoinj.core.*;
 import org.bitcoinj.quorums.LLMQUtils;
 import org.bitcoinj.utils.Pair;
+import org.bitcoinj.utils.PersistentHashMap;
 import org.bitcoinj.utils.Threading;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,7 +30,10 @@ public class SimplifiedMasternodeList extends Message {
     private long height;
     private StoredBlock storedBlock;
     private boolean storedBlockMatchesRequest;
-    HashMap<Sha256Hash, SimplifiedMasternodeListEntry> mnMap;
+    // Persistent, so that lists derived with applyDiff share all unchanged entries with their parent.
+    PersistentHashMap<Sha256Hash, SimplifiedMasternodeListEntry> mnMap;
+    // Entries added, replaced or removed by the diff this list was made with, or all of them if it was not made so
+    private int changedEntries = Integer.MAX_VALUE;
     @Deprecated
     HashMap<Sha256Hash, Pair<Sha256Hash, Integer>> mnUniquePropertyMap = new HashMap<>();
 
@@ -39,7 +43,7 @@ public class SimplifiedMasternodeList extends Message {
         super(params);
         blockHash = params.getGenesisBlock().getHash();
         height = -1;
-        mnMap = new HashMap<Sha256Hash, SimplifiedMasternodeListEntry>(5000);
+        mnMap = PersistentHashMap.empty();
         storedBlock = new StoredBlock(params.getGenesisBlock(), BigInteger.ZERO, 0);
         initProtocolVersion();
     }
@@ -57,7 +61,7 @@ public class SimplifiedMasternodeList extends Message {
         this.version = version;
         this.blockHash = other.blockHash;
         this.height = other.height;
-        mnMap = new HashMap<Sha256Hash, SimplifiedMasternodeListEntry>(other.mnMap);
+        mnMap = other.mnMap;
         this.storedBlock = other.storedBlock;
         initProtocolVersion();
     }
@@ -68,7 +72,7 @@ public class SimplifiedMasternodeList extends Message {
         this.version = SimplifiedMasternodeListDiff.CURRENT_VERSION;
         this.blockHash = params.getGenesisBlock().getHash();
         this.height = -1;
-        mnMap = new HashMap<Sha256Hash, SimplifiedMasternodeListEntry>(entries.size());
+        mnMap = PersistentHashMap.empty();
         for(SimplifiedMasternodeListEntry entry : entries)
             addMN(entry);
         storedBlock = new StoredBlock(params.getGenesisBlock(), BigInteger.ZERO, 0);
@@ -85,13 +89,13 @@ public class SimplifiedMasternodeList extends Message {
         blockHash = readHash();
         height = (int)readUint32();
         int size = (int)readVarInt();
-        mnMap = new HashMap<>(size);
+        mnMap = PersistentHashMap.empty();
         for(int i = 0; i < size; ++i)
         {
             Sha256Hash hash = readHash();
             SimplifiedMasternodeListEntry mn = new SimplifiedMasternodeListEntry(params, payload, cursor, protocolVersion);
             cursor += mn.getMessageSize();
-            mnMap.put(hash, mn);
+            mnMap = mnMap.plus(hash, mn);
         }
 
         // read the number of properties, which should be zero
@@ -139,6 +143,14 @@ public class SimplifiedMasternodeList extends Message {
         stream.write(buffer.array());
     }
 
+    /**
+     * Returns how many entries the diff this list was made from changed, which are the entries it does not share
+     * with the list it was made from. Lists that were not made from a diff share none.
+     */
+    int getChangedEntries() {
+        return Math.min(changedEntries, mnMap.size());
+    }
+
     public int size() {
         return mnMap.size();
     }
@@ -162,6 +174,7 @@ public class SimplifiedMasternodeList extends Message {
             result.blockHash = diff.blockHash;
             result.height = cbtx.getHeight();
             result.coinbaseTxPayload = cbtx;
+            result.changedEntries = diff.deletedMNs.size() + diff.mnList.size();
 
             for (Sha256Hash hash : diff.deletedMNs) {
                 result.removeMN(hash);
@@ -179,7 +192,7 @@ public class SimplifiedMasternodeList extends Message {
     {
         lock.lock();
         try {
-            mnMap.put(dmn.proRegTxHash, dmn);
+            mnMap = mnMap.plus(dmn.proRegTxHash, dmn);
         } finally {
             lock.unlock();
         }
@@ -188,10 +201,7 @@ public class SimplifiedMasternodeList extends Message {
     void removeMN(Sha256Hash proTxHash) {
         lock.lock();
         try {
-            SimplifiedMasternodeListEntry dmn = getMN(proTxHash);
-            if (dmn != null) {
-                mnMap.remove(proTxHash);
-            }
+            mnMap = mnMap.minus(proTxHash);
         } finally {
             lock.unlock();
         }
@@ -155,9 +155,22 @@ public class SimplifiedMasternodeListDiff extends AbstractDiffMessage {
         return !mnList.isEmpty() || !deletedMNs.isEmpty();
     }
 
-    boolean verify() {
-        //check that coinbase is in the merkle root
-        return true;
+    /**
+     * Returns true if the partial merkle tree proves that the coinbase transaction of this diff is in the block with
+     * the given header. The coinbase transaction commits to the merkle roots of the masternode and quorum lists, so
+     * this ties those lists to the header chain.
+     */
+    public boolean verify(Block header) {
+        if (!header.getHash().equals(blockHash))
+            return false;
+        List<Sha256Hash> matchedHashes = new ArrayList<>(1);
+        try {
+            if (!cbTxMerkleTree.getTxnHashAndMerkleRoot(matchedHashes).equals(header.getMerkleRoot()))
+                return false;
+        } catch (VerificationException x) {
+            return false;
+        }
+        return matchedHashes.size() == 1 && matchedHashes.get(0).equals(coinBaseTx.getTxId());
     }
 
     @Override
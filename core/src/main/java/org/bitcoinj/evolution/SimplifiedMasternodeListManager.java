@@ -18,6 +18,8 @@ package org.bitcoinj.evolution;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import org.bitcoinj.core.AbstractBlockChain;
 import org.bitcoinj.core.AbstractManager;
@@ -305,6 +307,10 @@ public class SimplifiedMasternodeListManager extends AbstractManager implements
     }
 
     public void processMasternodeListDiff(@Nullable Peer peer, SimplifiedMasternodeListDiff mnlistdiff, boolean isLoadingBootStrap) {
+        // diffs requested in parallel can arrive out of order, or late
+        if (!isLoadingBootStrap && quorumState.deferDiff(peer, mnlistdiff)) {
+            return;
+        }
         try {
             quorumState.processDiff(peer, mnlistdiff, headersChain, blockChain, isLoadingBootStrap);
 
@@ -322,6 +328,11 @@ public class SimplifiedMasternodeListManager extends AbstractManager implements
         } finally {
             // TODO: do we need this finally block?
         }
+
+        // the kept diffs may have been sent by other peers than the one that sent this diff
+        QuorumState.DeferredDiff nextDiff = quorumState.takeDeferredDiff();
+        if (nextDiff != null)
+            processMasternodeListDiff(nextDiff.peer, nextDiff.mnlistdiff, false);
     }
 
     public void requestQuorumStateUpdate(Peer downloadPeer, StoredBlock requestBlock, StoredBlock requestBlockMinus8) {
@@ -374,7 +385,7 @@ public class SimplifiedMasternodeListManager extends AbstractManager implements
     }
 
     // TODO: does this need an argument for LLQMType?
-    Map<Sha256Hash, SimplifiedMasternodeList> getMasternodeListCache() {
+    ListCache<SimplifiedMasternodeList> getMasternodeListCache() {
         if (isQuorumRotationEnabled(params.getLlmqDIP0024InstantSend())) {
             return quorumRotationState.getMasternodeListCache();
         } else {
@@ -383,7 +394,7 @@ public class SimplifiedMasternodeListManager extends AbstractManager implements
     }
 
     // TODO: does this need an argument for LLQMType?
-    public Map<Sha256Hash, SimplifiedQuorumList> getQuorumListCache(LLMQParameters.LLMQType llmqType) {
+    public ListCache<SimplifiedQuorumList> getQuorumListCache(LLMQParameters.LLMQType llmqType) {
         if (isQuorumRotationEnabled(llmqType)) {
             return quorumRotationState.getQuorumsCache();
         } else {
@@ -435,7 +446,7 @@ public class SimplifiedMasternodeListManager extends AbstractManager implements
 
     @Override
     public String toString() {
-        StoredBlock firstPending = quorumRotationState.pendingBlocks.size() > 0 ? quorumRotationState.pendingBlocks.get(0) : null;
+        StoredBlock firstPending = quorumRotationState.pendingBlocks.peekFirst();
         int height = firstPending != null ? firstPending.getHeight() : -1;
         return "SimplifiedMNListManager:  {tip:" + getMasternodeList() +
                 ", " + getQuorumListAtTip(params.getLlmqChainLocks()) +
@@ -496,6 +507,34 @@ public class SimplifiedMasternodeListManager extends AbstractManager implements
         }
     }
 
+    /**
+     * Returns the cached masternode list with the greatest height that is not above the given height, without
+     * looking up blocks in the chain, or null if no such list is cached.
+     */
+    @Nullable
+    public SimplifiedMasternodeList getListAtOrBefore(long height) {
+        lock.lock();
+        try {
+            return getMasternodeListCache().getAtOrBefore(height);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the cached quorum list for the given type with the greatest height that is not above the given height,
+     * without looking up blocks in the chain, or null if no such list is cached.
+     */
+    @Nullable
+    public SimplifiedQuorumList getQuorumListAtOrBefore(long height, LLMQParameters.LLMQType llmqType) {
+        lock.lock();
+        try {
+            return getQuorumListCache(llmqType).getAtOrBefore(height);
+        } finally {
+            lock.unlock();
+        }
+    }
+
     public SimplifiedQuorumList getQuorumListForBlock(Sha256Hash blockHash, LLMQParameters.LLMQType llmqType) {
         lock.lock();
         try {
@@ -590,6 +629,22 @@ public class SimplifiedMasternodeListManager extends AbstractManager implements
         quorumRotationState.setBootstrap(null, qrinfoStream, format);
     }
 
+    /**
+     * If set, the BLS signatures of the quorums in the bootstrap files are verified in the background once the files
+     * are loaded, so that the masternode list can be used sooner.
+     * See {@link AbstractQuorumState#setDeferBootstrapQuorumVerification(boolean)}.
+     */
+    public void setDeferBootstrapQuorumVerification(boolean deferBootstrapQuorumVerification) {
+        quorumState.setDeferBootstrapQuorumVerification(deferBootstrapQuorumVerification);
+        quorumRotationState.setDeferBootstrapQuorumVerification(deferBootstrapQuorumVerification);
+    }
+
+    /** Returns a future that completes when the deferred verification of the bootstrap quorums is done. */
+    public ListenableFuture<List<Boolean>> getBootstrapQuorumsVerified() {
+        return Futures.allAsList(quorumState.getBootstrapQuorumsVerified(),
+                quorumRotationState.getBootstrapQuorumsVerified());
+    }
+
     @Deprecated
     public static void setBootStrapFilePath(String mnlistdiffFilePath,String qrinfoFilepath, int format) {
         SimplifiedMasternodeListManager.mnlistdiffBootStrapFilePath = mnlistdiffFilePath;
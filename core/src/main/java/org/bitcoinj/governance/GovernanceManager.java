@@ -11,8 +11,15 @@ import java.io.OutputStream;
 import java.math.BigInteger;
 import java.net.InetAddress;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.locks.ReentrantLock;
 
 import static com.google.common.base.Preconditions.checkState;
@@ -41,13 +48,20 @@ public class GovernanceManager extends AbstractManager {
 
     private static final int MAX_CACHE_SIZE = 1000000;
 
+    // maximum number of incoming votes that are signature checked together before being applied
+    private static final int MAX_VOTE_BATCH_SIZE = 512;
+
+    // maximum number of incoming votes waiting to be verified, more votes are dropped until the queue drains
+    static final int MAX_PENDING_VOTES = 32 * MAX_VOTE_BATCH_SIZE;
+
     private long nTimeLastDiff;
 
     // keep track of current block height
     private int nCachedBlockHeight;
 
     // keep track of the scanning errors
-    private HashMap<Sha256Hash, GovernanceObject> mapObjects;
+    // concurrent so that lookups from peer threads do not have to wait for maintenance, writes still hold lock
+    private ConcurrentHashMap<Sha256Hash, GovernanceObject> mapObjects;
 
     // mapErasedGovernanceObjects contains key-value pairs, where
     //   key   - governance object's hash
@@ -80,11 +94,17 @@ public class GovernanceManager extends AbstractManager {
 
     private boolean fRateChecksEnabled;
 
+    // votes received from peers that are waiting for signature verification, keyed by vote hash
+    private final LinkedHashMap<Sha256Hash, Pair<Peer, GovernanceVote>> mapPendingVotes = new LinkedHashMap<>();
+    private boolean fPendingVotesScheduled;
+    private ExecutorService voteIngestionExecutor;
+    private ExecutorService voteVerificationExecutor;
+
     public GovernanceManager(Context context) {
         super(context);
         this.nTimeLastDiff = 0;
         this.nCachedBlockHeight = 0;
-        this.mapObjects = new HashMap<Sha256Hash, GovernanceObject>();
+        this.mapObjects = new ConcurrentHashMap<Sha256Hash, GovernanceObject>();
         this.mapErasedGovernanceObjects = new HashMap<Sha256Hash, Long>();
         this.mapMasternodeOrphanObjects = new HashMap<Sha256Hash, Pair<GovernanceObject, ExpirationInfo>>();
         this.mapWatchdogObjects = new HashMap<Sha256Hash, Long>();
@@ -144,7 +164,7 @@ public class GovernanceManager extends AbstractManager {
         cursor += mapOrphanVotes.getMessageSize();
         //READWRITE(mapObjects);
         size = (int)readVarInt();
-        mapObjects = new HashMap<Sha256Hash, GovernanceObject>(size);
+        mapObjects = new ConcurrentHashMap<Sha256Hash, GovernanceObject>(size);
         for(int i = 0; i < size; ++i) {
             Sha256Hash hash = readHash();
             GovernanceObjectFromFile govobj = new GovernanceObjectFromFile(params, payload, cursor);
@@ -353,6 +373,11 @@ public class GovernanceManager extends AbstractManager {
             return;
         }
 
+        addPendingVote(peer, vote);
+    }
+
+    private void processVerifiedVote(Peer peer, GovernanceVote vote) {
+        String strHash = vote.getHash().toString();
         GovernanceException exception = new GovernanceException();
         if (processVote(peer, vote, exception)) {
             log.info("gobject--MNGOVERNANCEOBJECTVOTE -- {} new", strHash);
@@ -363,15 +388,187 @@ public class GovernanceManager extends AbstractManager {
             if ((exception.getNodePenalty() != 0) && context.masternodeSync.isSynced()) {
                 //Misbehaving(pfrom.GetId(), exception.GetNodePenalty());
             }
+        }
+    }
+
+    /**
+     * Queues a vote received from a peer. Votes that are already known or already queued are dropped, as are all
+     * votes while {@link #MAX_PENDING_VOTES} are queued. The queue is drained in batches by
+     * {@link #processPendingVotes()} on a background thread.
+     *
+     * @return true if the vote was queued
+     */
+    boolean addPendingVote(Peer peer, GovernanceVote vote) {
+        lock.lock();
+        try {
+            Sha256Hash nHash = vote.getHash();
+            if (mapPendingVotes.containsKey(nHash) || mapInvalidVotes.hasKey(nHash) || mapVoteToObject.hasKey(nHash)) {
+                log.info("gobject--MNGOVERNANCEOBJECTVOTE -- duplicate vote: {}", nHash);
+                return false;
+            }
+            if (mapPendingVotes.size() >= MAX_PENDING_VOTES) {
+                log.warn("gobject--MNGOVERNANCEOBJECTVOTE -- too many pending votes, dropping vote: {}", nHash);
+                return false;
+            }
+            mapPendingVotes.put(nHash, new Pair<>(peer, vote));
+            schedulePendingVotes();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // starts draining the queue unless it is already being drained, lock must be held
+    private void schedulePendingVotes() {
+        if (fPendingVotesScheduled || mapPendingVotes.isEmpty()) {
             return;
         }
+        fPendingVotesScheduled = true;
+        getVoteIngestionExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    boolean moreWork = true;
+                    while (moreWork) {
+                        moreWork = processPendingVotes();
+                    }
+                } catch (RuntimeException x) {
+                    log.warn("failed to process pending governance votes", x);
+                    lock.lock();
+                    try {
+                        // the failed batch has left the queue, go on with the votes behind it
+                        fPendingVotesScheduled = false;
+                        schedulePendingVotes();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }
+        });
+    }
 
+    /**
+     * Takes up to {@link #MAX_VOTE_BATCH_SIZE} pending votes, verifies their signatures in parallel with one task
+     * per masternode and then applies them in the order they were received. A vote that fails to apply does not
+     * stop the rest of the batch.
+     *
+     * @return true if more votes are waiting to be processed
+     */
+    boolean processPendingVotes() {
+        ArrayList<Pair<Peer, GovernanceVote>> batch = new ArrayList<>();
+        lock.lock();
+        try {
+            Iterator<Pair<Peer, GovernanceVote>> it = mapPendingVotes.values().iterator();
+            while (it.hasNext() && batch.size() < MAX_VOTE_BATCH_SIZE) {
+                batch.add(it.next());
+                it.remove();
+            }
+            if (batch.isEmpty()) {
+                fPendingVotesScheduled = false;
+                return false;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        // group by masternode, so that each masternode's votes are checked against its key by one task
+        HashMap<TransactionOutPoint, ArrayList<GovernanceVote>> votesByMasternode = new HashMap<>();
+        for (Pair<Peer, GovernanceVote> entry : batch) {
+            GovernanceVote vote = entry.getSecond();
+            ArrayList<GovernanceVote> votes = votesByMasternode.get(vote.getMasternodeOutpoint());
+            if (votes == null) {
+                votes = new ArrayList<>();
+                votesByMasternode.put(vote.getMasternodeOutpoint(), votes);
+            }
+            votes.add(vote);
+        }
+
+        ArrayList<Future<Void>> results = new ArrayList<>(votesByMasternode.size());
+        try {
+            ExecutorService executor = getVoteVerificationExecutor();
+            for (final ArrayList<GovernanceVote> votes : votesByMasternode.values()) {
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        // the verification result is cached in each vote, processVote will not verify them again
+                        for (GovernanceVote vote : votes) {
+                            vote.isValid(true);
+                        }
+                        return null;
+                    }
+                }));
+            }
+        } catch (RejectedExecutionException x) {
+            // processVote will verify any vote that was not checked here
+            log.warn("governance vote verification was rejected", x);
+        }
+        for (Future<Void> result : results) {
+            try {
+                result.get();
+            } catch (InterruptedException x) {
+                // processVote will verify any vote that was not checked here
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException x) {
+                log.warn("governance vote verification failed", x);
+            }
+        }
+
+        for (Pair<Peer, GovernanceVote> entry : batch) {
+            try {
+                processVerifiedVote(entry.getFirst(), entry.getSecond());
+            } catch (RuntimeException x) {
+                log.warn("failed to process governance vote: " + entry.getSecond().getHash(), x);
+            }
+        }
+
+        lock.lock();
+        try {
+            // stop when interrupted, the next vote that is queued starts draining again
+            if (mapPendingVotes.isEmpty() || Thread.currentThread().isInterrupted()) {
+                fPendingVotesScheduled = false;
+                return false;
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getPendingVoteCount() {
+        lock.lock();
+        try {
+            return mapPendingVotes.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ExecutorService getVoteIngestionExecutor() {
+        if (voteIngestionExecutor == null || voteIngestionExecutor.isShutdown()) {
+            voteIngestionExecutor = Executors.newSingleThreadExecutor(new ContextPropagatingThreadFactory("governance-vote-ingestion"));
+        }
+        return voteIngestionExecutor;
     }
 
+    private ExecutorService getVoteVerificationExecutor() {
+        if (voteVerificationExecutor == null || voteVerificationExecutor.isShutdown()) {
+            voteVerificationExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    new ContextPropagatingThreadFactory("governance-vote-verification"));
+        }
+        return voteVerificationExecutor;
+    }
+
+    /**
+     * Applies a vote to its governance object. The object is looked up under the manager lock, but the vote is
+     * applied under the lock of the object only, so that votes for different objects are applied in parallel.
+     */
     public boolean processVote(Peer pfrom, GovernanceVote vote, GovernanceException exception) {
+        Sha256Hash nHashVote = vote.getHash();
+        Sha256Hash nHashGovobj = vote.getParentHash();
+        GovernanceObject govobj;
         lock.lock();
         try {
-            Sha256Hash nHashVote = vote.getHash();
             if (mapInvalidVotes.hasKey(nHashVote)) {
                 String message = "CGovernanceManager::ProcessVote -- Old invalid vote, MN outpoint = " + vote.getMasternodeOutpoint().toStringShort() +
                         ", governance object hash = " + vote.getParentHash().toString();
@@ -380,8 +577,7 @@ public class GovernanceManager extends AbstractManager {
                 return false;
             }
 
-            Sha256Hash nHashGovobj = vote.getParentHash();
-            GovernanceObject govobj = mapObjects.get(nHashGovobj);
+            govobj = mapObjects.get(nHashGovobj);
             if (govobj == null) {
                 String message = "CGovernanceManager::ProcessVote -- Unknown parent object, MN outpoint = " + vote.getMasternodeOutpoint().toStringShort() +
                         ", governance object hash = " + vote.getParentHash().toString();
@@ -400,9 +596,16 @@ public class GovernanceManager extends AbstractManager {
                 log.info("gobject--CGovernanceObject::ProcessVote -- ignoring vote for expired or deleted object, hash = {}", nHashGovobj.toString());
                 return false;
             }
+        } finally {
+            lock.unlock();
+        }
 
-            boolean fOk = govobj.processVote(pfrom, vote, exception);
-            if (fOk) {
+        boolean fOk = govobj.processVote(pfrom, vote, exception);
+
+        lock.lock();
+        try {
+            // the object may have been removed while the vote was applied
+            if (fOk && mapObjects.get(nHashGovobj) == govobj) {
                 mapVoteToObject.insert(nHashVote, govobj);
 
                 /* TODO:  Fix Governance Objects
@@ -598,7 +801,12 @@ public class GovernanceManager extends AbstractManager {
 
     public void addInvalidVote(final GovernanceVote vote)
     {
-        mapInvalidVotes.insert(vote.getHash(), vote);
+        lock.lock();
+        try {
+            mapInvalidVotes.insert(vote.getHash(), vote);
+        } finally {
+            lock.unlock();
+        }
     }
 
     void addOrphanVote(final GovernanceVote vote)
@@ -780,12 +988,7 @@ public class GovernanceManager extends AbstractManager {
 
     public GovernanceObject findGovernanceObject(Sha256Hash nHash)
     {
-        lock.lock();
-        try {
-            return mapObjects.get(nHash);
-        } finally {
-            lock.unlock();
-        }
+        return mapObjects.get(nHash);
     }
 
     public void doMaintenance()
@@ -901,15 +1104,32 @@ public class GovernanceManager extends AbstractManager {
                 it.clearMasternodeVotes();
                 it.setDirtyCache(true);
             }
+        } finally {
+            lock.unlock();
+        }
+
+        // UPDATE CACHE FOR EACH OBJECT THAT IS FLAGGED DIRTYCACHE=TRUE
+        // This is the expensive part, so it is done under each object's own lock, which lets votes and objects
+        // for other governance objects be processed in the meantime.
+        for (GovernanceObject pObj : mapObjects.values()) {
+            if (pObj.isSetDirtyCache()) {
+                // UPDATE LOCAL VALIDITY AGAINST CRYPTO DATA
+                pObj.updateLocalValidity();
+
+                // UPDATE SENTINEL SIGNALING VARIABLES
+                pObj.updateSentinelVariables();
+            }
+        }
+
+        lock.lock();
+        try {
+            long nNow = Utils.currentTimeSeconds();
 
             //ScopedLockBool guard = new ScopedLockBool(cs, fRateChecksEnabled, false);
             lock.lock();
             boolean _fRateChecksEnabled = fRateChecksEnabled;
             fRateChecksEnabled = false;
             try {
-
-                // UPDATE CACHE FOR EACH OBJECT THAT IS FLAGGED DIRTYCACHE=TRUE
-
                 Iterator<Map.Entry<Sha256Hash, GovernanceObject>> it = mapObjects.entrySet().iterator();
 
                 // Clean up any expired or invalid triggers
@@ -926,15 +1146,6 @@ public class GovernanceManager extends AbstractManager {
                     Sha256Hash nHash = entry.getKey();
                     String strHash = nHash.toString();
 
-                    // IF CACHE IS NOT DIRTY, WHY DO THIS?
-                    if (pObj.isSetDirtyCache()) {
-                        // UPDATE LOCAL VALIDITY AGAINST CRYPTO DATA
-                        pObj.updateLocalValidity();
-
-                        // UPDATE SENTINEL SIGNALING VARIABLES
-                        pObj.updateSentinelVariables();
-                    }
-
                     if (pObj.isSetCachedDelete() && (nHash == nHashWatchdogCurrent)) {
                         nHashWatchdogCurrent = Sha256Hash.ZERO_HASH;
                     }
@@ -1626,6 +1837,18 @@ public class GovernanceManager extends AbstractManager {
 
     @Override
     public void close() {
-
+        lock.lock();
+        try {
+            if (voteIngestionExecutor != null) {
+                voteIngestionExecutor.shutdownNow();
+            }
+            if (voteVerificationExecutor != null) {
+                voteVerificationExecutor.shutdownNow();
+            }
+            mapPendingVotes.clear();
+            fPendingVotesScheduled = false;
+        } finally {
+            lock.unlock();
+        }
     }
 }
@@ -28,6 +28,7 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -48,7 +49,7 @@ public class GovernanceObject extends Message implements Serializable {
     private static final Logger log = LoggerFactory.getLogger(GovernanceObject.class);
 
     // critical section to protect the inner data structures
-    ReentrantLock lock = Threading.lock("MasternodeManager");
+    ReentrantLock lock = Threading.lock("GovernanceObject");
 
     public static final int MAX_GOVERNANCE_OBJECT_DATA_SIZE = 16 * 1024;
     public static final int MIN_GOVERNANCE_PEER_PROTO_VERSION = 70206;
@@ -141,6 +142,9 @@ public class GovernanceObject extends Message implements Serializable {
 
     protected HashMap<TransactionOutPoint, VoteRecord> mapCurrentMNVotes;
 
+    /// Number of current masternode votes per [signal][outcome], kept in step with mapCurrentMNVotes
+    private int[][] voteTally = new int[MAX_SUPPORTED_VOTE_SIGNAL + 1][VoteOutcome.values().length];
+
     /// Limited map of votes orphaned by MN
     private /*CacheMultiMap*/LinkedHashMultimap<TransactionOutPoint, Pair<Integer, GovernanceVote>> mapOrphanVotes = LinkedHashMultimap.create(100,100);
 
@@ -258,6 +262,7 @@ public class GovernanceObject extends Message implements Serializable {
             cursor += vr.getMessageSize();
             mapCurrentMNVotes.put(vin, vr);
         }
+        recalculateVoteTally();
         fileVotes = new GovernanceObjectVoteFile(params, payload, offset);
         cursor += fileVotes.getMessageSize();
         length = cursor - offset;
@@ -339,7 +344,12 @@ public class GovernanceObject extends Message implements Serializable {
     public void updateLocalValidity() {
         //LOCK(cs_main); how to do this?
         // THIS DOES NOT CHECK COLLATERAL, THIS IS CHECKED UPON ORIGINAL ARRIVAL
-        fCachedLocalValidity = isValidLocally(strLocalValidityError, false);
+        lock.lock();
+        try {
+            fCachedLocalValidity = isValidLocally(strLocalValidityError, false);
+        } finally {
+            lock.unlock();
+        }
     }
     public static class Validity {
         public String strError = "";
@@ -570,52 +580,61 @@ public class GovernanceObject extends Message implements Serializable {
     }
 
     public void updateSentinelVariables() {
-        // CALCULATE MINIMUM SUPPORT LEVELS REQUIRED
-        if(context.masternodeListManager.getLock().isHeldByCurrentThread()) {
+        lock.lock();
+        try {
+            // CALCULATE MINIMUM SUPPORT LEVELS REQUIRED
+            if(context.masternodeListManager.getLock().isHeldByCurrentThread()) {
 
-        }
-        int nMnCount = context.masternodeListManager.getListAtChainTip().countEnabled();
-        if (nMnCount == 0) {
-            return;
-        }
+            }
+            int nMnCount = context.masternodeListManager.getListAtChainTip().countEnabled();
+            if (nMnCount == 0) {
+                return;
+            }
 
-        // CALCULATE THE MINUMUM VOTE COUNT REQUIRED FOR FULL SIGNAL
+            // CALCULATE THE MINUMUM VOTE COUNT REQUIRED FOR FULL SIGNAL
 
-        // todo - 12.1 - should be set to `10` after governance vote compression is implemented
-        int nAbsVoteReq = Math.max(params.getGovernanceMinQuorum(), nMnCount / 10);
-        int nAbsDeleteReq = Math.max(params.getGovernanceMinQuorum(), (2 * nMnCount) / 3);
-        // todo - 12.1 - Temporarily set to 1 for testing - reverted
-        //nAbsVoteReq = 1;
+            // todo - 12.1 - should be set to `10` after governance vote compression is implemented
+            int nAbsVoteReq = Math.max(params.getGovernanceMinQuorum(), nMnCount / 10);
+            int nAbsDeleteReq = Math.max(params.getGovernanceMinQuorum(), (2 * nMnCount) / 3);
+            // todo - 12.1 - Temporarily set to 1 for testing - reverted
+            //nAbsVoteReq = 1;
 
-        // SET SENTINEL FLAGS TO FALSE
+            // SET SENTINEL FLAGS TO FALSE
 
-        fCachedFunding = false;
-        fCachedValid = true; //default to valid
-        fCachedEndorsed = false;
-        fDirtyCache = false;
+            fCachedFunding = false;
+            fCachedValid = true; //default to valid
+            fCachedEndorsed = false;
+            fDirtyCache = false;
 
-        // SET SENTINEL FLAGS TO TRUE IF MIMIMUM SUPPORT LEVELS ARE REACHED
-        // ARE ANY OF THESE FLAGS CURRENTLY ACTIVATED?
+            // SET SENTINEL FLAGS TO TRUE IF MIMIMUM SUPPORT LEVELS ARE REACHED
+            // ARE ANY OF THESE FLAGS CURRENTLY ACTIVATED?
 
-        if (getAbsoluteYesCount(VOTE_SIGNAL_FUNDING) >= nAbsVoteReq) {
-            fCachedFunding = true;
-        }
-        if ((getAbsoluteYesCount(VOTE_SIGNAL_DELETE) >= nAbsDeleteReq) && !fCachedDelete) {
-            fCachedDelete = true;
-            if (nDeletionTime == 0) {
-                nDeletionTime = Utils.currentTimeSeconds();
+            if (getAbsoluteYesCount(VOTE_SIGNAL_FUNDING) >= nAbsVoteReq) {
+                fCachedFunding = true;
+            }
+            if ((getAbsoluteYesCount(VOTE_SIGNAL_DELETE) >= nAbsDeleteReq) && !fCachedDelete) {
+                fCachedDelete = true;
+                if (nDeletionTime == 0) {
+                    nDeletionTime = Utils.currentTimeSeconds();
+                }
+            }
+            if (getAbsoluteYesCount(VOTE_SIGNAL_ENDORSED) >= nAbsVoteReq) {
+                fCachedEndorsed = true;
             }
-        }
-        if (getAbsoluteYesCount(VOTE_SIGNAL_ENDORSED) >= nAbsVoteReq) {
-            fCachedEndorsed = true;
-        }
 
-        if (getAbsoluteNoCount(VOTE_SIGNAL_VALID) >= nAbsVoteReq) {
-            fCachedValid = false;
+            if (getAbsoluteNoCount(VOTE_SIGNAL_VALID) >= nAbsVoteReq) {
+                fCachedValid = false;
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
     public int countMatchingVotes(VoteSignal eVoteSignalIn, VoteOutcome eVoteOutcomeIn) {
+        if (eVoteSignalIn.getValue() <= MAX_SUPPORTED_VOTE_SIGNAL) {
+            return voteTally[eVoteSignalIn.getValue()][eVoteOutcomeIn.getValue()];
+        }
+        // unsupported signals are not tallied, so count them the slow way
         int nCount = 0;
         for (Map.Entry<TransactionOutPoint, VoteRecord> it : mapCurrentMNVotes.entrySet()) {
             final VoteRecord recVote = it.getValue();
@@ -630,6 +649,25 @@ public class GovernanceObject extends Message implements Serializable {
         return nCount;
     }
 
+    private void updateVoteTally(int signal, VoteInstance voteInstance, int delta) {
+        if (signal >= 0 && signal <= MAX_SUPPORTED_VOTE_SIGNAL) {
+            voteTally[signal][voteInstance.eOutcome.getValue()] += delta;
+        }
+    }
+
+    private void updateVoteTally(VoteRecord recVote, int delta) {
+        for (Map.Entry<Integer, VoteInstance> entry : recVote.mapInstances.entrySet()) {
+            updateVoteTally(entry.getKey(), entry.getValue(), delta);
+        }
+    }
+
+    private void recalculateVoteTally() {
+        voteTally = new int[MAX_SUPPORTED_VOTE_SIGNAL + 1][VoteOutcome.values().length];
+        for (VoteRecord recVote : mapCurrentMNVotes.values()) {
+            updateVoteTally(recVote, 1);
+        }
+    }
+
     public int getAbsoluteYesCount(VoteSignal eVoteSignalIn) {
         return getYesCount(eVoteSignalIn) - getNoCount(eVoteSignalIn);
     }
@@ -664,88 +702,104 @@ public class GovernanceObject extends Message implements Serializable {
     }
 
     public boolean processVote(Peer pfrom, GovernanceVote vote, GovernanceException exception) {
-        if (context.masternodeSync.syncFlags.contains(MasternodeSync.SYNC_FLAGS.SYNC_MASTERNODE_LIST) &&
-                context.masternodeListManager.getListAtChainTip().getMNByCollateral(vote.getMasternodeOutpoint()) == null) {
-            String message = "CGovernanceObject::ProcessVote -- Masternode index not found";
-            exception.setException(message, GOVERNANCE_EXCEPTION_WARNING);
-            if (mapOrphanVotes.put(vote.getMasternodeOutpoint(), new Pair<Integer, GovernanceVote>((int)(Utils.currentTimeSeconds() + GOVERNANCE_ORPHAN_EXPIRATION_TIME), vote))) {
-                if (pfrom != null) {
-                    //TODO: context.masternodeManager.askForMN(pfrom, vote.getMasternodeOutpoint());
+        // the governance manager is only called without the object lock, as the manager takes the object lock
+        // while holding its own
+        boolean fRateChecksEnabled = context.governanceManager.areRateChecksEnabled();
+        boolean fInvalidVote = false;
+        lock.lock();
+        try {
+            if (context.masternodeSync.syncFlags.contains(MasternodeSync.SYNC_FLAGS.SYNC_MASTERNODE_LIST) &&
+                    context.masternodeListManager.getListAtChainTip().getMNByCollateral(vote.getMasternodeOutpoint()) == null) {
+                String message = "CGovernanceObject::ProcessVote -- Masternode index not found";
+                exception.setException(message, GOVERNANCE_EXCEPTION_WARNING);
+                if (mapOrphanVotes.put(vote.getMasternodeOutpoint(), new Pair<Integer, GovernanceVote>((int)(Utils.currentTimeSeconds() + GOVERNANCE_ORPHAN_EXPIRATION_TIME), vote))) {
+                    if (pfrom != null) {
+                        //TODO: context.masternodeManager.askForMN(pfrom, vote.getMasternodeOutpoint());
+                    }
+                    log.info("{}", message);
+                } else {
+                    log.info("gobject--{}", message);
                 }
-                log.info("{}", message);
-            } else {
-                log.info("gobject--{}", message);
+                return false;
             }
-            return false;
-        }
 
-        VoteRecord recVote = mapCurrentMNVotes.get(vote.getMasternodeOutpoint());
-        if (recVote == null) {
-            recVote = new VoteRecord(params);
-            mapCurrentMNVotes.put(vote.getMasternodeOutpoint(), recVote);
-        }
+            VoteRecord recVote = mapCurrentMNVotes.get(vote.getMasternodeOutpoint());
+            if (recVote == null) {
+                recVote = new VoteRecord(params);
+                mapCurrentMNVotes.put(vote.getMasternodeOutpoint(), recVote);
+            }
 
-        VoteSignal eSignal = vote.getSignal();
-        if (eSignal == VOTE_SIGNAL_NONE) {
-            String signalMessage = "CGovernanceObject::ProcessVote -- Vote signal: none";
-            log.info("gobject--{}", signalMessage);
-            exception.setException(signalMessage, GOVERNANCE_EXCEPTION_WARNING);
-            return false;
-        }
-        if (eSignal.getValue() > MAX_SUPPORTED_VOTE_SIGNAL) {
-            String signalMessage = "CGovernanceObject::ProcessVote -- Unsupported vote signal: " + GovernanceVoting.convertSignalToString(vote.getSignal());
-            log.info("{}", signalMessage);
-            exception.setException(signalMessage, GOVERNANCE_EXCEPTION_PERMANENT_ERROR, 20);
-            return false;
-        }
-        VoteInstance voteInstance = recVote.mapInstances.get(eSignal.getValue());
-        if (voteInstance == null) {
-            voteInstance = new VoteInstance(params);
-            recVote.mapInstances.put(eSignal.getValue(), voteInstance);
-        }
+            VoteSignal eSignal = vote.getSignal();
+            if (eSignal == VOTE_SIGNAL_NONE) {
+                String signalMessage = "CGovernanceObject::ProcessVote -- Vote signal: none";
+                log.info("gobject--{}", signalMessage);
+                exception.setException(signalMessage, GOVERNANCE_EXCEPTION_WARNING);
+                return false;
+            }
+            if (eSignal.getValue() > MAX_SUPPORTED_VOTE_SIGNAL) {
+                String signalMessage = "CGovernanceObject::ProcessVote -- Unsupported vote signal: " + GovernanceVoting.convertSignalToString(vote.getSignal());
+                log.info("{}", signalMessage);
+                exception.setException(signalMessage, GOVERNANCE_EXCEPTION_PERMANENT_ERROR, 20);
+                return false;
+            }
+            VoteInstance voteInstance = recVote.mapInstances.get(eSignal.getValue());
+            if (voteInstance == null) {
+                voteInstance = new VoteInstance(params);
+                recVote.mapInstances.put(eSignal.getValue(), voteInstance);
+                updateVoteTally(eSignal.getValue(), voteInstance, 1);
+            }
 
-        // Reject obsolete votes
-        if (vote.getTimestamp() < voteInstance.nCreationTime) {
-            String obMessage = "CGovernanceObject::ProcessVote -- Obsolete vote";
-            log.info("gobject--{}", obMessage);
-            exception.setException(obMessage, GOVERNANCE_EXCEPTION_NONE);
-            return false;
-        }
+            // Reject obsolete votes
+            if (vote.getTimestamp() < voteInstance.nCreationTime) {
+                String obMessage = "CGovernanceObject::ProcessVote -- Obsolete vote";
+                log.info("gobject--{}", obMessage);
+                exception.setException(obMessage, GOVERNANCE_EXCEPTION_NONE);
+                return false;
+            }
 
-        long nNow = Utils.currentTimeSeconds();
-        long nVoteTimeUpdate = voteInstance.nTime;
-        if (context.governanceManager.areRateChecksEnabled()) {
-            long nTimeDelta = nNow - voteInstance.nTime;
-            if (nTimeDelta < GOVERNANCE_UPDATE_MIN) {
-                String oftenMessage = "CGovernanceObject::ProcessVote -- Masternode voting too often, MN outpoint = " +
-                        vote.getMasternodeOutpoint().toStringShort() + ", governance object hash = " + getHash().toString() +
-                        ", time delta = " + nTimeDelta;
-                log.info("gobject--{}", oftenMessage);
-                exception.setException(oftenMessage, GOVERNANCE_EXCEPTION_TEMPORARY_ERROR);
-                nVoteTimeUpdate = nNow;
+            long nNow = Utils.currentTimeSeconds();
+            long nVoteTimeUpdate = voteInstance.nTime;
+            if (fRateChecksEnabled) {
+                long nTimeDelta = nNow - voteInstance.nTime;
+                if (nTimeDelta < GOVERNANCE_UPDATE_MIN) {
+                    String oftenMessage = "CGovernanceObject::ProcessVote -- Masternode voting too often, MN outpoint = " +
+                            vote.getMasternodeOutpoint().toStringShort() + ", governance object hash = " + getHash().toString() +
+                            ", time delta = " + nTimeDelta;
+                    log.info("gobject--{}", oftenMessage);
+                    exception.setException(oftenMessage, GOVERNANCE_EXCEPTION_TEMPORARY_ERROR);
+                    nVoteTimeUpdate = nNow;
+                    return false;
+                }
+            }
+            // Finally check that the vote is actually valid (done last because of cost of signature verification)
+            if (!vote.isValid(true)) {
+                String validMessage = "CGovernanceObject::ProcessVote -- Invalid vote" + ", MN outpoint = " + vote.getMasternodeOutpoint().toStringShort() + ", governance object hash = " + getHash().toString() + ", vote hash = " + vote.getHash().toString();
+                log.info("gobject--{}", validMessage);
+                exception.setException(validMessage, GOVERNANCE_EXCEPTION_PERMANENT_ERROR, 20);
+                fInvalidVote = true;
                 return false;
             }
+            if (!context.masternodeMetaDataManager.addGovernanceVote(vote.getMasternodeOutpoint(), vote.getParentHash())) {
+                String unableMessage = "CGovernanceObject::ProcessVote -- Unable to add governance vote" + ", MN outpoint = " + vote.getMasternodeOutpoint().toStringShort() + ", governance object hash = " + getHash().toString();
+                log.info("gobject--{}", unableMessage);
+                exception.setException(unableMessage, GOVERNANCE_EXCEPTION_PERMANENT_ERROR);
+                return false;
+            }
+            updateVoteTally(eSignal.getValue(), voteInstance, -1);
+            voteInstance = new VoteInstance(params, vote.getOutcome(), nVoteTimeUpdate, vote.getTimestamp());
+            recVote.mapInstances.put(eSignal.getValue(), voteInstance);
+            updateVoteTally(eSignal.getValue(), voteInstance, 1);
+            if (!fileVotes.hasVote(vote.getHash())) {
+                fileVotes.addVote(vote);
+            }
+            fDirtyCache = true;
+            return true;
+        } finally {
+            lock.unlock();
+            if (fInvalidVote) {
+                context.governanceManager.addInvalidVote(vote);
+            }
         }
-        // Finally check that the vote is actually valid (done last because of cost of signature verification)
-        if (!vote.isValid(true)) {
-            String validMessage = "CGovernanceObject::ProcessVote -- Invalid vote" + ", MN outpoint = " + vote.getMasternodeOutpoint().toStringShort() + ", governance object hash = " + getHash().toString() + ", vote hash = " + vote.getHash().toString();
-            log.info("gobject--{}", validMessage);
-            exception.setException(validMessage, GOVERNANCE_EXCEPTION_PERMANENT_ERROR, 20);
-            context.governanceManager.addInvalidVote(vote);
-            return false;
-        }
-        if (!context.masternodeMetaDataManager.addGovernanceVote(vote.getMasternodeOutpoint(), vote.getParentHash())) {
-            String unableMessage = "CGovernanceObject::ProcessVote -- Unable to add governance vote" + ", MN outpoint = " + vote.getMasternodeOutpoint().toStringShort() + ", governance object hash = " + getHash().toString();
-            log.info("gobject--{}", unableMessage);
-            exception.setException(unableMessage, GOVERNANCE_EXCEPTION_PERMANENT_ERROR);
-            return false;
-        }
-        voteInstance = new VoteInstance(params, vote.getOutcome(), nVoteTimeUpdate, vote.getTimestamp());
-        if (!fileVotes.hasVote(vote.getHash())) {
-            fileVotes.addVote(vote);
-        }
-        fDirtyCache = true;
-        return true;
     }
 
     public JSONObject getJSONObject() {
@@ -755,13 +809,33 @@ public class GovernanceObject extends Message implements Serializable {
     }
 
     public void clearMasternodeVotes() {
-        Iterator<Map.Entry<TransactionOutPoint, VoteRecord>> it = mapCurrentMNVotes.entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry<TransactionOutPoint, VoteRecord> entry = it.next();
-            if (context.masternodeListManager.getListAtChainTip().getMNByCollateral(entry.getKey()) == null) {
-                fileVotes.removeVotesFromMasternode(entry.getKey());
-                it.remove();
+        lock.lock();
+        try {
+            ArrayList<TransactionOutPoint> removed = new ArrayList<TransactionOutPoint>();
+            for (TransactionOutPoint outpoint : mapCurrentMNVotes.keySet()) {
+                if (context.masternodeListManager.getListAtChainTip().getMNByCollateral(outpoint) == null) {
+                    removed.add(outpoint);
+                }
             }
+            for (TransactionOutPoint outpoint : removed) {
+                removeMasternodeVotes(outpoint);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Drops all votes of a masternode, along with their tallies. */
+    void removeMasternodeVotes(TransactionOutPoint outpoint) {
+        lock.lock();
+        try {
+            VoteRecord recVote = mapCurrentMNVotes.remove(outpoint);
+            if (recVote != null) {
+                fileVotes.removeVotesFromMasternode(outpoint);
+                updateVoteTally(recVote, -1);
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
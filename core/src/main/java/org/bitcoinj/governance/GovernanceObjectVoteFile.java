@@ -20,124 +20,137 @@ public class GovernanceObjectVoteFile extends Message {
 
 	private int nMemoryVotes;
 
-	private LinkedList<GovernanceVote> listVotes;
+	// all votes keyed by vote hash
+	private HashMap<Sha256Hash, GovernanceVote> mapVotes;
 
-	private HashMap<Sha256Hash, GovernanceVote> mapVoteIndex;
+	// all votes in the order they were added, so that they can be walked newest first without a copy
+	private TreeMap<Long, GovernanceVote> mapVotesInOrder;
+	private long nNextSequence;
+
+	// sequence numbers of the votes cast by each masternode
+	private HashMap<TransactionOutPoint, HashSet<Long>> mapVotesByMasternode;
 
 	public GovernanceObjectVoteFile() {
 		this.nMemoryVotes = 0;
-		this.listVotes =  new LinkedList<GovernanceVote>();
-		this.mapVoteIndex = new HashMap<Sha256Hash, GovernanceVote>();
+		this.mapVotes = new HashMap<Sha256Hash, GovernanceVote>();
+		this.mapVotesInOrder = new TreeMap<Long, GovernanceVote>();
+		this.mapVotesByMasternode = new HashMap<TransactionOutPoint, HashSet<Long>>();
 	}
 
 	public GovernanceObjectVoteFile(GovernanceObjectVoteFile other) {
 		this.nMemoryVotes = other.nMemoryVotes;
-		this.listVotes = other.listVotes;
-		this.mapVoteIndex = new HashMap<Sha256Hash, GovernanceVote>();
+		this.mapVotes = new HashMap<Sha256Hash, GovernanceVote>(other.mapVotes);
+		this.mapVotesInOrder = new TreeMap<Long, GovernanceVote>(other.mapVotesInOrder);
+		this.nNextSequence = other.nNextSequence;
+		this.mapVotesByMasternode = new HashMap<TransactionOutPoint, HashSet<Long>>();
 		rebuildIndex();
 	}
 
 	public GovernanceObjectVoteFile(NetworkParameters params, byte [] payload, int offset) {
 		super(params, payload, offset);
-		rebuildIndex();
 	}
 
 	/**
 	 * Add a vote to the file
 	 */
 	public void addVote(GovernanceVote vote) {
-		listVotes.addFirst(vote);
-		mapVoteIndex.put(vote.getHash(), vote);
+		Sha256Hash nHash = vote.getHash();
+		if (mapVotes.containsKey(nHash))
+			return;
+		long nSequence = nNextSequence++;
+		mapVotes.put(nHash, vote);
+		mapVotesInOrder.put(nSequence, vote);
+		addToMasternodeIndex(vote.getMasternodeOutpoint(), nSequence);
 		++nMemoryVotes;
 	}
 
 	/**
 	 * Return true if the vote with this hash is currently cached in memory
 	 */
-//C++ TO JAVA CONVERTER WARNING: 'const' methods are not available in Java:
-//ORIGINAL LINE: boolean HasVote(const Sha256Hash& nHash) const;
 	public boolean hasVote(Sha256Hash nHash) {
-		GovernanceVote it = mapVoteIndex.get(nHash);
-		if (it == null) {
-			return false;
-		}
-		return true;
+		return mapVotes.containsKey(nHash);
 	}
 
 	/**
 	 * Retrieve a vote cached in memory
 	 */
 	public GovernanceVote getVote(Sha256Hash nHash) {
-		GovernanceVote it = mapVoteIndex.get(nHash);
-		if (it == null) {
-			return null;
-		}
-		return it;  //TODO:  This may return a bad result or next will advance the iterator to something else.
+		return mapVotes.get(nHash);
 	}
 
 	public final int getVoteCount() {
 		return nMemoryVotes;
 	}
 
+	/**
+	 * Returns a copy of the votes, the most recently added first.
+	 */
 	public ArrayList<GovernanceVote> getVotes() {
-		ArrayList<GovernanceVote> vecResult = new ArrayList<GovernanceVote>();
-		for (GovernanceVote vote : listVotes) {
-			vecResult.add(vote);
-		}
-		return vecResult;
+		return new ArrayList<GovernanceVote>(mapVotesInOrder.descendingMap().values());
 	}
 
 	public void removeVotesFromMasternode(TransactionOutPoint outpointMasternode) {
-		Iterator<GovernanceVote> it = listVotes.iterator();
-		while (it.hasNext()) {
-			GovernanceVote vote = it.next();
-			if (vote.getMasternodeOutpoint().equals(outpointMasternode)) {
+		HashSet<Long> sequences = mapVotesByMasternode.remove(outpointMasternode);
+		if (sequences == null) {
+			return;
+		}
+		for (Long nSequence : sequences) {
+			GovernanceVote vote = mapVotesInOrder.remove(nSequence);
+			if (vote != null) {
+				mapVotes.remove(vote.getHash());
 				--nMemoryVotes;
-				mapVoteIndex.remove(vote.getHash());
-				it.remove();
 			}
 		}
 	}
 
 	public void rebuildIndex() {
-		mapVoteIndex.clear();
+		mapVotesByMasternode.clear();
 		nMemoryVotes = 0;
-		ListIterator<GovernanceVote> it = listVotes.listIterator();
-		while (it.hasNext()) {
-			GovernanceVote vote = it.next();
-			Sha256Hash nHash = vote.getHash();
-			if (mapVoteIndex.get(nHash) == null) {
-				mapVoteIndex.put(nHash, vote);
-				++nMemoryVotes;
-			} else {
-				it.remove();  //TODO:  this looks like a bug
-			}
+		for (Map.Entry<Long, GovernanceVote> entry : mapVotesInOrder.entrySet()) {
+			addToMasternodeIndex(entry.getValue().getMasternodeOutpoint(), entry.getKey());
+			++nMemoryVotes;
 		}
 	}
 
+	private void addToMasternodeIndex(TransactionOutPoint outpointMasternode, long nSequence) {
+		HashSet<Long> sequences = mapVotesByMasternode.get(outpointMasternode);
+		if (sequences == null) {
+			sequences = new HashSet<Long>();
+			mapVotesByMasternode.put(outpointMasternode, sequences);
+		}
+		sequences.add(nSequence);
+	}
+
 	@Override
 	protected void parse() throws ProtocolException {
 		nMemoryVotes = (int)readUint32();
 		int size = (int)readVarInt();
-		listVotes = new LinkedList<GovernanceVote>();
+		mapVotes = new HashMap<Sha256Hash, GovernanceVote>(Math.min(size, Utils.MAX_INITIAL_ARRAY_LENGTH));
+		mapVotesInOrder = new TreeMap<Long, GovernanceVote>();
+		// the votes are stored most recent first, so they are numbered down from the last one added
+		nNextSequence = size;
 		for(int i = 0; i < size; ++i) {
 			GovernanceVote vote = new GovernanceVote(params, payload, cursor);
 			cursor += vote.getMessageSize();
+			// duplicates are dropped here, keeping the most recent
+			if (!mapVotes.containsKey(vote.getHash())) {
+				mapVotes.put(vote.getHash(), vote);
+				mapVotesInOrder.put((long) (size - 1 - i), vote);
+			}
 		}
 
 		length = cursor - offset;
-		mapVoteIndex = new HashMap<Sha256Hash, GovernanceVote>();
+		mapVotesByMasternode = new HashMap<TransactionOutPoint, HashSet<Long>>();
 		rebuildIndex();
 	}
 
 	@Override
 	protected void bitcoinSerializeToStream(OutputStream stream) throws IOException {
 		Utils.uint32ToByteStreamLE(nMemoryVotes, stream);
-		stream.write(new VarInt(listVotes.size()).encode());
-		for(GovernanceVote vote: listVotes) {
+		stream.write(new VarInt(mapVotesInOrder.size()).encode());
+		for(GovernanceVote vote: mapVotesInOrder.descendingMap().values()) {
 			vote.bitcoinSerialize(stream);
 		}
 	}
 
 }
-
@@ -154,6 +154,8 @@ public class GovernanceVote extends ChildMessage implements Serializable {
     private int nVoteOutcome; // see VOTE_OUTCOMES above
     private long nTime;
     private MasternodeSignature vchSig;
+    // voting key that vchSig has already been verified against, so that re-validation skips the EC recovery
+    private volatile KeyId verifiedVotingKeyId;
 
     /* memory only */
     Sha256Hash hash;
@@ -333,8 +335,9 @@ public class GovernanceVote extends ChildMessage implements Serializable {
     protected void bitcoinSerializeToStream(OutputStream stream) throws IOException {
         masternodeOutpoint.bitcoinSerialize(stream);
         stream.write(nParentHash.getReversedBytes());
-        Utils.uint32ToByteStreamLE(nVoteSignal, stream);
+        // the outcome comes before the signal here, as in parse() and Dash Core, but not in the hashes
         Utils.uint32ToByteStreamLE(nVoteOutcome, stream);
+        Utils.uint32ToByteStreamLE(nVoteSignal, stream);
         Utils.int64ToByteStreamLE(nTime, stream);
         vchSig.bitcoinSerialize(stream);
     }
@@ -419,6 +422,9 @@ public class GovernanceVote extends ChildMessage implements Serializable {
     }
 
     public boolean checkSignature(KeyId pubKeyMasternode) {
+        if (pubKeyMasternode.equals(verifiedVotingKeyId)) {
+            return true;
+        }
         StringBuilder strError = new StringBuilder();
 
         String strMessage = masternodeOutpoint.toStringShort() + "|" + nParentHash.toString() + "|" + nVoteSignal + "|" + nVoteOutcome + "|" + nTime;
@@ -428,6 +434,7 @@ public class GovernanceVote extends ChildMessage implements Serializable {
             return false;
         }
 
+        verifiedVotingKeyId = pubKeyMasternode;
         return true;
     }
 
@@ -28,6 +28,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.Executor;
 
@@ -152,9 +153,10 @@ public class GovernanceVoteBroadcast {
             log.info("Sending to {} peers, will wait for {}, sending to: {}", numToBroadcastTo, numWaitingFor, Joiner.on(",").join(peers));
             InventoryMessage inv = new InventoryMessage(vote.getParams());
             inv.addItem(new InventoryItem(InventoryItem.Type.GovernanceObjectVote, vote.getHash()));
+            ByteBuffer serializedInv = vote.getParams().getDefaultSerializer().serializeToBuffer(inv, true);
             for (Peer peer : peers) {
                 try {
-                    peer.sendMessage(inv);
+                    peer.sendMessage(serializedInv);
                     // We don't record the peer as having seen the vote in the memory pool because we want to track only
                     // how many peers announced to us.
                 } catch (Exception e) {
@@ -45,6 +45,8 @@ public class BlockingClient implements MessageWriteTarget {
     private Socket socket;
     private volatile boolean vCloseRequested = false;
     private SettableFuture<SocketAddress> connectFuture;
+    private final Object readPauseLock = new Object();
+    private boolean readingPaused = false; // Guarded by readPauseLock
 
     /**
      * <p>Creates a new client to the given server address using the given {@link StreamConnection} to decode the data.
@@ -77,7 +79,13 @@ public class BlockingClient implements MessageWriteTarget {
                     socket.connect(serverAddress, connectTimeoutMillis);
                     connection.connectionOpened();
                     connectFuture.set(serverAddress);
-                    InputStream stream = socket.getInputStream();
+                    InputStream stream = new FilterInputStream(socket.getInputStream()) {
+                        @Override
+                        public int read(byte[] b, int off, int len) throws IOException {
+                            awaitReadingResumed();
+                            return super.read(b, off, len);
+                        }
+                    };
                     runReadLoop(stream, connection);
                 } catch (Exception e) {
                     if (!vCloseRequested) {
@@ -127,6 +135,25 @@ public class BlockingClient implements MessageWriteTarget {
         }
     }
 
+    @Override
+    public void setReadingPaused(boolean paused) {
+        synchronized (readPauseLock) {
+            readingPaused = paused;
+            readPauseLock.notifyAll();
+        }
+    }
+
+    private void awaitReadingResumed() throws IOException {
+        synchronized (readPauseLock) {
+            try {
+                while (readingPaused && !vCloseRequested)
+                    readPauseLock.wait();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
     /**
      * Closes the connection to the server, triggering the {@link StreamConnection#connectionClosed()}
      * event on the network-handling thread where all callbacks occur.
@@ -136,6 +163,7 @@ public class BlockingClient implements MessageWriteTarget {
         // Closes the channel, triggering an exception in the network-handling thread triggering connectionClosed()
         try {
             vCloseRequested = true;
+            setReadingPaused(false);
             socket.close();
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -144,9 +172,22 @@ public class BlockingClient implements MessageWriteTarget {
 
     @Override
     public synchronized ListenableFuture writeBytes(byte[] message) throws IOException {
+        return writeBytes(message, 0, message.length);
+    }
+
+    @Override
+    public synchronized ListenableFuture writeBytes(ByteBuffer message) throws IOException {
+        if (message.hasArray())
+            return writeBytes(message.array(), message.arrayOffset() + message.position(), message.remaining());
+        byte[] bytes = new byte[message.remaining()];
+        message.duplicate().get(bytes);
+        return writeBytes(bytes);
+    }
+
+    private ListenableFuture writeBytes(byte[] message, int offset, int length) throws IOException {
         try {
             OutputStream stream = socket.getOutputStream();
-            stream.write(message);
+            stream.write(message, offset, length);
             stream.flush();
             return Futures.immediateFuture(null);
         } catch (IOException e) {
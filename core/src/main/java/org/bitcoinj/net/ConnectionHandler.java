@@ -30,7 +30,6 @@ import java.nio.ByteBuffer;
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
-import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Set;
@@ -124,18 +123,24 @@ class ConnectionHandler implements MessageWriteTarget {
     private void tryWriteBytes() throws IOException {
         lock.lock();
         try {
-            // Iterate through the outbound ByteBuff queue, pushing as much as possible into the OS' network buffer.
-            Iterator<BytesAndFuture> iterator = bytesToWrite.iterator();
-            while (iterator.hasNext()) {
-                BytesAndFuture bytesAndFuture = iterator.next();
-                bytesToWriteRemaining -= channel.write(bytesAndFuture.bytes);
-                if (!bytesAndFuture.bytes.hasRemaining()) {
+            // Hand the whole outbound ByteBuff queue to a single gathering write, pushing as much as possible into the
+            // OS' network buffer, then complete the futures of the buffers which were written entirely.
+            if (!bytesToWrite.isEmpty()) {
+                ByteBuffer[] buffers = new ByteBuffer[bytesToWrite.size()];
+                int i = 0;
+                for (BytesAndFuture bytesAndFuture : bytesToWrite)
+                    buffers[i++] = bytesAndFuture.bytes;
+                bytesToWriteRemaining -= channel.write(buffers);
+                Iterator<BytesAndFuture> iterator = bytesToWrite.iterator();
+                while (iterator.hasNext()) {
+                    BytesAndFuture bytesAndFuture = iterator.next();
+                    if (bytesAndFuture.bytes.hasRemaining())
+                        break;
                     iterator.remove();
                     bytesAndFuture.future.set(null);
-                } else {
-                    setWriteOps();
-                    break;
                 }
+                if (!bytesToWrite.isEmpty())
+                    setWriteOps();
             }
             // If we are done writing, clear the OP_WRITE interestOps
             if (bytesToWrite.isEmpty())
@@ -148,6 +153,11 @@ class ConnectionHandler implements MessageWriteTarget {
 
     @Override
     public ListenableFuture writeBytes(byte[] message) throws IOException {
+        return writeBytes(ByteBuffer.wrap(message));
+    }
+
+    @Override
+    public ListenableFuture writeBytes(ByteBuffer message) throws IOException {
         boolean andUnlock = true;
         lock.lock();
         try {
@@ -156,13 +166,14 @@ class ConnectionHandler implements MessageWriteTarget {
             // append to it when we want to send a message. We then let tryWriteBytes() either send the message or
             // register our SelectionKey to wakeup when we have free outbound buffer space available.
 
-            if (bytesToWriteRemaining + message.length > OUTBOUND_BUFFER_BYTE_COUNT)
+            int length = message.remaining();
+            if (bytesToWriteRemaining + length > OUTBOUND_BUFFER_BYTE_COUNT)
                 throw new IOException("Outbound buffer overflowed");
-            // Just dump the message onto the write buffer and call tryWriteBytes
-            // TODO: Kill the needless message duplication when the write completes right away
+            // Just dump the message onto the write buffer and call tryWriteBytes. The buffer may be shared with the
+            // write queues of other connections, so we queue a duplicate which has its own position.
             final SettableFuture<Object> future = SettableFuture.create();
-            bytesToWrite.offer(new BytesAndFuture(ByteBuffer.wrap(Arrays.copyOf(message, message.length)), future));
-            bytesToWriteRemaining += message.length;
+            bytesToWrite.offer(new BytesAndFuture(message.duplicate(), future));
+            bytesToWriteRemaining += length;
             setWriteOps();
             return future;
         } catch (IOException e) {
@@ -183,6 +194,23 @@ class ConnectionHandler implements MessageWriteTarget {
         }
     }
 
+    @Override
+    public void setReadingPaused(boolean paused) {
+        lock.lock();
+        try {
+            if (paused)
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            else
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            // Refresh the selector to make sure it gets the new interestOps
+            key.selector().wakeup();
+        } catch (CancelledKeyException e) {
+            // The connection is being closed, so there is nothing left to pause or resume
+        } finally {
+            lock.unlock();
+        }
+    }
+
     // May NOT be called with lock held
     @Override
     public void closeConnection() {
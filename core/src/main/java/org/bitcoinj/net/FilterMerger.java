@@ -19,8 +19,11 @@ import org.bitcoinj.core.BloomFilter;
 import org.bitcoinj.core.PeerFilterProvider;
 import com.google.common.collect.ImmutableList;
 import org.bitcoinj.core.PeerGroup;
+import org.bitcoinj.crypto.IKey;
 
+import javax.annotation.Nullable;
 import java.util.LinkedList;
+import java.util.List;
 
 // This code is unit tested by the PeerGroup tests.
 
@@ -40,9 +43,19 @@ public class FilterMerger {
     // We use a constant tweak to avoid giving up privacy when we regenerate our filter with new keys
     private final long bloomFilterTweak = (long) (Math.random() * Long.MAX_VALUE);
 
+    /**
+     * Keys can be inserted into the last filter until its expected false positive rate exceeds the requested rate by
+     * this factor, after which the filter is calculated again from all the providers.
+     */
+    public static final double MAX_INCREMENTAL_FP_RATE_INCREASE = 2.0;
+
     private volatile double vBloomFilterFPRate;
     private int lastBloomFilterElementCount;
     private BloomFilter lastFilter;
+    // Number of elements actually in lastFilter, including any inserted incrementally
+    private int lastFilterElements;
+    private double lastFilterFPRate;
+    private long lastEarliestKeyTimeSecs;
 
     public FilterMerger(double bloomFilterFPRate) {
         this.vBloomFilterFPRate = bloomFilterFPRate;
@@ -79,8 +92,10 @@ public class FilterMerger {
                 // We stair-step our element count so that we avoid creating a filter with different parameters
                 // as much as possible as that results in a loss of privacy.
                 // The constant 100 here is somewhat arbitrary, but makes sense for small to medium wallets -
-                // it will likely mean we never need to create a filter with different parameters.
-                lastBloomFilterElementCount = elements > lastBloomFilterElementCount ? elements + 100 : lastBloomFilterElementCount;
+                // it will likely mean we never need to create a filter with different parameters. Larger wallets get
+                // headroom in proportion to their size so that new keys can be inserted without a recalculation.
+                lastBloomFilterElementCount = elements > lastBloomFilterElementCount ?
+                        elements + Math.max(100, elements / 4) : lastBloomFilterElementCount;
                 BloomFilter.BloomUpdate bloomFlags =
                         requiresUpdateAll ? BloomFilter.BloomUpdate.UPDATE_ALL : BloomFilter.BloomUpdate.UPDATE_P2PUBKEY_ONLY;
                 double fpRate = vBloomFilterFPRate;
@@ -90,11 +105,14 @@ public class FilterMerger {
 
                 result.changed = !filter.equals(lastFilter);
                 result.filter = lastFilter = filter;
+                lastFilterElements = elements;
+                lastFilterFPRate = fpRate;
             }
             // Now adjust the earliest key time backwards by a week to handle the case of clock drift. This can occur
             // both in block header timestamps and if the users clock was out of sync when the key was first created
             // (to within a small amount of tolerance).
             result.earliestKeyTimeSecs -= 86400 * 7;
+            lastEarliestKeyTimeSecs = result.earliestKeyTimeSecs;
             return result;
         } finally {
             for (PeerFilterProvider provider : begunProviders) {
@@ -103,6 +121,39 @@ public class FilterMerger {
         }
     }
 
+    /**
+     * Inserts newly added keys into a copy of the last calculated filter, instead of asking every provider for its
+     * filter again. Returns null if that is not possible, in which case {@link #calculate(ImmutableList)} must be
+     * used: when there is no previous filter, when a key is older than the earliest key time or when the expected
+     * false positive rate would rise more than {@link #MAX_INCREMENTAL_FP_RATE_INCREASE} times above the requested
+     * rate. The caller must know that the providers insert these keys as {@link BloomFilter#insert(IKey)} does.
+     */
+    @Nullable
+    public Result insertKeys(List<? extends IKey> keys) {
+        if (lastFilter == null || lastFilter.matchesAll())
+            return null;
+        for (IKey key : keys) {
+            if (key.getCreationTimeSeconds() - 86400 * 7 < lastEarliestKeyTimeSecs)
+                return null;
+        }
+        int elements = lastFilterElements + keys.size() * 2;
+        if (lastFilter.getFalsePositiveRate(elements) > vBloomFilterFPRate * MAX_INCREMENTAL_FP_RATE_INCREASE)
+            return null;
+
+        // The last filter may already have been handed to peers, so it is not modified.
+        BloomFilter filter = new BloomFilter(lastBloomFilterElementCount, lastFilterFPRate, bloomFilterTweak,
+                lastFilter.getUpdateFlag());
+        filter.merge(lastFilter);
+        for (IKey key : keys)
+            filter.insert(key);
+        Result result = new Result();
+        result.earliestKeyTimeSecs = lastEarliestKeyTimeSecs;
+        result.changed = !filter.equals(lastFilter);
+        result.filter = lastFilter = filter;
+        lastFilterElements = elements;
+        return result;
+    }
+
     public void setBloomFilterFPRate(double bloomFilterFPRate) {
         this.vBloomFilterFPRate = bloomFilterFPRate;
     }
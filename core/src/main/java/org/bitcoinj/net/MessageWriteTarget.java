@@ -19,6 +19,7 @@ package org.bitcoinj.net;
 import com.google.common.util.concurrent.ListenableFuture;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * A target to which messages can be written/connection can be closed
@@ -26,9 +27,28 @@ import java.io.IOException;
 public interface MessageWriteTarget {
     /**
      * Writes the given bytes to the remote server. The returned future will complete when all bytes
-     * have been written to the OS network buffer.
+     * have been written to the OS network buffer. The array may be queued without being copied, so it must not be
+     * modified afterwards.
      */
     ListenableFuture writeBytes(byte[] message) throws IOException;
+    /**
+     * Writes the remaining bytes of the given buffer to the remote server. The buffer's position and limit are left
+     * unchanged and its contents are not copied, so the same buffer can be handed to any number of targets but must
+     * not be modified afterwards. The returned future will complete when all bytes have been written to the OS
+     * network buffer. By default the bytes are copied into an array and written with {@link #writeBytes(byte[])}.
+     */
+    default ListenableFuture writeBytes(ByteBuffer message) throws IOException {
+        byte[] bytes = new byte[message.remaining()];
+        message.duplicate().get(bytes);
+        return writeBytes(bytes);
+    }
+    /**
+     * Stops or resumes reading from the connection. While reading is paused no bytes are passed to
+     * {@link StreamConnection#receiveBytes(java.nio.ByteBuffer)}, so once the OS network buffer is full the remote
+     * side is throttled by TCP flow control. Targets that cannot pause ignore this, which is the default.
+     */
+    default void setReadingPaused(boolean paused) {
+    }
     /**
      * Closes the connection to the server, triggering the {@link StreamConnection#connectionClosed()}
      * event on the network-handling thread where all callbacks occur.
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2019 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.net;
+
+import com.google.common.util.concurrent.AbstractIdleService;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.bitcoinj.utils.ContextPropagatingThreadFactory;
+import org.slf4j.LoggerFactory;
+
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>A client connection manager which spreads its connections over several {@link NioClientManager}s, each with its
+ * own selector and network thread. A single selector thread limits how many busy connections can be serviced, which
+ * matters for crawlers and relaying nodes that keep hundreds of peers; this class can be passed to
+ * {@link org.bitcoinj.core.PeerGroup} instead of a {@link NioClientManager} to lift that limit.</p>
+ *
+ * <p>A new connection goes to the selector with the fewest connected clients. Ties are broken round-robin, so that a
+ * burst of connections opened before any of them completes is still spread evenly. A connection stays on its selector
+ * thread for its whole life, so all of its reads and callbacks happen on one thread.</p>
+ */
+public class MultiNioClientManager extends AbstractIdleService implements ClientConnectionManager {
+    private static final org.slf4j.Logger log = LoggerFactory.getLogger(MultiNioClientManager.class);
+
+    private final List<NioClientManager> managers;
+    private final AtomicInteger nextManager = new AtomicInteger();
+
+    /** Creates a client manager with one selector thread per available processor. */
+    public MultiNioClientManager() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Creates a client manager with the given number of selector threads. */
+    public MultiNioClientManager(int selectorThreads) {
+        checkArgument(selectorThreads > 0);
+        List<NioClientManager> managers = new ArrayList<>(selectorThreads);
+        for (int i = 0; i < selectorThreads; i++)
+            managers.add(new NioClientManager());
+        this.managers = Collections.unmodifiableList(managers);
+    }
+
+    @Override
+    protected void startUp() {
+        for (NioClientManager manager : managers)
+            manager.startAsync();
+        for (NioClientManager manager : managers)
+            manager.awaitRunning();
+        log.info("Started {} selector threads", managers.size());
+    }
+
+    @Override
+    protected void shutDown() {
+        for (NioClientManager manager : managers)
+            manager.stopAsync();
+        for (NioClientManager manager : managers)
+            manager.awaitTerminated();
+    }
+
+    @Override
+    public ListenableFuture<SocketAddress> openConnection(SocketAddress serverAddress, StreamConnection connection) {
+        if (!isRunning())
+            throw new IllegalStateException();
+        return leastLoadedManager().openConnection(serverAddress, connection);
+    }
+
+    private NioClientManager leastLoadedManager() {
+        int start = Math.floorMod(nextManager.getAndIncrement(), managers.size());
+        NioClientManager best = null;
+        int bestCount = Integer.MAX_VALUE;
+        for (int i = 0; i < managers.size(); i++) {
+            NioClientManager manager = managers.get((start + i) % managers.size());
+            int count = manager.getConnectedClientCount();
+            if (count < bestCount) {
+                best = manager;
+                bestCount = count;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public int getConnectedClientCount() {
+        int count = 0;
+        for (NioClientManager manager : managers)
+            count += manager.getConnectedClientCount();
+        return count;
+    }
+
+    /**
+     * Closes n connections, taking them from the selectors with the most connected clients. The targets are picked from
+     * one snapshot of the counts, so connections that close meanwhile cannot make a selector be picked twice.
+     */
+    @Override
+    public void closeConnections(int n) {
+        int[] counts = new int[managers.size()];
+        int[] toClose = new int[managers.size()];
+        for (int i = 0; i < managers.size(); i++)
+            counts[i] = managers.get(i).getConnectedClientCount();
+        while (n-- > 0) {
+            int busiest = -1;
+            for (int i = 0; i < counts.length; i++)
+                if (counts[i] > 0 && (busiest < 0 || counts[i] > counts[busiest]))
+                    busiest = i;
+            if (busiest < 0)
+                break;
+            counts[busiest]--;
+            toClose[busiest]++;
+        }
+        for (int i = 0; i < managers.size(); i++)
+            if (toClose[i] > 0)
+                managers.get(i).closeConnections(Math.min(toClose[i], managers.get(i).getConnectedClientCount()));
+    }
+
+    /** Returns the number of selector threads. */
+    public int getSelectorThreadCount() {
+        return managers.size();
+    }
+
+    @Override
+    protected Executor executor() {
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                new ContextPropagatingThreadFactory("MultiNioClientManager").newThread(command).start();
+            }
+        };
+    }
+}
@@ -119,8 +119,18 @@ public class NioClient implements MessageWriteTarget {
         handler.writeTarget.closeConnection();
     }
 
+    @Override
+    public void setReadingPaused(boolean paused) {
+        handler.writeTarget.setReadingPaused(paused);
+    }
+
     @Override
     public synchronized ListenableFuture writeBytes(byte[] message) throws IOException {
         return handler.writeTarget.writeBytes(message);
     }
+
+    @Override
+    public synchronized ListenableFuture writeBytes(ByteBuffer message) throws IOException {
+        return handler.writeTarget.writeBytes(message);
+    }
 }
@@ -62,6 +62,8 @@ public class FinalCommitment extends SpecialTxPayload {
     BLSSignature quorumSignature;
     BLSSignature membersSignature;
 
+    private QuorumVerificationContext verificationContext;
+
     public FinalCommitment(NetworkParameters params, byte [] payload, int offset) {
         super(params, payload, offset);
     }
@@ -395,6 +397,19 @@ public class FinalCommitment extends SpecialTxPayload {
         return quorumPublicKey;
     }
 
+    /**
+     * Returns the context used to verify signatures recovered by this quorum. It is built the first time it is needed
+     * and kept for as long as this commitment is.
+     */
+    public QuorumVerificationContext getVerificationContext() {
+        QuorumVerificationContext context = verificationContext;
+        if (context == null || context.getPublicKey() != quorumPublicKey || !context.getQuorumHash().equals(quorumHash)) {
+            context = new QuorumVerificationContext(llmqType, quorumHash, quorumPublicKey);
+            verificationContext = context;
+        }
+        return context;
+    }
+
     public Sha256Hash getQuorumVvecHash() {
         return quorumVvecHash;
     }
@@ -563,14 +563,15 @@ public class InstantSendManager implements RecoveredSignatureListener {
                 invalidInstantSendLocks.put(islock, Utils.currentTimeSeconds());
                 return badISLocks;
             }
-            Sha256Hash signHash = LLMQUtils.buildSignHash(llmqType, quorum.commitment.quorumHash, id, islock.txid);
+            QuorumVerificationContext verificationContext = quorum.commitment.getVerificationContext();
+            Sha256Hash signHash = verificationContext.buildSignHash(id, islock.txid);
 
             // debug
             islock.setQuorum(quorum.getQuorumHash(), quorum.getQuorumIndex());
-            batchVerifier.pushMessage(nodeId, hash, signHash, islock.signature.getSignature(), quorum.commitment.quorumPublicKey);
+            batchVerifier.pushMessage(nodeId, hash, signHash, islock.signature.getSignature(), verificationContext.getPublicKey());
             verifyCount++;
 
-            quorumSigningManager.logSignature("ISLOCK", quorum.commitment.quorumPublicKey, signHash, islock.signature.getSignature());
+            quorumSigningManager.logSignature("ISLOCK", verificationContext.getPublicKey(), signHash, islock.signature.getSignature());
 
             // We can reconstruct the RecoveredSignature objects from the islock and pass it to the signing manager, which
             // avoids unnecessary double-verification of the signature. We however only do this when verification here
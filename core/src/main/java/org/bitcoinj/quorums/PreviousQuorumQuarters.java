@@ -24,4 +24,6 @@ public class PreviousQuorumQuarters {
     public ArrayList<ArrayList<SimplifiedMasternodeListEntry>> quarterHMinusC;
     public ArrayList<ArrayList<SimplifiedMasternodeListEntry>> quarterHMinus2C;
     public ArrayList<ArrayList<SimplifiedMasternodeListEntry>> quarterHMinus3C;
+    // true if the snapshots of all three previous cycles were found and their members computed
+    public boolean complete;
 }
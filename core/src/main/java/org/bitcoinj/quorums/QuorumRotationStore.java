@@ -0,0 +1,357 @@
+/*
+ * Copyright 2021 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.quorums;
+
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.ProtocolException;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.UnsafeByteArrayOutputStream;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.core.VarInt;
+import org.bitcoinj.evolution.Masternode;
+import org.bitcoinj.evolution.SimplifiedMasternodeListEntry;
+import org.bitcoinj.store.BlockStoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>Keeps quorum snapshots and the members of rotated quorums on disk, keyed by the hash of the LLMQ type and the
+ * cycle block that {@link QuorumSnapshotManager} uses. The members of all quorums of a cycle are stored together, as
+ * they are computed together.</p>
+ *
+ * <p>Records are only ever appended, so saving a new cycle writes just that cycle. Opening the store reads the record
+ * headers to find where each record is, and a record is read and parsed only when it is asked for. A record that was
+ * cut short, for example by a crash while it was written, is dropped when the store is opened. Each record carries a
+ * checksum of its payload, and a record that does not match its checksum or cannot be parsed is treated as missing,
+ * so that it is requested or computed again.</p>
+ *
+ * <p>Rotation only looks back a few cycles, so older records are garbage. Once the file holds more than twice the
+ * records that are kept, on opening or after a record is added, it is rewritten with only the latest records of each
+ * kind, as many as were given to the constructor.</p>
+ */
+public class QuorumRotationStore {
+    private static final Logger log = LoggerFactory.getLogger(QuorumRotationStore.class);
+
+    private static final byte[] MAGIC = { 'Q', 'R', 'S', '2' };
+    private static final int SNAPSHOT = 1;
+    private static final int MEMBERS = 2;
+    // kind, key, payload length and checksum
+    private static final int RECORD_HEADER_SIZE = 1 + 32 + 4 + 4;
+    /**
+     * The number of records of each kind kept when the store is compacted: the snapshots and quorum members of the
+     * last 16 cycles of one LLMQ type, or of the last 4 cycles, which is as far back as rotation looks, of 4 types.
+     */
+    public static final int DEFAULT_KEPT_RECORDS = 16;
+
+    private final NetworkParameters params;
+    private final File path;
+    private final int keptRecords;
+    private RandomAccessFile file;
+    // Records in the file, including the ones that were replaced or dropped
+    private int recordCount;
+    // Offsets of the payloads of the records
+    private final Map<Sha256Hash, Long> snapshotOffsets = new HashMap<>();
+    private final Map<Sha256Hash, Long> memberOffsets = new HashMap<>();
+
+    public QuorumRotationStore(NetworkParameters params, File file) throws BlockStoreException {
+        this(params, file, DEFAULT_KEPT_RECORDS);
+    }
+
+    /** Creates a store that keeps the given number of the latest records of each kind when it is compacted. */
+    public QuorumRotationStore(NetworkParameters params, File file, int keptRecords) throws BlockStoreException {
+        checkArgument(keptRecords > 0, "keptRecords must be positive");
+        this.params = params;
+        this.path = file;
+        this.keptRecords = keptRecords;
+        try {
+            boolean exists = file.exists() && file.length() > 0;
+            this.file = new RandomAccessFile(file, "rw");
+            if (exists) {
+                byte[] magic = new byte[MAGIC.length];
+                this.file.readFully(magic);
+                if (!Arrays.equals(magic, MAGIC))
+                    throw new BlockStoreException("Not a quorum rotation store: " + file);
+                index();
+                compactIfNeeded();
+            } else {
+                this.file.write(MAGIC);
+            }
+        } catch (IOException x) {
+            throw new BlockStoreException(x);
+        }
+    }
+
+    private void index() throws IOException {
+        long position = MAGIC.length;
+        long length = file.length();
+        byte[] header = new byte[RECORD_HEADER_SIZE];
+        while (position + RECORD_HEADER_SIZE <= length) {
+            file.seek(position);
+            file.readFully(header);
+            long size = Utils.readUint32(header, 33);
+            long payloadPosition = position + RECORD_HEADER_SIZE;
+            if (payloadPosition + size > length)
+                break;
+            Map<Sha256Hash, Long> offsets = header[0] == SNAPSHOT ? snapshotOffsets : header[0] == MEMBERS ? memberOffsets : null;
+            if (offsets == null)
+                break;
+            offsets.put(Sha256Hash.wrap(Arrays.copyOfRange(header, 1, 33)), payloadPosition);
+            recordCount++;
+            position = payloadPosition + size;
+        }
+        if (position < length) {
+            log.warn("dropping {} bytes of an incomplete record", length - position);
+            file.setLength(position);
+        }
+        log.info("loaded index of {} snapshots and {} quorum member records", snapshotOffsets.size(), memberOffsets.size());
+    }
+
+    private void compactIfNeeded() throws IOException {
+        if (recordCount > 4 * keptRecords)
+            compact();
+    }
+
+    // Rewrites the file with the latest records of each kind, in the order they were added
+    private void compact() throws IOException {
+        TreeSet<Long> kept = new TreeSet<>();
+        kept.addAll(latest(snapshotOffsets));
+        kept.addAll(latest(memberOffsets));
+        File temp = new File(path.getPath() + ".tmp");
+        try (RandomAccessFile out = new RandomAccessFile(temp, "rw")) {
+            out.setLength(0);
+            out.write(MAGIC);
+            for (long offset : kept) {
+                byte[] header = new byte[RECORD_HEADER_SIZE];
+                file.seek(offset - RECORD_HEADER_SIZE);
+                file.readFully(header);
+                byte[] payload = new byte[(int) Utils.readUint32(header, 33)];
+                file.readFully(payload);
+                out.write(header);
+                out.write(payload);
+            }
+        }
+        int previousCount = recordCount;
+        file.close();
+        Files.move(temp.toPath(), path.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        file = new RandomAccessFile(path, "rw");
+        snapshotOffsets.clear();
+        memberOffsets.clear();
+        recordCount = 0;
+        index();
+        log.info("compacted the quorum rotation store from {} to {} records", previousCount, recordCount);
+    }
+
+    private List<Long> latest(Map<Sha256Hash, Long> offsets) {
+        List<Long> sorted = new ArrayList<>(offsets.values());
+        Collections.sort(sorted);
+        return sorted.subList(Math.max(0, sorted.size() - keptRecords), sorted.size());
+    }
+
+    @Nullable
+    private byte[] read(Map<Sha256Hash, Long> offsets, Sha256Hash key) throws BlockStoreException {
+        checkOpen();
+        Long offset = offsets.get(key);
+        if (offset == null)
+            return null;
+        try {
+            byte[] sizeAndChecksum = new byte[8];
+            file.seek(offset - sizeAndChecksum.length);
+            file.readFully(sizeAndChecksum);
+            byte[] payload = new byte[(int) Utils.readUint32(sizeAndChecksum, 0)];
+            file.readFully(payload);
+            if (!Arrays.equals(checksum(payload), Arrays.copyOfRange(sizeAndChecksum, 4, 8))) {
+                log.warn("dropping a record that does not match its checksum: {}", key);
+                offsets.remove(key);
+                return null;
+            }
+            return payload;
+        } catch (IOException x) {
+            throw new BlockStoreException(x);
+        }
+    }
+
+    private static byte[] checksum(byte[] payload) {
+        return Arrays.copyOf(Sha256Hash.hashTwice(payload), 4);
+    }
+
+    private void append(int kind, Map<Sha256Hash, Long> offsets, Sha256Hash key, byte[] payload) throws BlockStoreException {
+        checkOpen();
+        try {
+            byte[] record = new byte[RECORD_HEADER_SIZE + payload.length];
+            record[0] = (byte) kind;
+            System.arraycopy(key.getBytes(), 0, record, 1, 32);
+            Utils.uint32ToByteArrayLE(payload.length, record, 33);
+            System.arraycopy(checksum(payload), 0, record, 37, 4);
+            System.arraycopy(payload, 0, record, RECORD_HEADER_SIZE, payload.length);
+            long position = file.length();
+            file.seek(position);
+            file.write(record);
+            offsets.put(key, position + RECORD_HEADER_SIZE);
+            recordCount++;
+            compactIfNeeded();
+        } catch (IOException x) {
+            throw new BlockStoreException(x);
+        }
+    }
+
+    /** Returns the snapshot stored under the key, or null if there is none. */
+    @Nullable
+    public synchronized QuorumSnapshot getSnapshot(Sha256Hash key) throws BlockStoreException {
+        byte[] payload = read(snapshotOffsets, key);
+        if (payload == null)
+            return null;
+        try {
+            return new QuorumSnapshot(params, payload, 0);
+        } catch (ProtocolException | IndexOutOfBoundsException x) {
+            log.warn("dropping a snapshot that cannot be parsed: {}", key, x);
+            snapshotOffsets.remove(key);
+            return null;
+        }
+    }
+
+    /** Stores a snapshot under the key, unless there already is one. */
+    public synchronized void putSnapshot(Sha256Hash key, QuorumSnapshot snapshot) throws BlockStoreException {
+        if (!snapshotOffsets.containsKey(key))
+            append(SNAPSHOT, snapshotOffsets, key, snapshot.bitcoinSerialize());
+    }
+
+    public synchronized boolean containsSnapshot(Sha256Hash key) {
+        return snapshotOffsets.containsKey(key);
+    }
+
+    /**
+     * Returns the members of each quorum of the cycle stored under the key, indexed by quorum index, or null if they
+     * are not stored.
+     */
+    @Nullable
+    public synchronized ArrayList<ArrayList<Masternode>> getQuorumMembers(Sha256Hash key) throws BlockStoreException {
+        byte[] payload = read(memberOffsets, key);
+        if (payload == null)
+            return null;
+        try {
+            return parseQuorumMembers(payload);
+        } catch (ProtocolException | IndexOutOfBoundsException x) {
+            log.warn("dropping quorum members that cannot be parsed: {}", key, x);
+            memberOffsets.remove(key);
+            return null;
+        }
+    }
+
+    private ArrayList<ArrayList<Masternode>> parseQuorumMembers(byte[] payload) {
+        // The masternodes are stored once each, followed by the positions of the members of each quorum
+        int cursor = 0;
+        VarInt count = new VarInt(payload, cursor);
+        cursor += count.getOriginalSizeInBytes();
+        ArrayList<SimplifiedMasternodeListEntry> masternodes = new ArrayList<>((int) count.value);
+        for (long i = 0; i < count.value; i++) {
+            int protocolVersion = (int) Utils.readUint32(payload, cursor);
+            cursor += 4;
+            SimplifiedMasternodeListEntry entry = new SimplifiedMasternodeListEntry(params, payload, cursor, protocolVersion);
+            cursor += entry.getMessageSize();
+            masternodes.add(entry);
+        }
+        VarInt quorumCount = new VarInt(payload, cursor);
+        cursor += quorumCount.getOriginalSizeInBytes();
+        ArrayList<ArrayList<Masternode>> quorums = new ArrayList<>((int) quorumCount.value);
+        for (long i = 0; i < quorumCount.value; i++) {
+            VarInt memberCount = new VarInt(payload, cursor);
+            cursor += memberCount.getOriginalSizeInBytes();
+            ArrayList<Masternode> members = new ArrayList<>((int) memberCount.value);
+            for (long j = 0; j < memberCount.value; j++) {
+                VarInt index = new VarInt(payload, cursor);
+                cursor += index.getOriginalSizeInBytes();
+                members.add(masternodes.get((int) index.value));
+            }
+            quorums.add(members);
+        }
+        return quorums;
+    }
+
+    /**
+     * Stores the members of each quorum of a cycle under the key, unless they already are. The members must be
+     * {@link SimplifiedMasternodeListEntry}s, as they are for rotated quorums.
+     */
+    public synchronized void putQuorumMembers(Sha256Hash key, List<? extends List<? extends Masternode>> quorums) throws BlockStoreException {
+        if (memberOffsets.containsKey(key))
+            return;
+        try {
+            // most masternodes are members of several quorums of the cycle
+            LinkedHashMap<Sha256Hash, Integer> indexes = new LinkedHashMap<>();
+            UnsafeByteArrayOutputStream entries = new UnsafeByteArrayOutputStream();
+            UnsafeByteArrayOutputStream positions = new UnsafeByteArrayOutputStream();
+            positions.write(new VarInt(quorums.size()).encode());
+            for (List<? extends Masternode> members : quorums) {
+                positions.write(new VarInt(members.size()).encode());
+                for (Masternode member : members) {
+                    SimplifiedMasternodeListEntry entry = (SimplifiedMasternodeListEntry) member;
+                    Integer index = indexes.get(entry.getProTxHash());
+                    if (index == null) {
+                        index = indexes.size();
+                        indexes.put(entry.getProTxHash(), index);
+                        Utils.uint32ToByteStreamLE(entry.getProtocolVersion(), entries);
+                        entry.bitcoinSerialize(entries);
+                    }
+                    positions.write(new VarInt(index).encode());
+                }
+            }
+            UnsafeByteArrayOutputStream payload = new UnsafeByteArrayOutputStream(
+                    entries.size() + positions.size() + VarInt.sizeOf(indexes.size()));
+            payload.write(new VarInt(indexes.size()).encode());
+            entries.writeTo(payload);
+            positions.writeTo(payload);
+            append(MEMBERS, memberOffsets, key, payload.toByteArray());
+        } catch (IOException x) {
+            throw new BlockStoreException(x);
+        }
+    }
+
+    public synchronized boolean containsQuorumMembers(Sha256Hash key) {
+        return memberOffsets.containsKey(key);
+    }
+
+    public synchronized void close() throws BlockStoreException {
+        if (file == null)
+            return;
+        try {
+            file.close();
+            file = null;
+        } catch (IOException x) {
+            throw new BlockStoreException(x);
+        }
+    }
+
+    private void checkOpen() throws BlockStoreException {
+        if (file == null) throw new BlockStoreException("QuorumRotationStore is closed");
+    }
+}
@@ -24,22 +24,27 @@ import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.core.StoredBlock;
 import org.bitcoinj.core.UnsafeByteArrayOutputStream;
 import org.bitcoinj.core.Utils;
+import org.bitcoinj.evolution.Masternode;
+import org.bitcoinj.store.BlockStoreException;
 import org.bitcoinj.utils.Threading;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class QuorumSnapshotManager extends AbstractManager {
 
-    private static final Logger log = LoggerFactory.getLogger(InstantSendManager.class);
+    private static final Logger log = LoggerFactory.getLogger(QuorumSnapshotManager.class);
     ReentrantLock lock = Threading.lock("QuorumSnapshotManager");
 
     private HashMap<Sha256Hash, QuorumSnapshot> quorumSnapshotCache;
+    @Nullable
+    private QuorumRotationStore store;
 
     public QuorumSnapshotManager(Context context) {
         super(context);
@@ -78,29 +83,116 @@ public class QuorumSnapshotManager extends AbstractManager {
 
     @Override
     public void close() {
+        lock.lock();
+        try {
+            if (store != null)
+                store.close();
+            store = null;
+        } catch (BlockStoreException x) {
+            log.warn("failed to close the quorum rotation store", x);
+        } finally {
+            lock.unlock();
+        }
+    }
 
+    /**
+     * Sets the store that snapshots and the members of rotated quorums are saved to as they become known, and read
+     * from when they are not in memory, so that they need not be requested or computed again after a restart.
+     */
+    public void setStore(@Nullable QuorumRotationStore store) {
+        lock.lock();
+        try {
+            this.store = store;
+        } finally {
+            lock.unlock();
+        }
     }
 
     static Sha256Hash getSnapshotHash(LLMQParameters.LLMQType type, StoredBlock block) {
+        return getSnapshotHash(type, block.getHeader().getHash());
+    }
+
+    static Sha256Hash getSnapshotHash(LLMQParameters.LLMQType type, Sha256Hash blockHash) {
         try {
             UnsafeByteArrayOutputStream stream = new UnsafeByteArrayOutputStream();
             Utils.uint32ToByteStreamLE(type.getValue(), stream);
-            stream.write(block.getHeader().getHash().getReversedBytes());
+            stream.write(blockHash.getReversedBytes());
             return Sha256Hash.twiceOf(stream.toByteArray());
         } catch (IOException x) {
             throw new RuntimeException(x);
         }
     }
 
-    @GuardedBy("lock")
     public QuorumSnapshot getSnapshotForBlock(LLMQParameters.LLMQType type, StoredBlock block) {
-        Sha256Hash snapshotHash = getSnapshotHash(type, block);
-        return quorumSnapshotCache.get(snapshotHash);
+        return getSnapshotForBlock(type, block.getHeader().getHash());
+    }
+
+    @Nullable
+    public QuorumSnapshot getSnapshotForBlock(LLMQParameters.LLMQType type, Sha256Hash blockHash) {
+        lock.lock();
+        try {
+            Sha256Hash snapshotHash = getSnapshotHash(type, blockHash);
+            QuorumSnapshot snapshot = quorumSnapshotCache.get(snapshotHash);
+            if (snapshot == null && store != null) {
+                snapshot = store.getSnapshot(snapshotHash);
+                if (snapshot != null)
+                    quorumSnapshotCache.put(snapshotHash, snapshot);
+            }
+            return snapshot;
+        } catch (BlockStoreException x) {
+            log.warn("failed to read a snapshot from the quorum rotation store", x);
+            return null;
+        } finally {
+            lock.unlock();
+        }
     }
 
-    @GuardedBy("lock")
     public void storeSnapshotForBlock(LLMQParameters.LLMQType type, StoredBlock block, QuorumSnapshot snapshot) {
-        Sha256Hash snapshotHash = getSnapshotHash(type, block);
-        quorumSnapshotCache.put(snapshotHash, snapshot);
+        storeSnapshotForBlock(type, block.getHeader().getHash(), snapshot);
+    }
+
+    public void storeSnapshotForBlock(LLMQParameters.LLMQType type, Sha256Hash blockHash, QuorumSnapshot snapshot) {
+        lock.lock();
+        try {
+            Sha256Hash snapshotHash = getSnapshotHash(type, blockHash);
+            quorumSnapshotCache.put(snapshotHash, snapshot);
+            if (store != null)
+                store.putSnapshot(snapshotHash, snapshot);
+        } catch (BlockStoreException x) {
+            log.warn("failed to save a snapshot to the quorum rotation store", x);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the saved members of the quorums of the rotation cycle that starts at the given block, indexed by
+     * quorum index, or null if they have not been saved.
+     */
+    @Nullable
+    public ArrayList<ArrayList<Masternode>> getQuorumMembersForCycle(LLMQParameters.LLMQType type, Sha256Hash cycleBlockHash) {
+        lock.lock();
+        try {
+            return store != null ? store.getQuorumMembers(getSnapshotHash(type, cycleBlockHash)) : null;
+        } catch (BlockStoreException x) {
+            log.warn("failed to read quorum members from the quorum rotation store", x);
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Saves the members of the quorums of the rotation cycle that starts at the given block, if there is a store. */
+    public void storeQuorumMembersForCycle(LLMQParameters.LLMQType type, Sha256Hash cycleBlockHash,
+                                           ArrayList<ArrayList<Masternode>> quorumMembers) {
+        lock.lock();
+        try {
+            if (store != null)
+                store.putQuorumMembers(getSnapshotHash(type, cycleBlockHash), quorumMembers);
+        } catch (BlockStoreException x) {
+            log.warn("failed to save quorum members to the quorum rotation store", x);
+        } finally {
+            lock.unlock();
+        }
     }
 }
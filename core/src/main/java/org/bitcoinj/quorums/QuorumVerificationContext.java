@@ -0,0 +1,81 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.quorums;
+
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.crypto.BLSPublicKey;
+import org.bitcoinj.crypto.BLSSignature;
+
+/**
+ * <p>What is needed to verify the recovered signatures of one quorum: its decoded public key and the serialized LLMQ
+ * type and quorum hash, which every sign hash of the quorum starts with. A context is kept by the
+ * {@link FinalCommitment} of the quorum, so it lives as long as the quorum lists that hold the quorum.</p>
+ *
+ * <p>{@link #buildSignHash(Sha256Hash, Sha256Hash)} gives the same hash as
+ * {@link LLMQUtils#buildSignHash(int, Sha256Hash, Sha256Hash, Sha256Hash)}, but builds the message in one array from
+ * the stored prefix instead of writing it to a stream. A context may be used from several threads.</p>
+ */
+public class QuorumVerificationContext {
+    private final int llmqType;
+    private final Sha256Hash quorumHash;
+    private final BLSPublicKey publicKey;
+    // The LLMQ type and reversed quorum hash that every sign hash of the quorum starts with. Never changed after it is
+    // built.
+    private final byte[] prefix;
+
+    public QuorumVerificationContext(int llmqType, Sha256Hash quorumHash, BLSPublicKey publicKey) {
+        this.llmqType = llmqType;
+        this.quorumHash = quorumHash;
+        this.publicKey = publicKey;
+        prefix = new byte[1 + 32];
+        prefix[0] = (byte) llmqType;
+        putReversed(prefix, 1, quorumHash);
+    }
+
+    private static void putReversed(byte[] message, int offset, Sha256Hash hash) {
+        byte[] bytes = hash.getBytes();
+        for (int i = 0; i < bytes.length; i++)
+            message[offset + i] = bytes[bytes.length - 1 - i];
+    }
+
+    /** Returns the hash signed by the quorum for the request id and message hash. */
+    public Sha256Hash buildSignHash(Sha256Hash id, Sha256Hash msgHash) {
+        // The whole message fits in two SHA-256 blocks, so it is hashed in one call
+        byte[] message = new byte[prefix.length + 32 + 32];
+        System.arraycopy(prefix, 0, message, 0, prefix.length);
+        System.arraycopy(id.getBytes(), 0, message, prefix.length, 32);
+        putReversed(message, prefix.length + 32, msgHash);
+        return Sha256Hash.twiceOf(message);
+    }
+
+    /** Returns true if the signature of the quorum over the sign hash is valid. */
+    public boolean verify(BLSSignature signature, Sha256Hash signHash) {
+        return signature.verifyInsecure(publicKey, signHash);
+    }
+
+    public int getLlmqType() {
+        return llmqType;
+    }
+
+    public Sha256Hash getQuorumHash() {
+        return quorumHash;
+    }
+
+    public BLSPublicKey getPublicKey() {
+        return publicKey;
+    }
+}
@@ -43,11 +43,17 @@ public class SPVQuorumManager extends QuorumManager {
         final ArrayList<Quorum> result = new ArrayList<Quorum>();
         SimplifiedQuorumList list = masternodeListManager.getQuorumListForBlock(start.getHeader().getHash(), llmqType);
         if (list == null) {
-            // if the list isn't found, use the most recent list
+            // if the list isn't found, use the closest earlier list, which has no quorums that are newer than the block
+            list = masternodeListManager.getQuorumListAtOrBefore(start.getHeight(), llmqType);
+            if (list != null)
+                log.info("quorum list for " + start.getHeight() + " not found, using the earlier quorum list: " + list.getHeight());
+        }
+        if (list == null) {
+            // if there is none, use the most recent list
             list = masternodeListManager.getQuorumListAtTip(llmqType);
-            log.warn("quorum list for " + start.getHeight() + " not found, using most recent quorum list: " + list.getHeight());
             if (list == null)
                 return result;  // return empty list
+            log.warn("quorum list for " + start.getHeight() + " not found, using most recent quorum list: " + list.getHeight());
         }
         final LLMQParameters llmqParameters = context.getParams().getLlmqs().get(llmqType);
         list.forEachQuorum(true, new SimplifiedQuorumList.ForeachQuorumCallback() {
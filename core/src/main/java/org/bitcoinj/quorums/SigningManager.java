@@ -381,10 +381,12 @@ public class SigningManager {
                 }
 
                 Quorum quorum = quorums.get(new Pair<>(recSig.llmqType, recSig.quorumHash));
-                batchVerifier.pushMessage(nodeId, recSig.getHash(), LLMQUtils.buildSignHash(recSig), recSig.signature.getSignature(), quorum.commitment.quorumPublicKey);
+                QuorumVerificationContext verificationContext = quorum.commitment.getVerificationContext();
+                Sha256Hash signHash = verificationContext.buildSignHash(recSig.id, recSig.msgHash);
+                batchVerifier.pushMessage(nodeId, recSig.getHash(), signHash, recSig.signature.getSignature(), verificationContext.getPublicKey());
                 verifyCount++;
 
-                logSignature("RECSIG", quorum.commitment.quorumPublicKey, LLMQUtils.buildSignHash(recSig), recSig.signature.getSignature());
+                logSignature("RECSIG", verificationContext.getPublicKey(), signHash, recSig.signature.getSignature());
             }
         }
 
@@ -489,12 +491,13 @@ public class SigningManager {
                     QuorumNotFoundException.Reason.MISSING_QUORUM);
         }
 
-        Sha256Hash signHash = LLMQUtils.buildSignHash(llmqType, quorum.commitment.quorumHash, id, msgHash);
+        QuorumVerificationContext verificationContext = quorum.commitment.getVerificationContext();
+        Sha256Hash signHash = verificationContext.buildSignHash(id, msgHash);
 
-        logSignature("RECSIG", quorum.commitment.quorumPublicKey, signHash, sig);
+        logSignature("RECSIG", verificationContext.getPublicKey(), signHash, sig);
 
         if(context.masternodeSync.hasVerifyFlag(MasternodeSync.VERIFY_FLAGS.BLS_SIGNATURES)) {
-            boolean result = sig.verifyInsecure(quorum.commitment.quorumPublicKey, signHash);
+            boolean result = verificationContext.verify(sig, signHash);
             if (!result) {
                 log.info("signature not validated with {}, msg: {}, id: {}, signHash: {}", quorum, msgHash, Sha256Hash.wrap(id.getReversedBytes()), signHash);
                 log.info("dash-cli quorum selectquorum {} {}", llmqType.value, Sha256Hash.wrap(id.getReversedBytes()));
@@ -89,6 +89,9 @@ public class Script {
     public static final EnumSet<VerifyFlag> ALL_VERIFY_FLAGS = EnumSet.allOf(VerifyFlag.class);
 
     private static final Logger log = LoggerFactory.getLogger(Script.class);
+
+    // Signatures that have already been verified, shared by all script execution
+    private static final SignatureCache signatureCache = new SignatureCache();
     public static final long MAX_SCRIPT_ELEMENT_SIZE = 520;  // bytes
     private static final int MAX_OPS_PER_SCRIPT = 201;
     private static final int MAX_STACK_SIZE = 1000;
@@ -748,6 +751,58 @@ public class Script {
         return isOpReturn();
     }
 
+    // The encoded values pushed by OP_1NEGATE and OP_1 to OP_16, indexed by opcode - OP_1NEGATE. OP_RESERVED sits
+    // between OP_1NEGATE and OP_1 and is never pushed. Stack items are never modified in place, so these are shared.
+    private static final byte[][] SMALL_NUMBERS = new byte[OP_16 - OP_1NEGATE + 1][];
+    static {
+        SMALL_NUMBERS[0] = Utils.reverseBytes(Utils.encodeMPI(BigInteger.ONE.negate(), false));
+        for (int opcode = OP_1; opcode <= OP_16; opcode++)
+            SMALL_NUMBERS[opcode - OP_1NEGATE] = Utils.reverseBytes(Utils.encodeMPI(BigInteger.valueOf(decodeFromOpN(opcode)), false));
+    }
+
+    /**
+     * The OP_IF/OP_NOTIF/OP_ELSE/OP_ENDIF nesting state. Only the depth and the position of the first false entry
+     * are kept, since nothing below the first false entry can make the current branch execute. This keeps
+     * every operation O(1) instead of scanning the whole stack for a false entry before each opcode.
+     */
+    private static final class ConditionStack {
+        private static final int NO_FALSE = -1;
+
+        private int size = 0;
+        private int firstFalsePos = NO_FALSE;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        boolean allTrue() {
+            return firstFalsePos == NO_FALSE;
+        }
+
+        void add(boolean value) {
+            if (firstFalsePos == NO_FALSE && !value)
+                firstFalsePos = size;
+            ++size;
+        }
+
+        void pollLast() {
+            --size;
+            if (firstFalsePos == size)
+                firstFalsePos = NO_FALSE;
+        }
+
+        void toggleTop() {
+            if (firstFalsePos == NO_FALSE) {
+                // the top is true, it becomes the first false entry
+                firstFalsePos = size - 1;
+            } else if (firstFalsePos == size - 1) {
+                // the top is the first false entry, everything below it is true
+                firstFalsePos = NO_FALSE;
+            }
+            // otherwise there is a false entry below the top, which stays the first one
+        }
+    }
+
     /**
      * Exposes the script interpreter. Normally you should not use this directly, instead use
      * {@link TransactionInput#verify(TransactionOutput)} or
@@ -781,10 +836,10 @@ public class Script {
         int lastCodeSepLocation = 0;
         
         LinkedList<byte[]> altstack = new LinkedList<>();
-        LinkedList<Boolean> ifStack = new LinkedList<>();
+        ConditionStack ifStack = new ConditionStack();
         
         for (ScriptChunk chunk : script.chunks) {
-            boolean shouldExecute = !ifStack.contains(false);
+            boolean shouldExecute = ifStack.allTrue();
             int opcode = chunk.opcode;
 
             // Check stack element size
@@ -838,7 +893,7 @@ public class Script {
                 case OP_ELSE:
                     if (ifStack.isEmpty())
                         throw new ScriptException(ScriptError.SCRIPT_ERR_UNBALANCED_CONDITIONAL, "Attempted OP_ELSE without OP_IF/NOTIF");
-                    ifStack.add(!ifStack.pollLast());
+                    ifStack.toggleTop();
                     continue;
                 case OP_ENDIF:
                     if (ifStack.isEmpty())
@@ -848,7 +903,7 @@ public class Script {
 
                 // OP_0 is no opcode
                 case OP_1NEGATE:
-                    stack.add(Utils.reverseBytes(Utils.encodeMPI(BigInteger.ONE.negate(), false)));
+                    stack.add(SMALL_NUMBERS[0]);
                     break;
                 case OP_1:
                 case OP_2:
@@ -866,7 +921,7 @@ public class Script {
                 case OP_14:
                 case OP_15:
                 case OP_16:
-                    stack.add(Utils.reverseBytes(Utils.encodeMPI(BigInteger.valueOf(decodeFromOpN(opcode)), false)));
+                    stack.add(SMALL_NUMBERS[opcode - OP_1NEGATE]);
                     break;
                 case OP_NOP:
                     break;
@@ -1423,7 +1478,7 @@ public class Script {
 
             // TODO: Should check hash type is known
             Sha256Hash hash = txContainingThis.hashForSignature(index, connectedScript, (byte) sig.sighashFlags);
-            sigValid = ECKey.verify(hash.getBytes(), sig, pubKey);
+            sigValid = verifySignature(hash, sig, sigBytes, pubKey);
         } catch (SignatureDecodeException e) {
             // This exception occurs when signing as we run partial/invalid scripts to see if they need more
             // signing work to be done inside LocalTransactionSigner.signInputs.
@@ -1443,6 +1498,23 @@ public class Script {
                 throw new ScriptException(ScriptError.SCRIPT_ERR_CHECKSIGVERIFY, "Script failed OP_CHECKSIGVERIFY");
     }
 
+    private static boolean verifySignature(Sha256Hash hash, TransactionSignature sig, byte[] sigBytes, byte[] pubKey) {
+        if (signatureCache.contains(hash, pubKey, sigBytes))
+            return true;
+        boolean valid = ECKey.verify(hash.getBytes(), sig, pubKey);
+        if (valid)
+            signatureCache.add(hash, pubKey, sigBytes);
+        return valid;
+    }
+
+    /**
+     * Returns the cache of signatures that have already been verified during script execution. Transactions that
+     * were checked when relayed don't need their signatures verified again when they are connected in a block.
+     */
+    public static SignatureCache getSignatureCache() {
+        return signatureCache;
+    }
+
     private static int executeMultiSig(Transaction txContainingThis, int index, Script script, LinkedList<byte[]> stack,
                                        int opCount, int lastCodeSepLocation, int opcode, 
                                        Set<VerifyFlag> verifyFlags) throws ScriptException {
@@ -1460,7 +1532,7 @@ public class Script {
         if (stack.size() < pubKeyCount + 1)
             throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_CHECKMULTISIG(VERIFY) on a stack with size < num_of_pubkeys + 2");
 
-        LinkedList<byte[]> pubkeys = new LinkedList<>();
+        ArrayDeque<byte[]> pubkeys = new ArrayDeque<>(pubKeyCount);
         for (int i = 0; i < pubKeyCount; i++) {
             byte[] pubKey = stack.pollLast();
             pubkeys.add(pubKey);
@@ -1472,7 +1544,7 @@ public class Script {
         if (stack.size() < sigCount + 1)
             throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_CHECKMULTISIG(VERIFY) on a stack with size < num_of_pubkeys + num_of_signatures + 3");
 
-        LinkedList<byte[]> sigs = new LinkedList<>();
+        ArrayDeque<byte[]> sigs = new ArrayDeque<>(sigCount);
         for (int i = 0; i < sigCount; i++) {
             byte[] sig = stack.pollLast();
             sigs.add(sig);
@@ -1499,7 +1571,7 @@ public class Script {
             try {
                 TransactionSignature sig = TransactionSignature.decodeFromBitcoin(sigs.getFirst(), requireCanonical, false);
                 Sha256Hash hash = txContainingThis.hashForSignature(index, connectedScript, (byte) sig.sighashFlags);
-                if (ECKey.verify(hash.getBytes(), sig, pubKey))
+                if (verifySignature(hash, sig, sigs.getFirst(), pubKey))
                     sigs.pollFirst();
             } catch (Exception e) {
                 // There is (at least) one exception that could be hit here (EOFException, if the sig is too short)
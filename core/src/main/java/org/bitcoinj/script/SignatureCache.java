@@ -0,0 +1,104 @@
+/*
+ * Copyright 2019 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.script;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.bitcoinj.core.Sha256Hash;
+
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Remembers (signature hash, public key, signature) triples that have already been verified successfully, so that a
+ * transaction that was checked when it was first relayed is not verified again when it is connected in a block, and
+ * OP_CHECKMULTISIG doesn't repeat the EC math for combinations it has already tried.</p>
+ *
+ * <p>Only valid signatures are stored. Entries are keyed by a SHA-256 of the triple with a random per-instance salt,
+ * so that peers cannot construct collisions against the cache. It is bounded and safe to use from several threads.</p>
+ */
+public class SignatureCache {
+    public static final int DEFAULT_MAX_ENTRIES = 50000;
+
+    private final Cache<Sha256Hash, Boolean> validSignatures;
+    private final byte[] salt = new byte[32];
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public SignatureCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public SignatureCache(int maxEntries) {
+        validSignatures = CacheBuilder.newBuilder()
+                .maximumSize(maxEntries)
+                .concurrencyLevel(Runtime.getRuntime().availableProcessors())
+                .build();
+        new SecureRandom().nextBytes(salt);
+    }
+
+    private Sha256Hash getEntry(Sha256Hash hash, byte[] pubKey, byte[] signature) {
+        MessageDigest digest = Sha256Hash.newDigest();
+        digest.update(salt);
+        digest.update(hash.getBytes());
+        digest.update(pubKey);
+        digest.update(signature);
+        return Sha256Hash.wrap(digest.digest());
+    }
+
+    /**
+     * Returns true if this signature was previously verified against the public key and signature hash.
+     * @param signature the encoded signature as it appears in the script, including the sighash byte
+     */
+    public boolean contains(Sha256Hash hash, byte[] pubKey, byte[] signature) {
+        if (validSignatures.getIfPresent(getEntry(hash, pubKey, signature)) != null) {
+            hits.incrementAndGet();
+            return true;
+        }
+        misses.incrementAndGet();
+        return false;
+    }
+
+    /** Records that this signature is valid for the public key and signature hash. */
+    public void add(Sha256Hash hash, byte[] pubKey, byte[] signature) {
+        validSignatures.put(getEntry(hash, pubKey, signature), Boolean.TRUE);
+    }
+
+    public long size() {
+        return validSignatures.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public void clear() {
+        validSignatures.invalidateAll();
+        hits.set(0);
+        misses.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "SignatureCache(size=" + size() + ", hits=" + hits.get() + ", misses=" + misses.get() + ")";
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2019 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.store;
+
+import org.bitcoinj.core.CompactBlockFilter;
+import org.bitcoinj.core.Sha256Hash;
+
+import javax.annotation.Nullable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>Keeps {@link CompactBlockFilter}s and the filter header chain that links them in memory. Every filter is
+ * connected to the header of the previous block's filter, so a filter can only be added once its parent is known. The
+ * chain is rooted either at the genesis block, whose previous header is all zeroes, or at a trusted header added with
+ * {@link #putHeader(Sha256Hash, Sha256Hash)}, for example from a checkpoint.</p>
+ *
+ * <p>The store holds at most a given number of filters and headers. When it is full, the ones that were added first
+ * are dropped. Nothing is written to disk; the filters are built again from the block files after a restart.</p>
+ */
+public class CompactBlockFilterStore {
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    private Map<Sha256Hash, CompactBlockFilter> filters;
+    private Map<Sha256Hash, Sha256Hash> headers;
+
+    public CompactBlockFilterStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /** Creates a store that keeps the filters and headers of at most the given number of blocks. */
+    public CompactBlockFilterStore(final int capacity) {
+        checkArgument(capacity > 0, "capacity must be positive");
+        filters = new LinkedHashMap<Sha256Hash, CompactBlockFilter>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Sha256Hash, CompactBlockFilter> eldest) {
+                return size() > capacity;
+            }
+        };
+        headers = new LinkedHashMap<Sha256Hash, Sha256Hash>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Sha256Hash, Sha256Hash> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Adds a filter and returns its filter header.
+     * @param prevBlockHash hash of the block before the filter's block, or all zeroes for the genesis block
+     * @throws BlockStoreException if the store is closed or the previous block's filter header is unknown
+     */
+    public synchronized Sha256Hash put(Sha256Hash prevBlockHash, CompactBlockFilter filter) throws BlockStoreException {
+        checkOpen();
+        Sha256Hash previousHeader = headers.get(prevBlockHash);
+        if (previousHeader == null) {
+            if (!prevBlockHash.equals(Sha256Hash.ZERO_HASH))
+                throw new BlockStoreException("No filter header for " + prevBlockHash + ", cannot connect "
+                        + filter.getBlockHash());
+            previousHeader = Sha256Hash.ZERO_HASH;
+        }
+        Sha256Hash header = filter.computeHeader(previousHeader);
+        filters.put(filter.getBlockHash(), filter);
+        headers.put(filter.getBlockHash(), header);
+        return header;
+    }
+
+    /** Adds a trusted filter header, for example from a checkpoint, that later filters can be connected to. */
+    public synchronized void putHeader(Sha256Hash blockHash, Sha256Hash filterHeader) throws BlockStoreException {
+        checkOpen();
+        headers.put(blockHash, filterHeader);
+    }
+
+    /** Returns the filter of the block, or null if it has not been added. */
+    @Nullable
+    public synchronized CompactBlockFilter get(Sha256Hash blockHash) throws BlockStoreException {
+        checkOpen();
+        return filters.get(blockHash);
+    }
+
+    /** Returns the filter header of the block, or null if it is unknown. */
+    @Nullable
+    public synchronized Sha256Hash getFilterHeader(Sha256Hash blockHash) throws BlockStoreException {
+        checkOpen();
+        return headers.get(blockHash);
+    }
+
+    public synchronized int size() {
+        return filters == null ? 0 : filters.size();
+    }
+
+    public synchronized void close() {
+        filters = null;
+        headers = null;
+    }
+
+    private void checkOpen() throws BlockStoreException {
+        if (filters == null) throw new BlockStoreException("CompactBlockFilterStore is closed");
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright 2019 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.utils;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * <p>An immutable hash map that shares structure between versions, implemented as a hash array mapped trie. Adding or
+ * removing a key with {@link #plus(Object, Object)} or {@link #minus(Object)} returns a new map and leaves this one
+ * unchanged, copying only the O(log n) nodes on the path to the key. A chain of maps that each differ by a few entries
+ * therefore costs memory in proportion to the differences rather than to the size of each map.</p>
+ *
+ * <p>The map is safe to read from any number of threads. The mutating {@link Map} methods throw
+ * {@link UnsupportedOperationException}.</p>
+ */
+public final class PersistentHashMap<K, V> extends AbstractMap<K, V> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private static final PersistentHashMap<Object, Object> EMPTY = new PersistentHashMap<>(null, 0);
+
+    private final Node<K, V> root;
+    private final int size;
+
+    private PersistentHashMap(Node<K, V> root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    /** Returns a map with the entries of the given map. */
+    public static <K, V> PersistentHashMap<K, V> copyOf(Map<? extends K, ? extends V> map) {
+        PersistentHashMap<K, V> result = empty();
+        for (Map.Entry<? extends K, ? extends V> entry : map.entrySet())
+            result = result.plus(entry.getKey(), entry.getValue());
+        return result;
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public V get(Object key) {
+        return root == null || key == null ? null : root.get(key, hash(key), 0);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    /** Returns a map that also maps the key to the value, replacing any previous mapping of the key. */
+    public PersistentHashMap<K, V> plus(K key, V value) {
+        if (key == null || value == null)
+            throw new NullPointerException();
+        int hash = hash(key);
+        if (root == null)
+            return new PersistentHashMap<>(new Leaf<>(hash, key, value), 1);
+        boolean[] added = new boolean[1];
+        Node<K, V> newRoot = root.put(key, value, hash, 0, added);
+        if (newRoot == root)
+            return this;
+        return new PersistentHashMap<>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    /** Returns a map without a mapping for the key. */
+    public PersistentHashMap<K, V> minus(Object key) {
+        if (root == null || key == null)
+            return this;
+        Node<K, V> newRoot = root.remove(key, hash(key), 0);
+        if (newRoot == root)
+            return this;
+        return newRoot == null ? PersistentHashMap.<K, V>empty() : new PersistentHashMap<>(newRoot, size - 1);
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<Map.Entry<K, V>>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return new EntryIterator<>(root);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private abstract static class Node<K, V> {
+        abstract V get(Object key, int hash, int shift);
+
+        /** Returns this node if nothing changed. Sets added[0] if the key was not present. */
+        abstract Node<K, V> put(K key, V value, int hash, int shift, boolean[] added);
+
+        /** Returns this node if the key was not present, or null if the node became empty. */
+        abstract Node<K, V> remove(Object key, int hash, int shift);
+    }
+
+    /** A node holding keys that all have the same hash: a single entry or, rarely, a list of colliding ones. */
+    private static final class Leaf<K, V> extends Node<K, V> {
+        final int hash;
+        final Object[] keysAndValues;
+
+        Leaf(int hash, K key, V value) {
+            this(hash, new Object[] { key, value });
+        }
+
+        Leaf(int hash, Object[] keysAndValues) {
+            this.hash = hash;
+            this.keysAndValues = keysAndValues;
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < keysAndValues.length; i += 2)
+                if (keysAndValues[i].equals(key))
+                    return i;
+            return -1;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        V get(Object key, int hash, int shift) {
+            if (hash != this.hash)
+                return null;
+            int i = indexOf(key);
+            return i < 0 ? null : (V) keysAndValues[i + 1];
+        }
+
+        @Override
+        Node<K, V> put(K key, V value, int hash, int shift, boolean[] added) {
+            if (hash != this.hash) {
+                added[0] = true;
+                return Branch.of(this, new Leaf<>(hash, key, value), shift);
+            }
+            int i = indexOf(key);
+            if (i >= 0) {
+                if (keysAndValues[i + 1] == value)
+                    return this;
+                Object[] copy = keysAndValues.clone();
+                copy[i + 1] = value;
+                return new Leaf<>(hash, copy);
+            }
+            added[0] = true;
+            Object[] copy = Arrays.copyOf(keysAndValues, keysAndValues.length + 2);
+            copy[keysAndValues.length] = key;
+            copy[keysAndValues.length + 1] = value;
+            return new Leaf<>(hash, copy);
+        }
+
+        @Override
+        Node<K, V> remove(Object key, int hash, int shift) {
+            if (hash != this.hash)
+                return this;
+            int i = indexOf(key);
+            if (i < 0)
+                return this;
+            if (keysAndValues.length == 2)
+                return null;
+            Object[] copy = new Object[keysAndValues.length - 2];
+            System.arraycopy(keysAndValues, 0, copy, 0, i);
+            System.arraycopy(keysAndValues, i + 2, copy, i, keysAndValues.length - i - 2);
+            return new Leaf<>(hash, copy);
+        }
+    }
+
+    /** An inner node with up to 32 children, selected by the next 5 bits of the hash. */
+    private static final class Branch<K, V> extends Node<K, V> {
+        final int bitmap;
+        final Node<K, V>[] children;
+
+        Branch(int bitmap, Node<K, V>[] children) {
+            this.bitmap = bitmap;
+            this.children = children;
+        }
+
+        /** Creates the smallest subtree holding two leaves with different hashes. */
+        static <K, V> Node<K, V> of(Leaf<K, V> a, Leaf<K, V> b, int shift) {
+            int indexA = (a.hash >>> shift) & MASK;
+            int indexB = (b.hash >>> shift) & MASK;
+            if (indexA == indexB) {
+                Node<K, V>[] children = newChildren(1);
+                children[0] = of(a, b, shift + BITS);
+                return new Branch<>(1 << indexA, children);
+            }
+            Node<K, V>[] children = newChildren(2);
+            children[0] = indexA < indexB ? a : b;
+            children[1] = indexA < indexB ? b : a;
+            return new Branch<>((1 << indexA) | (1 << indexB), children);
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <K, V> Node<K, V>[] newChildren(int length) {
+            return (Node<K, V>[]) new Node<?, ?>[length];
+        }
+
+        @Override
+        V get(Object key, int hash, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0)
+                return null;
+            return children[Integer.bitCount(bitmap & (bit - 1))].get(key, hash, shift + BITS);
+        }
+
+        @Override
+        Node<K, V> put(K key, V value, int hash, int shift, boolean[] added) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            int position = Integer.bitCount(bitmap & (bit - 1));
+            if ((bitmap & bit) == 0) {
+                added[0] = true;
+                Node<K, V>[] copy = newChildren(children.length + 1);
+                System.arraycopy(children, 0, copy, 0, position);
+                copy[position] = new Leaf<>(hash, key, value);
+                System.arraycopy(children, position, copy, position + 1, children.length - position);
+                return new Branch<>(bitmap | bit, copy);
+            }
+            Node<K, V> child = children[position];
+            Node<K, V> newChild = child.put(key, value, hash, shift + BITS, added);
+            if (newChild == child)
+                return this;
+            Node<K, V>[] copy = children.clone();
+            copy[position] = newChild;
+            return new Branch<>(bitmap, copy);
+        }
+
+        @Override
+        Node<K, V> remove(Object key, int hash, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0)
+                return this;
+            int position = Integer.bitCount(bitmap & (bit - 1));
+            Node<K, V> child = children[position];
+            Node<K, V> newChild = child.remove(key, hash, shift + BITS);
+            if (newChild == child)
+                return this;
+            if (newChild == null) {
+                if (children.length == 1)
+                    return null;
+                // A single remaining leaf can take the place of this branch, as its position only depends on its hash.
+                if (children.length == 2 && children[1 - position] instanceof Leaf)
+                    return children[1 - position];
+                Node<K, V>[] copy = newChildren(children.length - 1);
+                System.arraycopy(children, 0, copy, 0, position);
+                System.arraycopy(children, position + 1, copy, position, children.length - position - 1);
+                return new Branch<>(bitmap & ~bit, copy);
+            }
+            if (children.length == 1 && newChild instanceof Leaf)
+                return newChild;
+            Node<K, V>[] copy = children.clone();
+            copy[position] = newChild;
+            return new Branch<>(bitmap, copy);
+        }
+    }
+
+    private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+        private final Deque<Object> stack = new ArrayDeque<>();
+        private Leaf<K, V> leaf;
+        private int index;
+
+        EntryIterator(Node<K, V> root) {
+            if (root != null)
+                stack.push(root);
+            advance();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            leaf = null;
+            while (!stack.isEmpty()) {
+                Node<K, V> node = (Node<K, V>) stack.pop();
+                if (node instanceof Leaf) {
+                    leaf = (Leaf<K, V>) node;
+                    index = 0;
+                    return;
+                }
+                Node<K, V>[] children = ((Branch<K, V>) node).children;
+                for (int i = children.length - 1; i >= 0; i--)
+                    stack.push(children[i]);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return leaf != null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Map.Entry<K, V> next() {
+            if (leaf == null)
+                throw new NoSuchElementException();
+            Map.Entry<K, V> entry = new SimpleImmutableEntry<>((K) leaf.keysAndValues[index],
+                    (V) leaf.keysAndValues[index + 1]);
+            index += 2;
+            if (index == leaf.keysAndValues.length)
+                advance();
+            return entry;
+        }
+    }
+}
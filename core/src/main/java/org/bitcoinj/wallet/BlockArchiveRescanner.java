@@ -0,0 +1,477 @@
+/*
+ * Copyright 2019 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.wallet;
+
+import org.bitcoinj.core.AbstractBlockChain;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.ProtocolException;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
+import org.bitcoinj.utils.BlockFileLoader;
+import org.bitcoinj.utils.ContextPropagatingThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>Rescans a wallet from block files in the Dash Core format, such as those read by {@link BlockFileLoader}, instead
+ * of downloading filtered blocks from peers again.</p>
+ *
+ * <p>The files are memory mapped and scanned in parallel. The scanner walks the serialized transactions in place and
+ * compares output scripts against the set of scripts that pay to the wallet, and spent outpoints against the set of
+ * outpoints the wallet owns. Only transactions that match are copied out and deserialized. Blocks in the files are in
+ * arrival order, not chain order, so the scan is done in rounds. Outputs found in one round are looked for as spends
+ * in the next one. Keys used by matching transactions extend the lookahead zone, which adds new scripts. The rounds
+ * end when nothing new is found. The matching transactions are then passed to
+ * {@link Wallet#receiveFromBlock(Transaction, StoredBlock, AbstractBlockChain.NewBlockType, int)} in chain order.</p>
+ *
+ * <p>Heights come from a {@link BlockStore} that has the headers of the best chain, such as the store of the wallet's
+ * SPV chain. Such a store only keeps recent headers, so the best chain is extended back from the oldest header in the
+ * store with the headers of the archived blocks it links to. If the chain found this way reaches neither the genesis
+ * block nor the wallet's earliest key time, the rescan fails rather than silently missing older transactions. Blocks
+ * that are not on the best chain are skipped, as are blocks at or below the wallet's last seen height, so the wallet
+ * should be new or {@link Wallet#reset()}. The archive should reach the chain head; otherwise the wallet is left at the
+ * last archived block.</p>
+ */
+public class BlockArchiveRescanner {
+    private static final Logger log = LoggerFactory.getLogger(BlockArchiveRescanner.class);
+
+    private static final int OUTPOINT_LENGTH = 36;
+    private static final long CUCKOO_VERSION = 1610612736L;
+    private static final int CUCKOO_SOLUTION_LENGTH = NetworkParameters.CUCKOO_PROOF_SIZE * 4;
+
+    private final Wallet wallet;
+    private final NetworkParameters params;
+    private final BlockStore blockStore;
+    private final List<File> files;
+    private final int threads;
+
+    /** A block record in a mapped file, with the hash of its header. */
+    private static class ArchivedBlock {
+        final ByteBuffer buffer;
+        final Sha256Hash hash;
+
+        ArchivedBlock(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.hash = getBlockHash(buffer);
+        }
+    }
+
+    /** A transaction found in a block of the best chain. */
+    private static class Match {
+        final StoredBlock block;
+        final int index;
+        final Transaction tx;
+
+        Match(StoredBlock block, int index, Transaction tx) {
+            this.block = block;
+            this.index = index;
+            this.tx = tx;
+        }
+    }
+
+    public BlockArchiveRescanner(Wallet wallet, BlockStore blockStore, List<File> files) {
+        this(wallet, blockStore, files, Runtime.getRuntime().availableProcessors());
+    }
+
+    public BlockArchiveRescanner(Wallet wallet, BlockStore blockStore, List<File> files, int threads) {
+        checkArgument(threads > 0, "threads must be positive");
+        this.wallet = wallet;
+        this.params = wallet.getParams();
+        this.blockStore = blockStore;
+        this.files = files;
+        this.threads = threads;
+    }
+
+    /**
+     * Scans the block files and passes the wallet's transactions to it.
+     * @return the number of transactions received by the wallet
+     */
+    public int rescan() throws IOException, BlockStoreException, InterruptedException {
+        long start = System.currentTimeMillis();
+        List<ArchivedBlock> blocks = new ArrayList<>();
+        for (File file : files)
+            readBlocks(file, blocks);
+        Map<Sha256Hash, StoredBlock> bestChain = getBestChain(blocks);
+        log.info("Mapped {} blocks from {} files, {} blocks on the best chain", blocks.size(), files.size(),
+                bestChain.size());
+
+        Map<Sha256Hash, Match> matches = new HashMap<>();
+        Set<ByteBuffer> knownScripts = new HashSet<>();
+        Set<ByteBuffer> knownOutPoints = new HashSet<>();
+        Set<ByteBuffer> newScripts = newItems(knownScripts, wallet.getRescanScriptPubKeys());
+        Set<ByteBuffer> newOutPoints = newItems(knownOutPoints, getWalletOutPoints());
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new ContextPropagatingThreadFactory("archive-rescan"));
+        try {
+            int round = 0;
+            while (!newScripts.isEmpty() || !newOutPoints.isEmpty()) {
+                round++;
+                List<Match> found = scan(executor, blocks, bestChain, newScripts, newOutPoints);
+                List<Transaction> newMatches = new ArrayList<>();
+                for (Match match : found) {
+                    if (matches.containsKey(match.tx.getTxId()))
+                        continue;
+                    matches.put(match.tx.getTxId(), match);
+                    newMatches.add(match.tx);
+                    wallet.markKeysAsUsed(match.tx);
+                }
+                log.info("Rescan round {}: {} scripts and {} outpoints matched {} new transactions", round,
+                        newScripts.size(), newOutPoints.size(), newMatches.size());
+                newScripts = newItems(knownScripts, wallet.getRescanScriptPubKeys());
+                // Only our own outputs can be spent by transactions that are relevant to the wallet.
+                List<byte[]> outPoints = new ArrayList<>();
+                for (Transaction tx : newMatches) {
+                    for (TransactionOutput output : tx.getOutputs()) {
+                        if (knownScripts.contains(ByteBuffer.wrap(output.getScriptBytes())))
+                            outPoints.add(output.getOutPointFor().unsafeBitcoinSerialize());
+                    }
+                }
+                newOutPoints = newItems(knownOutPoints, outPoints);
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+
+        int received = deliver(new ArrayList<>(matches.values()), blocks, bestChain);
+        log.info("Rescan of {} blocks delivered {} transactions in {} ms", blocks.size(), received,
+                System.currentTimeMillis() - start);
+        return received;
+    }
+
+    /** Adds the items that are not known yet to the known set and returns them. */
+    private static Set<ByteBuffer> newItems(Set<ByteBuffer> known, List<byte[]> items) {
+        Set<ByteBuffer> result = new HashSet<>();
+        for (byte[] item : items) {
+            ByteBuffer buffer = ByteBuffer.wrap(item);
+            if (known.add(buffer))
+                result.add(buffer);
+        }
+        return result;
+    }
+
+    private List<byte[]> getWalletOutPoints() {
+        List<byte[]> outPoints = new ArrayList<>();
+        for (Transaction tx : wallet.getTransactions(true)) {
+            for (TransactionOutput output : tx.getOutputs()) {
+                if (output.isMineOrWatched(wallet))
+                    outPoints.add(output.getOutPointFor().unsafeBitcoinSerialize());
+            }
+        }
+        return outPoints;
+    }
+
+    /**
+     * Walks back from the chain head through the store, and then through the archived blocks the oldest stored block
+     * links to, to find the blocks of the best chain.
+     */
+    private Map<Sha256Hash, StoredBlock> getBestChain(List<ArchivedBlock> blocks) throws BlockStoreException {
+        Map<Sha256Hash, StoredBlock> bestChain = new HashMap<>();
+        StoredBlock oldest = null;
+        StoredBlock block = blockStore.getChainHead();
+        while (block != null) {
+            bestChain.put(block.getHeader().getHash(), block);
+            oldest = block;
+            block = block.getPrev(blockStore);
+        }
+        if (oldest == null)
+            throw new BlockStoreException("The block store has no chain head");
+
+        if (oldest.getHeight() > 0) {
+            Map<Sha256Hash, ArchivedBlock> archived = new HashMap<>();
+            for (ArchivedBlock archivedBlock : blocks)
+                archived.put(archivedBlock.hash, archivedBlock);
+            ArchivedBlock prev = archived.get(oldest.getHeader().getPrevBlockHash());
+            while (prev != null && oldest.getHeight() > 0) {
+                // Each header commits to the hash of the one before it, so the headers are as good as the store's.
+                Block header = params.getDefaultSerializer().makeBlock(getHeaderBytes(prev.buffer));
+                oldest = new StoredBlock(header, oldest.getChainWork().subtract(oldest.getHeader().getWork()),
+                        oldest.getHeight() - 1);
+                bestChain.put(prev.hash, oldest);
+                prev = archived.get(header.getPrevBlockHash());
+            }
+        }
+
+        long earliestKeyTime = wallet.getEarliestKeyCreationTime();
+        if (oldest.getHeight() > 0 && oldest.getHeader().getTimeSeconds() > earliestKeyTime)
+            throw new BlockStoreException("The best chain only reaches back to block " + oldest.getHeight() + " at "
+                    + Utils.dateTimeFormat(oldest.getHeader().getTimeSeconds() * 1000) + " in the store and the archive,"
+                    + " after the wallet's earliest key time " + Utils.dateTimeFormat(earliestKeyTime * 1000));
+        return bestChain;
+    }
+
+    /** Maps the file and adds a buffer for every block record in it. */
+    private void readBlocks(File file, List<ArchivedBlock> blocks) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            checkArgument(channel.size() <= Integer.MAX_VALUE, "Block file too large to map: %s", file);
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        long magic = params.getPacketMagic();
+        int limit = mapped.limit();
+        int pos = 0;
+        while (pos + 8 <= limit) {
+            // The magic is written big endian, the length that follows it little endian.
+            if ((mapped.get(pos) & 0xff) != ((magic >>> 24) & 0xff) || (mapped.get(pos + 1) & 0xff) != ((magic >>> 16) & 0xff)
+                    || (mapped.get(pos + 2) & 0xff) != ((magic >>> 8) & 0xff) || (mapped.get(pos + 3) & 0xff) != (magic & 0xff)) {
+                pos++;
+                continue;
+            }
+            long size = Integer.reverseBytes(mapped.getInt(pos + 4)) & 0xffffffffL;
+            pos += 8;
+            // Skip garbage the same way BlockFileLoader does.
+            if (size <= 0 || size > Block.MAX_BLOCK_SIZE_DIP0001 * 2 || pos + size > limit)
+                continue;
+            ByteBuffer block = mapped.duplicate();
+            block.position(pos);
+            block.limit(pos + (int) size);
+            blocks.add(new ArchivedBlock(block.slice().order(ByteOrder.LITTLE_ENDIAN)));
+            pos += (int) size;
+        }
+    }
+
+    private List<Match> scan(ExecutorService executor, List<ArchivedBlock> blocks,
+                             final Map<Sha256Hash, StoredBlock> bestChain,
+                             final Set<ByteBuffer> scripts, final Set<ByteBuffer> outPoints)
+            throws InterruptedException, ExecutionException {
+        List<Future<List<Match>>> futures = new ArrayList<>();
+        int chunk = Math.max(1, blocks.size() / (threads * 4));
+        for (int i = 0; i < blocks.size(); i += chunk) {
+            final List<ArchivedBlock> part = blocks.subList(i, Math.min(blocks.size(), i + chunk));
+            futures.add(executor.submit(new Callable<List<Match>>() {
+                @Override
+                public List<Match> call() {
+                    List<Match> matches = new ArrayList<>();
+                    for (ArchivedBlock block : part) {
+                        StoredBlock stored = bestChain.get(block.hash);
+                        if (stored == null)
+                            continue;
+                        try {
+                            scanBlock(block.buffer, stored, scripts, outPoints, matches);
+                        } catch (ProtocolException e) {
+                            log.warn("Skipping unreadable block {}: {}", stored.getHeader().getHash(), e.getMessage());
+                        }
+                    }
+                    return matches;
+                }
+            }));
+        }
+        List<Match> matches = new ArrayList<>();
+        for (Future<List<Match>> future : futures)
+            matches.addAll(future.get());
+        return matches;
+    }
+
+    private static boolean isCuckooBlock(ByteBuffer block) {
+        return (block.getInt(0) & 0xffffffffL) >= CUCKOO_VERSION;
+    }
+
+    /** Copies the header, including the cuckoo solution if there is one. */
+    private static byte[] getHeaderBytes(ByteBuffer block) {
+        byte[] header = new byte[Block.HEADER_SIZE + (isCuckooBlock(block) ? CUCKOO_SOLUTION_LENGTH : 0)];
+        ByteBuffer source = block.duplicate();
+        source.position(0);
+        source.get(header);
+        return header;
+    }
+
+    /** Computes the block hash the same way {@link Block#getHash()} does, without parsing the block. */
+    private static Sha256Hash getBlockHash(ByteBuffer block) {
+        ByteBuffer hashed = block.duplicate();
+        if (isCuckooBlock(block)) {
+            hashed.position(Block.HEADER_SIZE);
+            hashed.limit(Block.HEADER_SIZE + CUCKOO_SOLUTION_LENGTH);
+        } else {
+            hashed.position(0);
+            hashed.limit(Block.HEADER_SIZE);
+        }
+        MessageDigest digest = Sha256Hash.newDigest();
+        digest.update(hashed);
+        return Sha256Hash.wrapReversed(digest.digest(digest.digest()));
+    }
+
+    /** Finds the transactions of the block that pay to one of the scripts or spend one of the outpoints. */
+    private void scanBlock(ByteBuffer block, StoredBlock stored, Set<ByteBuffer> scripts, Set<ByteBuffer> outPoints,
+                           List<Match> matches) {
+        Cursor cursor = new Cursor(block,
+                Block.HEADER_SIZE + (isCuckooBlock(block) ? CUCKOO_SOLUTION_LENGTH : 0));
+        long numTransactions = cursor.readVarInt();
+        for (int i = 0; i < numTransactions; i++) {
+            int start = cursor.pos;
+            long version = cursor.readUint32();
+            boolean found = false;
+            long numInputs = cursor.readVarInt();
+            for (long j = 0; j < numInputs; j++) {
+                ByteBuffer outPoint = cursor.slice(OUTPOINT_LENGTH);
+                found |= !outPoints.isEmpty() && outPoints.contains(outPoint);
+                cursor.skip(cursor.readVarInt());
+                cursor.skip(4);
+            }
+            long numOutputs = cursor.readVarInt();
+            for (long j = 0; j < numOutputs; j++) {
+                cursor.skip(8);
+                ByteBuffer script = cursor.slice(cursor.readVarInt());
+                found |= !scripts.isEmpty() && scripts.contains(script);
+            }
+            cursor.skip(4);
+            // Special transactions carry an extra payload, see Transaction.parse().
+            if ((version & 0xffff) >= Transaction.SPECIAL_VERSION && (version >>> 16) != 0)
+                cursor.skip(cursor.readVarInt());
+            if (found) {
+                byte[] bytes = new byte[cursor.pos - start];
+                ByteBuffer txBuffer = block.duplicate();
+                txBuffer.position(start);
+                txBuffer.get(bytes);
+                matches.add(new Match(stored, i, params.getDefaultSerializer().makeTransaction(bytes)));
+            }
+        }
+    }
+
+    /** Passes the matches to the wallet in chain order and brings it to the last archived block. */
+    private int deliver(List<Match> matches, List<ArchivedBlock> blocks, Map<Sha256Hash, StoredBlock> bestChain) {
+        Collections.sort(matches, new Comparator<Match>() {
+            @Override
+            public int compare(Match a, Match b) {
+                int byHeight = Integer.compare(a.block.getHeight(), b.block.getHeight());
+                return byHeight != 0 ? byHeight : Integer.compare(a.index, b.index);
+            }
+        });
+        StoredBlock last = null;
+        for (ArchivedBlock block : blocks) {
+            StoredBlock stored = bestChain.get(block.hash);
+            if (stored != null && (last == null || stored.getHeight() > last.getHeight()))
+                last = stored;
+        }
+
+        int lastSeenHeight = wallet.getLastBlockSeenHeight();
+        int received = 0;
+        StoredBlock current = null;
+        for (Match match : matches) {
+            if (match.block.getHeight() <= lastSeenHeight)
+                continue;
+            if (current != null && !current.equals(match.block))
+                wallet.notifyNewBestBlock(current);
+            current = match.block;
+            if (wallet.isTransactionRelevant(match.tx)) {
+                wallet.receiveFromBlock(match.tx, match.block, AbstractBlockChain.NewBlockType.BEST_CHAIN, match.index);
+                received++;
+            }
+        }
+        if (current != null)
+            wallet.notifyNewBestBlock(current);
+        if (last != null && last.getHeight() > lastSeenHeight) {
+            wallet.notifyNewBestBlock(last);
+            // Depths were only incremented for the blocks that had transactions, so set them from the heights.
+            for (Transaction tx : wallet.getTransactions(false)) {
+                TransactionConfidence confidence = tx.getConfidence();
+                if (confidence.getConfidenceType() == TransactionConfidence.ConfidenceType.BUILDING)
+                    confidence.setDepthInBlocks(last.getHeight() - confidence.getAppearedAtChainHeight() + 1);
+            }
+        }
+        return received;
+    }
+
+    /** Reads the Bitcoin wire encoding in place from a little endian buffer. */
+    private static class Cursor {
+        private final ByteBuffer buffer;
+        int pos;
+
+        Cursor(ByteBuffer buffer, int pos) {
+            this.buffer = buffer;
+            this.pos = pos;
+        }
+
+        private void check(long length) {
+            if (length < 0 || pos + length > buffer.limit())
+                throw new ProtocolException("Block is truncated at " + pos);
+        }
+
+        long readUint32() {
+            check(4);
+            long value = buffer.getInt(pos) & 0xffffffffL;
+            pos += 4;
+            return value;
+        }
+
+        long readVarInt() {
+            check(1);
+            int first = buffer.get(pos) & 0xff;
+            pos++;
+            if (first < 253)
+                return first;
+            if (first == 253) {
+                check(2);
+                long value = buffer.getShort(pos) & 0xffff;
+                pos += 2;
+                return value;
+            }
+            if (first == 254)
+                return readUint32();
+            check(8);
+            long value = buffer.getLong(pos);
+            pos += 8;
+            return value;
+        }
+
+        void skip(long length) {
+            check(length);
+            pos += (int) length;
+        }
+
+        /** Returns a view of the next bytes, whose equals() and hashCode() only look at those bytes. */
+        ByteBuffer slice(long length) {
+            check(length);
+            ByteBuffer slice = buffer.duplicate();
+            slice.position(pos);
+            slice.limit(pos + (int) length);
+            pos += (int) length;
+            return slice;
+        }
+    }
+}
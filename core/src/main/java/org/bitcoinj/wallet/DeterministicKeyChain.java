@@ -1248,6 +1248,20 @@ public class DeterministicKeyChain implements EncryptableKeyChain {
 
     }
 
+    /**
+     * Returns the keys that {@link #getFilter(int, double, long)} inserts into a Bloom filter, including the lookahead
+     * zone, so that they can be matched against other kinds of filters.
+     */
+    public List<ECKey> getFilterKeys() {
+        lock.lock();
+        try {
+            maybeLookAhead();
+            return basicKeyChain.getKeys();
+        } finally {
+            lock.unlock();
+        }
+    }
+
     /**
      * <p>The number of public keys we should pre-generate on each path before they are requested by the app. This is
      * required so that when scanning through the chain given only a seed, we can give enough keys to the remote node
@@ -1358,16 +1372,11 @@ public class DeterministicKeyChain implements EncryptableKeyChain {
         log.info("{} keys needed for {} = {} issued + {} lookahead size + {} lookahead threshold - {} num children",
                 needed, parent.getPathAsString(), issued, lookaheadSize, lookaheadThreshold, numChildren);
 
-        List<DeterministicKey> result  = new ArrayList<>(needed);
         final Stopwatch watch = Stopwatch.createStarted();
-        int nextChild = numChildren;
-        for (int i = 0; i < needed; i++) {
-            DeterministicKey key = HDKeyDerivation.deriveThisOrNextChildKey(parent, nextChild);
-            key = key.dropPrivateBytes();
+        // Lookahead keys are stored without private bytes, so they are derived from the public parent, in parallel.
+        List<DeterministicKey> result = HDKeyDerivation.deriveLookaheadKeys(parent, numChildren, needed);
+        for (DeterministicKey key : result)
             hierarchy.putKey(key);
-            result.add(key);
-            nextChild = key.getChildNumber().num() + 1;
-        }
         watch.stop();
         log.info("Took {}", watch);
         return result;
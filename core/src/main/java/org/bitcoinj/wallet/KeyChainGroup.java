@@ -767,6 +767,15 @@ public class KeyChainGroup implements KeyBag {
         return filter;
     }
 
+    /** Returns all keys that {@link #getBloomFilter(int, double, long)} inserts, including lookahead keys. */
+    public List<ECKey> getBloomFilterKeys() {
+        List<ECKey> keys = new ArrayList<>(basic.getKeys());
+        if (chains != null)
+            for (DeterministicKeyChain chain : chains)
+                keys.addAll(chain.getFilterKeys());
+        return keys;
+    }
+
     public boolean isRequiringUpdateAllBloomFilter() {
         throw new UnsupportedOperationException();   // Unused.
     }
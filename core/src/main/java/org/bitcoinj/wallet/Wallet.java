@@ -31,6 +31,7 @@ import org.bitcoinj.core.AbstractBlockChain;
 import org.bitcoinj.core.BlockChain;
 import org.bitcoinj.core.BloomFilter;
 import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.CompactBlockFilter;
 import org.bitcoinj.core.Context;
 import org.bitcoinj.core.ECKey;
 import org.bitcoinj.core.FilteredBlock;
@@ -1310,7 +1311,7 @@ public class Wallet extends BaseTaggableObject
      * Marks all keys used in the transaction output as used in the wallet.
      * See {@link DeterministicKeyChain#markKeyAsUsed(DeterministicKey)} for more info on this.
      */
-    private void markKeysAsUsed(Transaction tx) {
+    void markKeysAsUsed(Transaction tx) {
         keyChainGroupLock.lock();
         try {
             for (TransactionOutput o : tx.getOutputs()) {
@@ -5081,6 +5082,20 @@ public class Wallet extends BaseTaggableObject
         }
     }
 
+    /**
+     * Returns true if new keys reported by the key chain event listeners appear in this wallet's Bloom filter exactly
+     * as {@link BloomFilter#insert(IKey)} would put them there. This is not the case for married key chains, which
+     * insert P2SH redeem data instead, so the filter must then be recalculated when keys are added.
+     */
+    public boolean isBloomFilterInsertingKeys() {
+        keyChainGroupLock.lock();
+        try {
+            return !keyChainGroup.isMarried();
+        } finally {
+            keyChainGroupLock.unlock();
+        }
+    }
+
     /**
      * Gets a bloom filter that contains all of the public keys from this wallet, and which will provide the given
      * false-positive rate. See the docs for {@link BloomFilter} for a brief explanation of anonymity when using filters.
@@ -5156,6 +5171,66 @@ public class Wallet extends BaseTaggableObject
         }
     }
 
+    /**
+     * <p>Returns the data items that {@link #getBloomFilter(int, double, long)} inserts into a Bloom filter, so that
+     * they can be matched locally against {@link CompactBlockFilter}s instead of being handed to a peer.</p>
+     *
+     * <p>Keys held by key chain extensions and by friend key chain groups are not included. Married wallets are not
+     * supported, as their filters contain P2SH redeem data rather than keys.</p>
+     */
+    public List<byte[]> getBlockFilterElements() {
+        beginBloomFilterCalculation();
+        try {
+            checkState(!keyChainGroup.isMarried(), "Married wallets cannot be matched against block filters");
+            List<byte[]> elements = new ArrayList<>();
+            for (ECKey key : keyChainGroup.getBloomFilterKeys()) {
+                elements.add(key.getPubKey());
+                elements.add(key.getPubKeyHash());
+            }
+            for (Script script : watchedScripts)
+                addBlockFilterElements(elements, script);
+            for (TransactionOutPoint point : bloomOutPoints)
+                elements.add(point.unsafeBitcoinSerialize());
+            for (TransactionOutPoint point : bloomSpecialTxOutpoints)
+                elements.add(point.unsafeBitcoinSerialize());
+            for (Sha256Hash hash : bloomSpecialTxHashes)
+                elements.add(hash.getReversedBytes());
+            for (Script script : bloomSpecialTxScripts)
+                addBlockFilterElements(elements, script);
+            return elements;
+        } finally {
+            endBloomFilterCalculation();
+        }
+    }
+
+    /**
+     * Returns the serialized output scripts that pay to this wallet: P2PK and P2PKH scripts for every key, including
+     * the lookahead zone, and the watched scripts. Used by {@link BlockArchiveRescanner}.
+     */
+    List<byte[]> getRescanScriptPubKeys() {
+        keyChainGroupLock.lock();
+        try {
+            checkState(!keyChainGroup.isMarried(), "Married wallets cannot be rescanned from a block archive");
+            List<byte[]> scripts = new ArrayList<>();
+            for (ECKey key : keyChainGroup.getBloomFilterKeys()) {
+                scripts.add(ScriptBuilder.createP2PKOutputScript(key).getProgram());
+                scripts.add(ScriptBuilder.createP2PKHOutputScript(key).getProgram());
+            }
+            for (Script script : watchedScripts)
+                scripts.add(script.getProgram());
+            return scripts;
+        } finally {
+            keyChainGroupLock.unlock();
+        }
+    }
+
+    private static void addBlockFilterElements(List<byte[]> elements, Script script) {
+        for (ScriptChunk chunk : script.getChunks()) {
+            if (!chunk.isOpCode() && chunk.data.length >= MINIMUM_BLOOM_DATA_LENGTH)
+                elements.add(chunk.data);
+        }
+    }
+
     // Returns true if the output is one that won't be selected by a data element matching in the scriptSig.
     private boolean isTxOutputBloomFilterable(TransactionOutput out) {
         Script script = out.getScriptPubKey();
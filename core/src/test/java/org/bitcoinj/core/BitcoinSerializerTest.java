@@ -202,6 +202,25 @@ public class BitcoinSerializerTest {
         assertArrayEquals(headersMessageBytes, serializedBytes);
     }
 
+    @Test
+    public void testSerializeToBuffer() throws Exception {
+        MessageSerializer serializer = MAINNET.getDefaultSerializer();
+        Transaction transaction = (Transaction) serializer.deserialize(ByteBuffer.wrap(TRANSACTION_MESSAGE_BYTES));
+
+        ByteBuffer buffer = serializer.serializeToBuffer(transaction, true);
+        assertTrue(buffer.isDirect());
+        assertTrue(buffer.isReadOnly());
+        byte[] bytes = new byte[buffer.remaining()];
+        // Reading through a duplicate leaves the shared buffer untouched.
+        buffer.duplicate().get(bytes);
+        assertArrayEquals(TRANSACTION_MESSAGE_BYTES, bytes);
+        assertEquals(TRANSACTION_MESSAGE_BYTES.length, buffer.remaining());
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        serializer.serialize(transaction, bos);
+        assertEquals(ByteBuffer.wrap(bos.toByteArray()), serializer.serializeToBuffer(transaction, false));
+    }
+
     @Test(expected = BufferUnderflowException.class)
     public void testBitcoinPacketHeaderTooShort() {
         new BitcoinSerializer.BitcoinPacketHeader(ByteBuffer.wrap(new byte[] { 0 }));
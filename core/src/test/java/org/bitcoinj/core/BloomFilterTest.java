@@ -68,6 +68,23 @@ public class BloomFilterTest {
         assertTrue(Arrays.equals(HEX.decode("03ce4299050000000100008002"), filter.unsafeBitcoinSerialize()));
     }
 
+    @Test
+    public void outPointTest() {
+        MainNetParams params = MainNetParams.get();
+        TransactionOutPoint outpoint = new TransactionOutPoint(params, 3,
+                Sha256Hash.wrap("1a2b3c4d5e6f708192a3b4c5d6e7f8091a2b3c4d5e6f708192a3b4c5d6e7f809"));
+        BloomFilter filter = new BloomFilter(10, 0.001, 2147483649L);
+        filter.insert(outpoint);
+        assertTrue(filter.contains(outpoint.unsafeBitcoinSerialize()));
+        assertFalse(filter.contains(new TransactionOutPoint(params, 4, outpoint.getHash())));
+
+        // Inserting the outpoint is the same as inserting its serialized form
+        BloomFilter serialized = new BloomFilter(10, 0.001, 2147483649L);
+        serialized.insert(outpoint.unsafeBitcoinSerialize());
+        assertEquals(serialized, filter);
+        assertTrue(serialized.contains(outpoint));
+    }
+
     @Test
     public void walletTest() throws Exception {
         Context.propagate(new Context(MAINNET));
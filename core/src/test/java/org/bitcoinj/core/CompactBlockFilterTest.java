@@ -0,0 +1,130 @@
+/*
+ * Copyright 2019 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.store.BlockStoreException;
+import org.bitcoinj.store.CompactBlockFilterStore;
+import org.bitcoinj.testing.FakeTxBuilder;
+import org.bitcoinj.wallet.Wallet;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CompactBlockFilterTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+
+    private Wallet wallet;
+    private Block genesis;
+    private long nonce;
+
+    @Before
+    public void setUp() {
+        Context.propagate(new Context(UNITTEST, 100, Coin.ZERO, false));
+        wallet = Wallet.createDeterministic(UNITTEST, Script.ScriptType.P2PKH);
+        genesis = UNITTEST.getGenesisBlock();
+    }
+
+    // The filters don't depend on proof of work, so blocks are built directly rather than mined.
+    private Block createBlock(Block prev, Transaction... transactions) {
+        return new Block(UNITTEST, Block.BLOCK_VERSION_GENESIS, prev.getHash(), Sha256Hash.ZERO_HASH,
+                prev.getTimeSeconds() + 1, prev.getDifficultyTarget(), nonce++, Arrays.asList(transactions));
+    }
+
+    private Transaction createFakeTx(Address to) {
+        return FakeTxBuilder.createFakeTx(UNITTEST, Coin.COIN, to);
+    }
+
+    @Test
+    public void matchesWalletTransactions() {
+        Block toWallet = createBlock(genesis, createFakeTx(wallet.freshReceiveAddress()));
+        Block toOther = createBlock(genesis, createFakeTx(Address.fromKey(UNITTEST, new ECKey())));
+        List<byte[]> elements = wallet.getBlockFilterElements();
+
+        CompactBlockFilter filter = CompactBlockFilter.build(toWallet);
+        assertTrue(filter.matchAny(elements));
+        assertFalse(CompactBlockFilter.build(toOther).matchAny(elements));
+
+        // Spending an output is found through the outpoint.
+        Transaction tx = toWallet.getTransactions().get(0);
+        Transaction spend = new Transaction(UNITTEST);
+        spend.addInput(tx.getOutput(0));
+        spend.addOutput(Coin.COIN, Address.fromKey(UNITTEST, new ECKey()));
+        Block spending = createBlock(toOther, spend);
+        assertTrue(CompactBlockFilter.build(spending).match(tx.getOutput(0).getOutPointFor().unsafeBitcoinSerialize()));
+
+        CompactBlockFilter parsed = new CompactBlockFilter(toWallet.getHash(), filter.getFilterBytes());
+        assertEquals(filter, parsed);
+        assertEquals(filter.getFilterHash(), parsed.getFilterHash());
+    }
+
+    @Test
+    public void filterHeaderChain() throws BlockStoreException {
+        Block block1 = createBlock(genesis, createFakeTx(wallet.freshReceiveAddress()));
+        Block block2 = createBlock(block1, createFakeTx(Address.fromKey(UNITTEST, new ECKey())));
+        CompactBlockFilterStore store = new CompactBlockFilterStore();
+        for (Block block : Arrays.asList(genesis, block1, block2))
+            store.put(block.getPrevBlockHash(), CompactBlockFilter.build(block));
+
+        Sha256Hash genesisHeader = CompactBlockFilter.build(genesis).computeHeader(Sha256Hash.ZERO_HASH);
+        assertEquals(genesisHeader, store.getFilterHeader(genesis.getHash()));
+        Sha256Hash header1 = store.get(block1.getHash()).computeHeader(genesisHeader);
+        assertEquals(header1, store.getFilterHeader(block1.getHash()));
+        assertEquals(store.get(block2.getHash()).computeHeader(header1), store.getFilterHeader(block2.getHash()));
+
+        Block orphan = createBlock(createBlock(block1));
+        try {
+            store.put(orphan.getPrevBlockHash(), CompactBlockFilter.build(orphan));
+            fail();
+        } catch (BlockStoreException e) {
+            // expected
+        }
+        assertNull(store.get(orphan.getHash()));
+    }
+
+    @Test
+    public void storeNeedsRootAndIsBounded() throws BlockStoreException {
+        Block block1 = createBlock(genesis);
+        Block block2 = createBlock(block1);
+        Block block3 = createBlock(block2);
+        CompactBlockFilterStore store = new CompactBlockFilterStore(2);
+
+        // a filter that is not the genesis filter is not taken as the root of the chain
+        try {
+            store.put(block1.getHash(), CompactBlockFilter.build(block2));
+            fail();
+        } catch (BlockStoreException e) {
+            // expected
+        }
+        Sha256Hash header1 = Sha256Hash.of(new byte[] { 1 });
+        store.putHeader(block1.getHash(), header1);
+        Sha256Hash header2 = store.put(block1.getHash(), CompactBlockFilter.build(block2));
+        assertEquals(CompactBlockFilter.build(block2).computeHeader(header1), header2);
+
+        // the oldest entries are dropped once the store is full
+        store.put(block2.getHash(), CompactBlockFilter.build(block3));
+        assertEquals(2, store.size());
+        assertNull(store.getFilterHeader(block1.getHash()));
+        assertEquals(header2, store.getFilterHeader(block2.getHash()));
+        assertNotNull(store.get(block3.getHash()));
+    }
+}
@@ -39,6 +39,9 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.math.ec.FixedPointCombMultiplier;
+import org.bouncycastle.math.ec.custom.sec.SecP256K1Curve;
 
 import java.io.InputStream;
 import java.math.BigInteger;
@@ -285,6 +288,39 @@ public class ECKeyTest {
         assertEquals(recoveredKey, pubKey);
     }
 
+    @Test
+    public void keyRecoveryMatchesBouncyCastle() throws Exception {
+        // Recovers the keys with plain BouncyCastle point arithmetic, Q = mi(r) * (sR - eG), and compares them with
+        // what ECKey derives and recovers, whichever path it takes.
+        BigInteger n = ECKey.CURVE.getN();
+        for (int i = 0; i < 10; i++) {
+            ECKey key = new ECKey();
+            assertEquals(new FixedPointCombMultiplier().multiply(ECKey.CURVE.getG(), key.getPrivKey()).normalize(),
+                    ECKey.publicPointFromPrivate(key.getPrivKey()).normalize());
+            Sha256Hash hash = Sha256Hash.of(("message " + i).getBytes());
+            ECKey.ECDSASignature sig = key.sign(hash);
+            boolean found = false;
+            for (int recId = 0; recId < 4; recId++) {
+                ECKey recovered = ECKey.recoverFromSignature(recId, sig, hash, true);
+                BigInteger x = sig.r.add(BigInteger.valueOf(recId / 2).multiply(n));
+                if (x.compareTo(SecP256K1Curve.q) >= 0) {
+                    assertNull(recovered);
+                    continue;
+                }
+                byte[] encoded = Utils.bigIntegerToBytes(x, 33);
+                encoded[0] = (byte) ((recId & 1) == 1 ? 0x03 : 0x02);
+                ECPoint r = ECKey.CURVE.getCurve().decodePoint(encoded);
+                ECPoint expected = r.multiply(sig.s).subtract(ECKey.CURVE.getG().multiply(hash.toBigInteger()))
+                        .multiply(sig.r.modInverse(n)).normalize();
+                checkNotNull(recovered);
+                assertEquals(expected, recovered.getPubKeyPoint().normalize());
+                if (Arrays.equals(key.getPubKey(), recovered.getPubKey()))
+                    found = true;
+            }
+            assertTrue(found);
+        }
+    }
+
     @Test
     public void keyRecovery() throws Exception {
         ECKey key = new ECKey();
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2019 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.bitcoinj.core.GolombCodedSet.BASIC_M;
+import static org.bitcoinj.core.GolombCodedSet.BASIC_P;
+import static org.bitcoinj.core.Utils.HEX;
+import static org.junit.Assert.*;
+
+public class GolombCodedSetTest {
+    // Bitcoin testnet3 genesis block, the first BIP 158 test vector
+    private static final Sha256Hash GENESIS_HASH =
+            Sha256Hash.wrap("000000000933ea01ad0ee984209779baaec3ced90fa3f408719526f8d77f4943");
+    private static final byte[] GENESIS_OUTPUT_SCRIPT = HEX.decode("4104678afdb0fe5548271967f1a67130b7105cd6a828e03909" +
+            "a67962e0ea1f61deb649f6bc3f4cef38c4f35504e51ec112de5c384df7ba0b8d578a4c702b6bf11d5fac");
+
+    private static byte[] key(Sha256Hash blockHash) {
+        return Arrays.copyOf(blockHash.getReversedBytes(), 16);
+    }
+
+    @Test
+    public void bip158GenesisVector() {
+        GolombCodedSet set = GolombCodedSet.build(BASIC_P, BASIC_M, key(GENESIS_HASH),
+                Collections.singletonList(GENESIS_OUTPUT_SCRIPT));
+        assertArrayEquals(HEX.decode("019dfca8"), set.getEncoded());
+        assertEquals(1, set.getN());
+        assertTrue(set.match(GENESIS_OUTPUT_SCRIPT));
+    }
+
+    @Test
+    public void roundTripAndMatch() {
+        Random random = new Random(42);
+        List<byte[]> elements = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            byte[] element = new byte[20];
+            random.nextBytes(element);
+            elements.add(element);
+        }
+        elements.add(elements.get(0).clone());
+        GolombCodedSet set = GolombCodedSet.build(BASIC_P, BASIC_M, key(GENESIS_HASH), elements);
+        assertEquals(1000, set.getN());
+        GolombCodedSet parsed = new GolombCodedSet(BASIC_P, BASIC_M, key(GENESIS_HASH), set.getEncoded());
+        assertEquals(set, parsed);
+        for (byte[] element : elements)
+            assertTrue(parsed.match(element));
+
+        byte[] other = new byte[20];
+        assertFalse(parsed.match(other));
+        assertFalse(parsed.matchAny(Arrays.asList(other, new byte[33])));
+        assertTrue(parsed.matchAny(Arrays.asList(other, elements.get(500), new byte[33])));
+        // A different key gives a different set.
+        assertFalse(Arrays.equals(set.getEncoded(),
+                GolombCodedSet.build(BASIC_P, BASIC_M, new byte[16], elements).getEncoded()));
+    }
+
+    @Test
+    public void emptySet() {
+        GolombCodedSet set = GolombCodedSet.build(BASIC_P, BASIC_M, key(GENESIS_HASH), Collections.<byte[]>emptyList());
+        assertArrayEquals(new byte[] { 0 }, set.getEncoded());
+        assertFalse(set.match(GENESIS_OUTPUT_SCRIPT));
+        assertFalse(set.matchAny(Collections.singletonList(GENESIS_OUTPUT_SCRIPT)));
+    }
+
+    @Test
+    public void multiplyHighUnsigned() {
+        Random random = new Random(7);
+        BigInteger mask = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+        for (int i = 0; i < 1000; i++) {
+            long x = random.nextLong(), y = random.nextLong();
+            BigInteger expected = BigInteger.valueOf(x).and(mask).multiply(BigInteger.valueOf(y).and(mask)).shiftRight(64);
+            assertEquals(expected.longValue(), GolombCodedSet.multiplyHighUnsigned(x, y));
+        }
+    }
+}
@@ -45,4 +45,35 @@ public class MessageSignerTest {
         assertTrue(MessageSigner.verifyMessage(publicKey, vchSig, message, errorMessage));
         assertFalse(MessageSigner.verifyMessage(publicKey, vchSig, "140.59.254.15:999915239445811bd94fd9f0b98eb669fa2c1dc1bda3da99f4c69ed40ce1ccc666e3be757d966d927e90173f970a0c70208", errorMessage));
     }
+
+    @Test
+    public void verifyRepeatedSignaturesTest()
+    {
+        ECKey key = new ECKey();
+        ECKey otherKey = new ECKey();
+        Sha256Hash hash = Sha256Hash.of(new byte[] {1});
+        Sha256Hash otherHash = Sha256Hash.of(new byte[] {2});
+        MasternodeSignature sig = HashSigner.signHash(hash, key);
+        MasternodeSignature otherSig = HashSigner.signHash(otherHash, key);
+        StringBuilder errorMessage = new StringBuilder();
+
+        // the first check recovers the key, later ones use the known key or remembered results
+        assertTrue(HashSigner.verifyHash(hash, key.getPubKeyHash(), sig, errorMessage));
+        assertTrue(HashSigner.verifyHash(hash, key.getPubKeyHash(), sig, errorMessage));
+        assertTrue(HashSigner.verifyHash(otherHash, key.getPubKeyHash(), otherSig, errorMessage));
+        assertFalse(HashSigner.verifyHash(otherHash, key.getPubKeyHash(), sig, errorMessage));
+        assertFalse(HashSigner.verifyHash(hash, otherKey.getPubKeyHash(), sig, errorMessage));
+
+        // a signature with a different recovery id recovers another key, so it must fail with the known key as well
+        for (int recId = 0; recId < 4; recId++) {
+            byte[] bytes = otherSig.getBytes().clone();
+            int header = bytes[0] & 0xFF;
+            int compressed = header >= 31 ? 4 : 0;
+            if (((header - 27) & 3) == recId)
+                continue;
+            bytes[0] = (byte) (27 + compressed + recId);
+            assertFalse(HashSigner.verifyHash(otherHash, key.getPubKeyHash(), new MasternodeSignature(bytes), errorMessage));
+        }
+        assertTrue(HashSigner.verifyHash(otherHash, key.getPubKeyHash(), otherSig, errorMessage));
+    }
 }
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2019 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.bitcoinj.net.MessageWriteTarget;
+import org.bitcoinj.params.UnitTestParams;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class PeerSocketHandlerTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+
+    private final List<Long> processed = new ArrayList<>();
+    private final List<Boolean> pauses = new ArrayList<>();
+    private final List<byte[]> written = new ArrayList<>();
+    // Runs tasks only when asked to, so the test controls when messages get processed.
+    private final LinkedList<Runnable> tasks = new LinkedList<>();
+    private PeerSocketHandler handler;
+
+    @Before
+    public void setUp() {
+        Context.propagate(new Context(UNITTEST));
+        handler = new PeerSocketHandler(UNITTEST, new InetSocketAddress(InetAddress.getLoopbackAddress(), 9999)) {
+            @Override
+            protected void processMessage(Message m) {
+                processed.add(((Ping) m).getNonce());
+            }
+
+            @Override
+            public void connectionClosed() {
+            }
+
+            @Override
+            public void connectionOpened() {
+            }
+        };
+        handler.setWriteTarget(new MessageWriteTarget() {
+            @Override
+            public ListenableFuture writeBytes(byte[] message) {
+                written.add(message);
+                return Futures.immediateFuture(null);
+            }
+
+            @Override
+            public void setReadingPaused(boolean paused) {
+                pauses.add(paused);
+            }
+
+            @Override
+            public void closeConnection() {
+                fail();
+            }
+        });
+    }
+
+    private void receivePings(long first, long last) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (long nonce = first; nonce <= last; nonce++)
+            UNITTEST.getDefaultSerializer().serialize(new Ping(nonce), out);
+        ByteBuffer buff = ByteBuffer.allocate(out.size());
+        buff.put(out.toByteArray()).flip();
+        assertEquals(out.size(), handler.receiveBytes(buff));
+    }
+
+    private void runTasks() {
+        while (!tasks.isEmpty())
+            tasks.poll().run();
+    }
+
+    @Test
+    public void sendsSerializedBuffers() throws Exception {
+        Ping ping = new Ping(42);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        UNITTEST.getDefaultSerializer().serialize(ping, expected);
+
+        // one buffer is sent to several peers, so sending it must not consume it
+        for (boolean direct : new boolean[] { false, true }) {
+            ByteBuffer buffer = UNITTEST.getDefaultSerializer().serializeToBuffer(ping, direct);
+            handler.sendMessage(buffer);
+            handler.sendMessage(buffer);
+            assertEquals(0, buffer.position());
+            assertEquals(expected.size(), buffer.remaining());
+        }
+        handler.sendMessage(ping);
+        assertEquals(5, written.size());
+        for (byte[] bytes : written)
+            assertArrayEquals(expected.toByteArray(), bytes);
+    }
+
+    @Test
+    public void processesInlineByDefault() throws Exception {
+        receivePings(1, 3);
+        assertEquals(3, processed.size());
+        assertTrue(pauses.isEmpty());
+    }
+
+    @Test
+    public void offloadsInOrderAndPausesReads() throws Exception {
+        handler.setMessageExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        }, 4);
+
+        receivePings(1, 3);
+        assertTrue(processed.isEmpty());
+        assertEquals(3, handler.getQueuedMessageCount());
+        assertTrue(pauses.isEmpty());
+
+        receivePings(4, 6);
+        assertEquals(6, handler.getQueuedMessageCount());
+        assertEquals(1, pauses.size());
+        assertTrue(pauses.get(0));
+
+        runTasks();
+        assertEquals(0, handler.getQueuedMessageCount());
+        assertEquals(2, pauses.size());
+        assertFalse(pauses.get(1));
+        List<Long> expected = new ArrayList<>();
+        for (long nonce = 1; nonce <= 6; nonce++)
+            expected.add(nonce);
+        assertEquals(expected, processed);
+    }
+}
@@ -432,6 +432,39 @@ public class TransactionTest {
         }
     }
 
+    @Test
+    public void testHashForSignatureAfterModification() {
+        final Transaction tx = new Transaction(UNITTEST);
+        tx.addInput(new TransactionInput(UNITTEST, tx, new byte[0],
+                new TransactionOutPoint(UNITTEST, 0, Sha256Hash.ZERO_HASH)));
+        tx.addOutput(Coin.COIN, Address.fromKey(UNITTEST, new ECKey()));
+        final Sha256Hash before = tx.hashForSignature(0, new byte[0], Transaction.SigHash.ALL.byteValue());
+
+        // the signature hash must reflect outputs added after a previous call
+        tx.addOutput(Coin.COIN, Address.fromKey(UNITTEST, new ECKey()));
+        final Sha256Hash after = tx.hashForSignature(0, new byte[0], Transaction.SigHash.ALL.byteValue());
+        assertNotEquals(before, after);
+
+        final Transaction copy = UNITTEST.getDefaultSerializer().makeTransaction(tx.bitcoinSerialize());
+        assertEquals(after, copy.hashForSignature(0, new byte[0], Transaction.SigHash.ALL.byteValue()));
+
+        // and outputs reordered in place after a previous call
+        tx.addOutput(Coin.CENT, Address.fromKey(UNITTEST, new ECKey()));
+        tx.hashForSignature(0, new byte[0], Transaction.SigHash.ALL.byteValue());
+        tx.sortOutputs();
+        assertReordered(tx);
+        for (int i = 0; i < 10; i++) {
+            tx.shuffleOutputs();
+            assertReordered(tx);
+        }
+    }
+
+    private void assertReordered(Transaction tx) {
+        final Sha256Hash hash = tx.hashForSignature(0, new byte[0], Transaction.SigHash.ALL.byteValue());
+        final Transaction copy = UNITTEST.getDefaultSerializer().makeTransaction(tx.bitcoinSerialize());
+        assertEquals(hash, copy.hashForSignature(0, new byte[0], Transaction.SigHash.ALL.byteValue()));
+    }
+
     @Test
     public void testVersionNumbers() {
         long type8192 = 536870912;
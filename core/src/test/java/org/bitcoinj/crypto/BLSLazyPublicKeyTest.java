@@ -13,6 +13,8 @@ import java.util.Random;
 
 import static com.google.common.base.Preconditions.checkState;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 
 public class BLSLazyPublicKeyTest {
 
@@ -58,4 +60,38 @@ public class BLSLazyPublicKeyTest {
         checkState(lazyPublicKeyFromBytes.isPublicKeyInitialized()); // the BLS object should be initialized
         assertEquals(initializedPublicKey.toString(), lazyPublicKeyFromObject.toString());
     }
+
+    @Test
+    public void testSharedPublicKeys() {
+        byte [] seed = getRandomSeed(32);
+        PrivateKey sk = PrivateKey.fromSeedBIP32(seed);
+        byte [] publicKeyBytes = sk.getG1Element().serialize(false);
+
+        // lazy keys with the same bytes are decoded once
+        BLSPublicKeyCache cache = BLSLazyPublicKey.getPublicKeyCache();
+        long misses = cache.getMisses();
+        BLSLazyPublicKey first = new BLSLazyPublicKey(PARAMS, publicKeyBytes, 0, false);
+        BLSLazyPublicKey second = new BLSLazyPublicKey(PARAMS, publicKeyBytes, 0, false);
+        assertSame(first.getPublicKey(), second.getPublicKey());
+        assertEquals(misses + 1, cache.getMisses());
+
+        // but the same bytes in the legacy scheme are a different key
+        BLSLazyPublicKey legacy = new BLSLazyPublicKey(PARAMS, publicKeyBytes, 0, true);
+        assertNotSame(first.getPublicKey(), legacy.getPublicKey());
+        assertEquals(misses + 2, cache.getMisses());
+
+        // a copy keeps the scheme of the original
+        assertEquals(legacy.toString(), new BLSLazyPublicKey(legacy).toString());
+    }
+
+    @Test
+    public void testCacheIsBounded() {
+        BLSPublicKeyCache cache = new BLSPublicKeyCache(2);
+        for (int i = 0; i < 3; i++) {
+            PrivateKey sk = PrivateKey.fromSeedBIP32(getRandomSeed(32));
+            cache.get(PARAMS, sk.getG1Element().serialize(false), false);
+        }
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+    }
 }
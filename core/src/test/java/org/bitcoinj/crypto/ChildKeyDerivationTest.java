@@ -139,6 +139,32 @@ public class ChildKeyDerivationTest {
         assertArrayEquals(key2.chainCode, key3.chainCode);
     }
 
+    @Test
+    public void lookaheadEqualsSerialDerivation() throws Exception {
+        DeterministicKey key1 = HDKeyDerivation.createMasterPrivateKey("satoshi lives!".getBytes());
+        DeterministicKey parent = HDKeyDerivation.deriveChildKey(key1, ChildNumber.ZERO);
+        java.util.List<DeterministicKey> lookahead = HDKeyDerivation.deriveLookaheadKeys(parent, 5, 40);
+        assertEquals(40, lookahead.size());
+        for (int i = 0; i < lookahead.size(); i++) {
+            DeterministicKey key = lookahead.get(i);
+            assertEquals(parent, key.getParent());
+            assertEquals(HDKeyDerivation.deriveChildKey(parent, 5 + i).dropPrivateBytes(), key);
+        }
+    }
+
+    @Test
+    public void lookaheadStopsBeforeHardenedRange() throws Exception {
+        DeterministicKey parent = HDKeyDerivation.createMasterPrivateKey("satoshi lives!".getBytes());
+        int last = Integer.MAX_VALUE;
+        assertEquals(2, HDKeyDerivation.deriveLookaheadKeys(parent, last - 1, 2).size());
+        try {
+            HDKeyDerivation.deriveLookaheadKeys(parent, last - 1, 3);
+            fail();
+        } catch (IllegalArgumentException x) {
+            // expected
+        }
+    }
+
     @Test
     public void encryptedDerivation() throws Exception {
         // Check that encrypting a parent key in the hierarchy and then deriving from it yields a DeterministicKey
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2021 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.evolution;
+
+import org.bitcoinj.core.Sha256Hash;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+
+import static org.junit.Assert.*;
+
+public class ListCacheTest {
+    // Each list is just its height, and takes 100 bytes
+    private ListCache<Long> cache;
+    private final Set<Long> pinned = new HashSet<>();
+
+    @Before
+    public void setUp() {
+        cache = new ListCache<Long>() {
+            @Override
+            protected long getHeight(Long list) {
+                return list;
+            }
+
+            @Override
+            protected long estimateSize(Long list) {
+                return 100;
+            }
+
+            @Override
+            protected boolean isPinned(Long list) {
+                return pinned.contains(list);
+            }
+
+            @Override
+            protected int getMaxEntries() {
+                return 4;
+            }
+        };
+    }
+
+    private static Sha256Hash hash(long height) {
+        return Sha256Hash.of(new byte[] { (byte) height });
+    }
+
+    private void add(long... heights) {
+        for (long height : heights)
+            cache.put(hash(height), height);
+    }
+
+    @Test
+    public void floorLookups() {
+        add(10, 20, 30);
+        assertNull(cache.getAtOrBefore(9));
+        assertEquals(Long.valueOf(10), cache.getAtOrBefore(10));
+        assertEquals(Long.valueOf(20), cache.getAtOrBefore(29));
+        assertEquals(Long.valueOf(30), cache.getAtOrBefore(1000));
+
+        // lists removed through an iterator, as on a reorganize, are no longer found
+        Iterator<Long> iterator = cache.values().iterator();
+        while (iterator.hasNext())
+            if (iterator.next() == 30)
+                iterator.remove();
+        assertEquals(Long.valueOf(20), cache.getAtOrBefore(1000));
+
+        cache.clear();
+        assertNull(cache.getAtOrBefore(1000));
+    }
+
+    @Test
+    public void heightIndexFollowsRemovals() {
+        add(10);
+        Sha256Hash first = Sha256Hash.of(new byte[] { 1, 20 });
+        Sha256Hash second = Sha256Hash.of(new byte[] { 2, 20 });
+        cache.put(first, 20L);
+        cache.put(second, 20L);
+
+        // removing a list that is not the one indexed at its height keeps the index
+        cache.remove(first);
+        assertEquals(Long.valueOf(20), cache.getAtOrBefore(20));
+
+        // evicting the indexed list drops its height
+        cache.get(hash(10));
+        cache.setMaxBytes(100);
+        assertEquals(Arrays.asList(10L), new ArrayList<>(cache.values()));
+        assertEquals(Long.valueOf(10), cache.getAtOrBefore(20));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedButNotPinned() {
+        add(1, 2, 3, 4);
+        pinned.add(1L);
+        cache.get(hash(2));
+        add(5);
+        // 1 is pinned and 2 was used more recently than 3
+        assertEquals(Arrays.asList(1L, 2L, 4L, 5L), new ArrayList<>(cache.values()));
+        assertEquals(1, cache.getEvictionCount());
+
+        cache.setMaxBytes(250);
+        assertEquals(Arrays.asList(1L, 5L), new ArrayList<>(cache.values()));
+        assertEquals(200, cache.getEstimatedBytes());
+
+        // the newest list is kept even if it does not fit
+        cache.setMaxBytes(0);
+        pinned.clear();
+        add(6);
+        assertEquals(Arrays.asList(6L), new ArrayList<>(cache.values()));
+    }
+
+    @Test
+    public void mapMethodsKeepIndexAndLimits() {
+        Map<Sha256Hash, Long> lists = new LinkedHashMap<>();
+        for (long height = 1; height <= 5; ++height)
+            lists.put(hash(height), height);
+        cache.putAll(lists);
+        assertEquals(Arrays.asList(2L, 3L, 4L, 5L), new ArrayList<>(cache.values()));
+        assertEquals(400, cache.getEstimatedBytes());
+        assertNull(cache.getAtOrBefore(1));
+
+        assertEquals(Long.valueOf(5), cache.putIfAbsent(hash(5), 5L));
+        assertNull(cache.putIfAbsent(hash(6), 6L));
+        assertEquals(Long.valueOf(6), cache.getAtOrBefore(1000));
+        assertEquals(400, cache.getEstimatedBytes());
+
+        cache.computeIfPresent(hash(6), new BiFunction<Sha256Hash, Long, Long>() {
+            @Override
+            public Long apply(Sha256Hash hash, Long list) {
+                return null;
+            }
+        });
+        assertEquals(Long.valueOf(5), cache.getAtOrBefore(1000));
+        assertEquals(300, cache.getEstimatedBytes());
+
+        // entries can only be changed through the cache
+        try {
+            cache.entrySet().iterator().next().setValue(0L);
+            fail();
+        } catch (UnsupportedOperationException x) {
+            // expected
+        }
+    }
+
+    @Test
+    public void hitRate() {
+        add(1);
+        assertEquals(0, cache.getHitRate(), 0);
+        cache.get(hash(1));
+        cache.get(hash(2));
+        cache.getAtOrBefore(5);
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2.0 / 3, cache.getHitRate(), 1e-9);
+    }
+}
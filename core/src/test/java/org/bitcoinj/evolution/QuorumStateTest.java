@@ -0,0 +1,385 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.evolution;
+
+import org.bitcoinj.core.AbstractBlockChain;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.PartialMerkleTree;
+import org.bitcoinj.core.Peer;
+import org.bitcoinj.core.PeerAddress;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.core.VerificationException;
+import org.bitcoinj.core.VersionMessage;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.quorums.FinalCommitment;
+import org.bitcoinj.quorums.SimplifiedQuorumList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class QuorumStateTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+
+    private RecordingQuorumState state;
+    private Peer peer;
+    private final List<StoredBlock> blocks = new ArrayList<>();
+
+    // records the requests instead of sending them
+    static class RecordingQuorumState extends QuorumState {
+        final List<GetSimplifiedMasternodeListDiff> sent = new ArrayList<>();
+        // sending fails while set, as it does for a peer that has disconnected
+        RuntimeException sendFailure;
+
+        RecordingQuorumState(Context context) {
+            super(context, MasternodeListSyncOptions.SYNC_MINIMUM);
+        }
+
+        @Override
+        protected void sendRequestWithRetry(Peer peer) {
+            if (sendFailure != null)
+                throw sendFailure;
+            sent.add(lastRequest.getRequestMessage());
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Utils.setMockClock();
+        Context context = new Context(UNITTEST);
+        state = new RecordingQuorumState(context);
+        peer = new Peer(UNITTEST, new VersionMessage(UNITTEST, 0), null,
+                new PeerAddress(UNITTEST, InetAddress.getLoopbackAddress()));
+
+        StoredBlock cursor = new StoredBlock(UNITTEST.getGenesisBlock().cloneAsHeader(), BigInteger.ONE, 0);
+        blocks.add(cursor);
+        for (int i = 1; i <= 5; ++i) {
+            Block prev = cursor.getHeader();
+            cursor = new StoredBlock(new Block(UNITTEST, prev.getVersion(), prev.getHash(), Sha256Hash.ZERO_HASH,
+                    prev.getTimeSeconds() + 1, prev.getDifficultyTarget(), 0, Collections.<Transaction>emptyList()),
+                    BigInteger.ONE, i);
+            blocks.add(cursor);
+        }
+
+        // the list is at block 1 and the diffs for blocks 2 to 5 are requested at once
+        apply(diff(0, 1));
+        for (int i = 2; i <= 5; ++i) {
+            state.pendingBlocks.add(blocks.get(i));
+            state.pendingBlocksMap.put(blocks.get(i).getHeader().getHash(), blocks.get(i));
+        }
+        state.downloadPeer = peer;
+        requestUpdates();
+        assertEquals(4, state.sent.size());
+        for (int i = 0; i < 4; ++i) {
+            assertEquals(blocks.get(i + 1).getHeader().getHash(), state.sent.get(i).baseBlockHash);
+            assertEquals(blocks.get(i + 2).getHeader().getHash(), state.sent.get(i).blockHash);
+        }
+        assertEquals(4, state.getRequestsInFlight());
+    }
+
+    @After
+    public void tearDown() {
+        state.clearRequestsInFlight();
+        Utils.resetMocking();
+    }
+
+    private void requestUpdates() {
+        state.lock.lock();
+        try {
+            assertTrue(state.requestPipelinedUpdates(peer));
+        } finally {
+            state.lock.unlock();
+        }
+    }
+
+    private static Transaction coinbase(int height) throws Exception {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        Utils.uint16ToByteStreamLE(CoinbaseTx.CURRENT_VERSION, payload);
+        Utils.uint32ToByteStreamLE(height, payload);
+        payload.write(new byte[64]);
+        Transaction coinbase = new Transaction(UNITTEST);
+        coinbase.setVersionAndType(Transaction.SPECIAL_VERSION, Transaction.Type.TRANSACTION_COINBASE);
+        coinbase.setExtraPayload(payload.toByteArray());
+        return coinbase;
+    }
+
+    private static SimplifiedMasternodeListDiff diff(Sha256Hash prevBlockHash, Sha256Hash blockHash, Transaction coinbase) {
+        PartialMerkleTree tree = PartialMerkleTree.buildFromLeaves(UNITTEST, new byte[] { 1 },
+                Collections.singletonList(coinbase.getTxId()));
+        return new SimplifiedMasternodeListDiff(UNITTEST, prevBlockHash, blockHash, tree, coinbase,
+                Collections.<SimplifiedMasternodeListEntry>emptyList(), Collections.<FinalCommitment>emptyList(),
+                SimplifiedMasternodeListDiff.CURRENT_VERSION);
+    }
+
+    private SimplifiedMasternodeListDiff diff(int from, int to) throws Exception {
+        return diff(blocks.get(from).getHeader().getHash(), blocks.get(to).getHeader().getHash(), coinbase(to));
+    }
+
+    // stands in for processing the diff, which needs the chain and the quorums
+    private void apply(SimplifiedMasternodeListDiff diff) throws Exception {
+        state.mnList = state.mnList.applyDiff(diff);
+    }
+
+    @Test
+    public void outOfOrderDiffsAreAppliedInOrder() throws Exception {
+        Peer other = new Peer(UNITTEST, new VersionMessage(UNITTEST, 0), null,
+                new PeerAddress(UNITTEST, InetAddress.getLoopbackAddress(), 1234));
+        SimplifiedMasternodeListDiff diff45 = diff(4, 5);
+        SimplifiedMasternodeListDiff diff23 = diff(2, 3);
+        SimplifiedMasternodeListDiff diff34 = diff(3, 4);
+        assertTrue(state.deferDiff(peer, diff45));
+        assertTrue(state.deferDiff(other, diff23));
+        assertTrue(state.deferDiff(peer, diff34));
+        assertNull(state.takeDeferredDiff());
+
+        SimplifiedMasternodeListDiff diff12 = diff(1, 2);
+        assertFalse(state.deferDiff(peer, diff12));
+        apply(diff12);
+        // a kept diff is processed with the peer that sent it
+        QuorumState.DeferredDiff deferred23 = state.takeDeferredDiff();
+        assertSame(diff23, deferred23.mnlistdiff);
+        assertSame(other, deferred23.peer);
+        apply(diff23);
+        assertSame(diff34, state.takeDeferredDiff().mnlistdiff);
+        apply(diff34);
+        assertSame(diff45, state.takeDeferredDiff().mnlistdiff);
+        apply(diff45);
+        assertNull(state.takeDeferredDiff());
+        assertEquals(5, state.getMasternodeList().getHeight());
+        assertEquals(0, state.getFailedAttempts());
+    }
+
+    @Test
+    public void lateDuplicateIsDropped() throws Exception {
+        apply(diff(1, 2));
+        apply(diff(2, 3));
+
+        // answers to requests that were sent again arrive after the list has moved past them
+        assertTrue(state.deferDiff(peer, diff(1, 2)));
+        assertTrue(state.deferDiff(peer, diff(2, 3)));
+        assertNull(state.takeDeferredDiff());
+
+        // a diff kept twice is applied once
+        assertTrue(state.deferDiff(peer, diff(4, 5)));
+        assertTrue(state.deferDiff(peer, diff(4, 5)));
+        SimplifiedMasternodeListDiff diff34 = diff(3, 4);
+        assertFalse(state.deferDiff(peer, diff34));
+        apply(diff34);
+        QuorumState.DeferredDiff diff45 = state.takeDeferredDiff();
+        assertEquals(blocks.get(5).getHeader().getHash(), diff45.mnlistdiff.blockHash);
+        apply(diff45.mnlistdiff);
+        assertNull(state.takeDeferredDiff());
+
+        // a diff that was never requested is dropped too
+        assertTrue(state.deferDiff(peer, diff(2, 4)));
+
+        assertEquals(0, state.getFailedAttempts());
+        assertEquals(4, state.getRequestsInFlight());
+    }
+
+    @Test
+    public void failureInTheMiddleOfTheWindow() throws Exception {
+        assertTrue(state.deferDiff(peer, diff(3, 4)));
+        assertTrue(state.deferDiff(peer, diff(4, 5)));
+        apply(diff(1, 2));
+        state.popPendingBlock();
+
+        // processing the diff for block 3 fails, which forgets the requests after it
+        state.clearRequestsInFlight();
+        assertEquals(0, state.getRequestsInFlight());
+        assertNull(state.takeDeferredDiff());
+
+        // the diffs that were still on their way when it failed are dropped rather than failing too
+        assertTrue(state.deferDiff(peer, diff(3, 4)));
+        assertTrue(state.deferDiff(peer, diff(4, 5)));
+        assertNull(state.takeDeferredDiff());
+        assertEquals(0, state.getRequestsInFlight());
+
+        // the requests are sent again from the list that was reached
+        state.sent.clear();
+        requestUpdates();
+        assertEquals(3, state.sent.size());
+        assertEquals(blocks.get(2).getHeader().getHash(), state.sent.get(0).baseBlockHash);
+        assertEquals(blocks.get(3).getHeader().getHash(), state.sent.get(0).blockHash);
+        SimplifiedMasternodeListDiff diff45 = diff(4, 5);
+        assertTrue(state.deferDiff(peer, diff45));
+        SimplifiedMasternodeListDiff diff23 = diff(2, 3);
+        assertFalse(state.deferDiff(peer, diff23));
+    }
+
+    @Test
+    public void stalledRequestsAreSentAgain() throws Exception {
+        assertTrue(state.deferDiff(peer, diff(3, 4)));
+        state.sent.clear();
+
+        state.checkStalledRequests();
+        assertEquals(0, state.sent.size());
+
+        Utils.rollMockClock((int) AbstractQuorumState.WAIT_GETMNLISTDIFF * 4 + 1);
+        state.checkStalledRequests();
+        // all but the request whose diff has arrived
+        assertEquals(3, state.sent.size());
+        assertEquals(blocks.get(2).getHeader().getHash(), state.sent.get(0).blockHash);
+        assertEquals(blocks.get(3).getHeader().getHash(), state.sent.get(1).blockHash);
+        assertEquals(blocks.get(5).getHeader().getHash(), state.sent.get(2).blockHash);
+        assertEquals(4, state.getRequestsInFlight());
+    }
+
+    @Test
+    public void failedSendDoesNotStopStallChecks() throws Exception {
+        Utils.rollMockClock((int) AbstractQuorumState.WAIT_GETMNLISTDIFF * 4 + 1);
+        state.sent.clear();
+        state.sendFailure = new IllegalStateException("not connected");
+        // the failure is logged rather than thrown out of the check
+        state.checkStalledRequests();
+        assertEquals(0, state.sent.size());
+        assertEquals(4, state.getRequestsInFlight());
+
+        // the requests are sent once sending works again
+        state.sendFailure = null;
+        Utils.rollMockClock((int) AbstractQuorumState.WAIT_GETMNLISTDIFF * 4 + 1);
+        state.checkStalledRequests();
+        assertEquals(4, state.sent.size());
+        assertEquals(4, state.getRequestsInFlight());
+    }
+
+    // a quorum list whose verification waits for the latch and then passes or fails
+    static class DeferredQuorumList extends SimplifiedQuorumList {
+        private final CountDownLatch latch;
+        private final boolean valid;
+
+        DeferredQuorumList(CountDownLatch latch, boolean valid) {
+            super(UNITTEST);
+            this.latch = latch;
+            this.valid = valid;
+        }
+
+        @Override
+        public void verifyQuorums(boolean isLoadingBootstrap, AbstractBlockChain chain, boolean validateOldQuorums) {
+            try {
+                latch.await();
+            } catch (InterruptedException x) {
+                throw new RuntimeException(x);
+            }
+            if (!valid)
+                throw new VerificationException("invalid quorum");
+        }
+    }
+
+    @Test
+    public void failedBootstrapVerificationResetsList() throws Exception {
+        // the lists came from a bootstrap file, which is not loaded again after the failure
+        state.bootstrapFilePath = "bootstrap.dat";
+        CountDownLatch latch = new CountDownLatch(1);
+        state.lock.lock();
+        try {
+            state.verifyQuorumsInBackground(new DeferredQuorumList(latch, true), null);
+            state.verifyQuorumsInBackground(new DeferredQuorumList(latch, false), null);
+        } finally {
+            state.lock.unlock();
+        }
+        assertFalse(state.getBootstrapQuorumsVerified().isDone());
+        assertEquals(1, state.getMasternodeList().getHeight());
+
+        latch.countDown();
+        try {
+            state.getBootstrapQuorumsVerified().get(5, TimeUnit.SECONDS);
+            fail("verification of the second list failed");
+        } catch (ExecutionException x) {
+            assertTrue(x.getCause() instanceof VerificationException);
+        }
+        assertEquals(-1, state.getMasternodeList().getHeight());
+        assertEquals(0, state.getRequestsInFlight());
+    }
+
+    private void verifyBootstrapDiff(SimplifiedMasternodeListDiff diff) {
+        state.lock.lock();
+        try {
+            // the header is not in the chain yet
+            state.verifyBootstrapDiff(diff, null);
+        } finally {
+            state.lock.unlock();
+        }
+    }
+
+    @Test
+    public void bootstrapDiffIsCheckedWhenHeaderArrives() throws Exception {
+        state.bootstrapFilePath = "bootstrap.dat";
+        // a block whose merkle root is that of its coinbase transaction alone
+        Transaction coinbase = coinbase(6);
+        Block prev = blocks.get(5).getHeader();
+        Block header = new Block(UNITTEST, prev.getVersion(), prev.getHash(), coinbase.getTxId(),
+                prev.getTimeSeconds() + 1, prev.getDifficultyTarget(), 0, Collections.<Transaction>emptyList());
+        verifyBootstrapDiff(diff(prev.getHash(), header.getHash(), coinbase));
+        assertFalse(state.getBootstrapQuorumsVerified().isDone());
+
+        // other headers don't complete the check
+        state.bootstrapHeaderListener.notifyNewBestBlock(blocks.get(5));
+        assertFalse(state.getBootstrapQuorumsVerified().isDone());
+
+        state.bootstrapHeaderListener.notifyNewBestBlock(new StoredBlock(header, BigInteger.ONE, 6));
+        assertTrue(state.getBootstrapQuorumsVerified().get(5, TimeUnit.SECONDS));
+        assertEquals(1, state.getMasternodeList().getHeight());
+    }
+
+    @Test
+    public void bootstrapDiffNotInItsHeaderResetsList() throws Exception {
+        state.bootstrapFilePath = "bootstrap.dat";
+        // the blocks of the test chain have no transactions, so no coinbase is in them
+        verifyBootstrapDiff(diff(1, 2));
+        assertFalse(state.getBootstrapQuorumsVerified().isDone());
+        assertEquals(1, state.getMasternodeList().getHeight());
+
+        state.bootstrapHeaderListener.notifyNewBestBlock(blocks.get(2));
+        try {
+            state.getBootstrapQuorumsVerified().get(5, TimeUnit.SECONDS);
+            fail("the coinbase is not in the block");
+        } catch (ExecutionException x) {
+            assertTrue(x.getCause() instanceof VerificationException);
+        }
+        assertEquals(-1, state.getMasternodeList().getHeight());
+
+        // a diff whose header is known is checked at once
+        try {
+            state.verifyBootstrapDiff(diff(1, 2), blocks.get(2));
+            fail("the coinbase is not in the block");
+        } catch (VerificationException x) {
+            // expected
+        }
+    }
+}
@@ -16,15 +16,20 @@
 
 package org.bitcoinj.evolution;
 
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.PartialMerkleTree;
 import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
 import org.bitcoinj.crypto.BLSScheme;
 import org.bitcoinj.params.MainNetParams;
 import org.bitcoinj.params.TestNet3Params;
+import org.bitcoinj.quorums.FinalCommitment;
 import org.dashj.bls.BLSJniLibrary;
 import org.junit.Test;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.Objects;
 
 import static com.google.common.base.Preconditions.checkState;
@@ -95,4 +100,28 @@ public class SimplifiedMasternodeListDiffTest {
 
         assertArrayEquals(payloadOne, mnlistdiff.bitcoinSerialize());
     }
+
+    @Test
+    public void verifyCoinbaseInBlock() {
+        Block genesis = PARAMS.getGenesisBlock().cloneAsHeader();
+        Transaction coinbase = PARAMS.getGenesisBlock().getTransactions().get(0);
+        PartialMerkleTree tree = PartialMerkleTree.buildFromLeaves(PARAMS, new byte[] { 1 },
+                Collections.singletonList(coinbase.getTxId()));
+        SimplifiedMasternodeListDiff mnlistdiff = new SimplifiedMasternodeListDiff(PARAMS, Sha256Hash.ZERO_HASH,
+                genesis.getHash(), tree, coinbase, Collections.<SimplifiedMasternodeListEntry>emptyList(),
+                Collections.<FinalCommitment>emptyList(), SimplifiedMasternodeListDiff.CURRENT_VERSION);
+        assertTrue(mnlistdiff.verify(genesis));
+        // a block with the same merkle root is not the block of the diff
+        Block other = new Block(PARAMS, genesis.getVersion(), genesis.getHash(), genesis.getMerkleRoot(),
+                genesis.getTimeSeconds() + 1, genesis.getDifficultyTarget(), 0, Collections.<Transaction>emptyList());
+        assertFalse(mnlistdiff.verify(other));
+
+        // a tree proving another transaction does not prove the coinbase
+        PartialMerkleTree otherTree = PartialMerkleTree.buildFromLeaves(PARAMS, new byte[] { 1 },
+                Collections.singletonList(Sha256Hash.ZERO_HASH));
+        SimplifiedMasternodeListDiff otherDiff = new SimplifiedMasternodeListDiff(PARAMS, Sha256Hash.ZERO_HASH,
+                genesis.getHash(), otherTree, coinbase, Collections.<SimplifiedMasternodeListEntry>emptyList(),
+                Collections.<FinalCommitment>emptyList(), SimplifiedMasternodeListDiff.CURRENT_VERSION);
+        assertFalse(otherDiff.verify(genesis));
+    }
 }
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.governance;
+
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.MasternodeSignature;
+import org.bitcoinj.core.MasternodeSync;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Peer;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.params.UnitTestParams;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.bitcoinj.governance.GovernanceVote.VoteOutcome.VOTE_OUTCOME_YES;
+import static org.bitcoinj.governance.GovernanceVote.VoteSignal.VOTE_SIGNAL_FUNDING;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GovernanceManagerTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+
+    private Context context;
+    private GovernanceManager manager;
+
+    @Before
+    public void setUp() {
+        context = new Context(UNITTEST);
+        // no masternode list, so votes are accepted without signature checks
+        context.initDash(true, true, EnumSet.noneOf(MasternodeSync.SYNC_FLAGS.class));
+        context.masternodeMetaDataManager = new GovernanceObjectTest.AcceptingMetaDataManager(context);
+        manager = context.governanceManager;
+    }
+
+    @After
+    public void tearDown() {
+        manager.close();
+    }
+
+    // a proposal that is accepted without a collateral transaction
+    static class LocallyValidObject extends GovernanceObject {
+        private volatile Sha256Hash failingVote;
+
+        LocallyValidObject(NetworkParameters params, byte[] payload) {
+            super(params, payload);
+        }
+
+        @Override
+        public boolean isValidLocally(Validity validity, boolean fCheckCollateral) {
+            return true;
+        }
+
+        @Override
+        public boolean processVote(Peer pfrom, GovernanceVote vote, GovernanceException exception) {
+            if (vote.getHash().equals(failingVote))
+                throw new IllegalStateException("failing vote");
+            return super.processVote(pfrom, vote, exception);
+        }
+    }
+
+    private LocallyValidObject addObject(int n) throws IOException {
+        LocallyValidObject govobj = new LocallyValidObject(UNITTEST,
+                GovernanceObjectTest.governanceObject(UNITTEST, n).bitcoinSerialize());
+        manager.addGovernanceObject(govobj, null);
+        assertTrue(manager.findGovernanceObject(govobj.getHash()) != null);
+        return govobj;
+    }
+
+    private static GovernanceVote vote(GovernanceObject govobj, int masternode) {
+        TransactionOutPoint outpoint = new TransactionOutPoint(UNITTEST, masternode, Sha256Hash.ZERO_HASH);
+        GovernanceVote vote = new GovernanceVote(UNITTEST, outpoint, govobj.getHash(), VOTE_SIGNAL_FUNDING, VOTE_OUTCOME_YES);
+        byte[] signature = new byte[66];
+        signature[0] = 65;
+        vote.setSignature(new MasternodeSignature(UNITTEST, signature, 0));
+        return vote;
+    }
+
+    private void waitForVote(GovernanceVote vote) throws InterruptedException {
+        for (int i = 0; i < 500 && !manager.haveVoteForHash(vote.getHash()); ++i)
+            Thread.sleep(10);
+        assertTrue(manager.haveVoteForHash(vote.getHash()));
+    }
+
+    @Test
+    public void pendingVotesAreApplied() throws Exception {
+        GovernanceObject govobj = addObject(1);
+        GovernanceVote vote = vote(govobj, 1);
+        assertTrue(manager.addPendingVote(null, vote));
+        waitForVote(vote);
+        assertEquals(1, govobj.getYesCount(VOTE_SIGNAL_FUNDING));
+        // a known vote is not queued again
+        assertFalse(manager.addPendingVote(null, vote));
+    }
+
+    @Test
+    public void pendingVotesAreCapped() throws Exception {
+        GovernanceObject govobj = addObject(1);
+        GovernanceVote last;
+        // holding the lock keeps the queue from being drained
+        manager.lock.lock();
+        try {
+            for (int i = 0; i < GovernanceManager.MAX_PENDING_VOTES; ++i)
+                assertTrue(manager.addPendingVote(null, vote(govobj, i)));
+            assertEquals(GovernanceManager.MAX_PENDING_VOTES, manager.getPendingVoteCount());
+            last = vote(govobj, GovernanceManager.MAX_PENDING_VOTES);
+            assertFalse(manager.addPendingVote(null, last));
+            assertEquals(GovernanceManager.MAX_PENDING_VOTES, manager.getPendingVoteCount());
+        } finally {
+            manager.lock.unlock();
+        }
+
+        // once the queue drains, votes are accepted again
+        waitForVote(vote(govobj, GovernanceManager.MAX_PENDING_VOTES - 1));
+        assertTrue(manager.addPendingVote(null, last));
+        waitForVote(last);
+    }
+
+    @Test
+    public void failingVoteDoesNotDropBatch() throws Exception {
+        LocallyValidObject govobj = addObject(1);
+        GovernanceVote before = vote(govobj, 1);
+        GovernanceVote failing = vote(govobj, 2);
+        GovernanceVote after = vote(govobj, 3);
+        govobj.failingVote = failing.getHash();
+        manager.lock.lock();
+        try {
+            assertTrue(manager.addPendingVote(null, before));
+            assertTrue(manager.addPendingVote(null, failing));
+            assertTrue(manager.addPendingVote(null, after));
+        } finally {
+            manager.lock.unlock();
+        }
+        waitForVote(before);
+        waitForVote(after);
+        assertFalse(manager.haveVoteForHash(failing.getHash()));
+        assertEquals(2, govobj.getYesCount(VOTE_SIGNAL_FUNDING));
+
+        // the queue is still drained after the failure
+        GovernanceVote later = vote(govobj, 4);
+        assertTrue(manager.addPendingVote(null, later));
+        waitForVote(later);
+    }
+
+    private Future<Boolean> processVote(ExecutorService executor, final GovernanceVote vote) {
+        return executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return manager.processVote(null, vote, new GovernanceException());
+            }
+        });
+    }
+
+    @Test
+    public void votesForOtherObjectsAreNotBlocked() throws Exception {
+        GovernanceObject busy = addObject(1);
+        GovernanceObject other = addObject(2);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Boolean> busyVote;
+            // holding the object lock stands in for a slow signature check of a vote for that object
+            busy.lock.lock();
+            try {
+                busyVote = processVote(executor, vote(busy, 1));
+                try {
+                    busyVote.get(100, TimeUnit.MILLISECONDS);
+                    fail("vote was applied while its object was locked");
+                } catch (TimeoutException x) {
+                    // expected
+                }
+                assertTrue(processVote(executor, vote(other, 1)).get(5, TimeUnit.SECONDS));
+                assertTrue(manager.haveVoteForHash(vote(other, 1).getHash()));
+            } finally {
+                busy.lock.unlock();
+            }
+            assertTrue(busyVote.get(5, TimeUnit.SECONDS));
+            assertTrue(manager.haveVoteForHash(vote(busy, 1).getHash()));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void concurrentVotesAreAllApplied() throws Exception {
+        GovernanceObject[] objects = { addObject(1), addObject(2), addObject(3) };
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int masternode = 0; masternode < 100; ++masternode)
+                for (GovernanceObject govobj : objects)
+                    results.add(processVote(executor, vote(govobj, masternode)));
+            for (Future<Boolean> result : results)
+                assertTrue(result.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        for (GovernanceObject govobj : objects) {
+            assertEquals(100, govobj.getYesCount(VOTE_SIGNAL_FUNDING));
+            assertEquals(100, govobj.getVoteFile().getVoteCount());
+            assertTrue(manager.haveVoteForHash(vote(govobj, 99).getHash()));
+        }
+    }
+}
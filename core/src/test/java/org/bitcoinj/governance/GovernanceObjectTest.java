@@ -0,0 +1,140 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.governance;
+
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.MasternodeSignature;
+import org.bitcoinj.core.MasternodeSync;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.UnsafeByteArrayOutputStream;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.evolution.MasternodeMetaDataManager;
+import org.bitcoinj.params.UnitTestParams;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.EnumSet;
+
+import static org.bitcoinj.governance.GovernanceVote.VoteOutcome.*;
+import static org.bitcoinj.governance.GovernanceVote.VoteSignal.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GovernanceObjectTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = new Context(UNITTEST);
+        // no masternode list, so votes are accepted without signature checks
+        context.initDash(true, true, EnumSet.noneOf(MasternodeSync.SYNC_FLAGS.class));
+        context.masternodeMetaDataManager = new AcceptingMetaDataManager(context);
+    }
+
+    // records every vote, as Dash Core does for masternodes it knows
+    static class AcceptingMetaDataManager extends MasternodeMetaDataManager {
+        AcceptingMetaDataManager(Context context) {
+            super(context);
+        }
+
+        @Override
+        public boolean addGovernanceVote(TransactionOutPoint outPoint, Sha256Hash hash) {
+            return true;
+        }
+    }
+
+    static GovernanceObject governanceObject(NetworkParameters params, int n) throws IOException {
+        UnsafeByteArrayOutputStream bos = new UnsafeByteArrayOutputStream();
+        bos.write(Sha256Hash.ZERO_HASH.getBytes());
+        Utils.uint32ToByteStreamLE(1, bos);
+        Utils.int64ToByteStreamLE(Utils.currentTimeSeconds(), bos);
+        bos.write(Sha256Hash.of(new byte[] { (byte) n }).getBytes());
+        Utils.bytesToByteStream(new byte[] { (byte) n }, bos);
+        Utils.uint32ToByteStreamLE(GovernanceObject.GOVERNANCE_OBJECT_PROPOSAL, bos);
+        new TransactionOutPoint(params, 0, Sha256Hash.ZERO_HASH).bitcoinSerialize(bos);
+        bos.write(65);
+        bos.write(new byte[65]);
+        return new GovernanceObject(params, bos.toByteArray());
+    }
+
+    static GovernanceVote vote(NetworkParameters params, GovernanceObject govobj, int masternode,
+                               GovernanceVote.VoteSignal signal, GovernanceVote.VoteOutcome outcome) {
+        TransactionOutPoint outpoint = new TransactionOutPoint(params, 0, Sha256Hash.of(new byte[] { (byte) masternode }));
+        GovernanceVote vote = new GovernanceVote(params, outpoint, govobj.getHash(), signal, outcome);
+        byte[] signature = new byte[66];
+        signature[0] = 65;
+        vote.setSignature(new MasternodeSignature(params, signature, 0));
+        return vote;
+    }
+
+    private void addVote(GovernanceObject govobj, int masternode, GovernanceVote.VoteSignal signal, GovernanceVote.VoteOutcome outcome) {
+        assertTrue(govobj.processVote(null, vote(UNITTEST, govobj, masternode, signal, outcome), new GovernanceException()));
+        assertTallyMatchesRecount(govobj);
+    }
+
+    // compares the kept tallies with a count over all current votes
+    private static void assertTallyMatchesRecount(GovernanceObject govobj) {
+        for (GovernanceVote.VoteSignal signal : new GovernanceVote.VoteSignal[] {
+                VOTE_SIGNAL_FUNDING, VOTE_SIGNAL_VALID, VOTE_SIGNAL_DELETE, VOTE_SIGNAL_ENDORSED }) {
+            for (GovernanceVote.VoteOutcome outcome : GovernanceVote.VoteOutcome.values()) {
+                int count = 0;
+                for (VoteRecord record : govobj.mapCurrentMNVotes.values()) {
+                    VoteInstance instance = record.mapInstances.get(signal.getValue());
+                    if (instance != null && instance.eOutcome == outcome)
+                        ++count;
+                }
+                assertEquals(signal + " " + outcome, count, govobj.countMatchingVotes(signal, outcome));
+            }
+        }
+    }
+
+    @Test
+    public void incrementalTallyMatchesRecount() throws IOException {
+        GovernanceObject govobj = governanceObject(UNITTEST, 1);
+
+        // added
+        addVote(govobj, 1, VOTE_SIGNAL_FUNDING, VOTE_OUTCOME_YES);
+        addVote(govobj, 2, VOTE_SIGNAL_FUNDING, VOTE_OUTCOME_NO);
+        addVote(govobj, 3, VOTE_SIGNAL_FUNDING, VOTE_OUTCOME_YES);
+        addVote(govobj, 1, VOTE_SIGNAL_VALID, VOTE_OUTCOME_ABSTAIN);
+        assertEquals(2, govobj.getYesCount(VOTE_SIGNAL_FUNDING));
+        assertEquals(1, govobj.getNoCount(VOTE_SIGNAL_FUNDING));
+        assertEquals(1, govobj.getAbsoluteYesCount(VOTE_SIGNAL_FUNDING));
+        assertEquals(1, govobj.getAbstainCount(VOTE_SIGNAL_VALID));
+
+        // replaced
+        addVote(govobj, 2, VOTE_SIGNAL_FUNDING, VOTE_OUTCOME_YES);
+        addVote(govobj, 1, VOTE_SIGNAL_VALID, VOTE_OUTCOME_NO);
+        assertEquals(3, govobj.getYesCount(VOTE_SIGNAL_FUNDING));
+        assertEquals(0, govobj.getNoCount(VOTE_SIGNAL_FUNDING));
+        assertEquals(0, govobj.getAbstainCount(VOTE_SIGNAL_VALID));
+        assertEquals(1, govobj.getNoCount(VOTE_SIGNAL_VALID));
+
+        // removed, as when a masternode leaves the list
+        govobj.removeMasternodeVotes(vote(UNITTEST, govobj, 1, VOTE_SIGNAL_FUNDING, VOTE_OUTCOME_YES).getMasternodeOutpoint());
+        assertTallyMatchesRecount(govobj);
+        assertEquals(2, govobj.getYesCount(VOTE_SIGNAL_FUNDING));
+        assertEquals(0, govobj.getNoCount(VOTE_SIGNAL_VALID));
+        addVote(govobj, 1, VOTE_SIGNAL_FUNDING, VOTE_OUTCOME_NO);
+        assertEquals(1, govobj.getNoCount(VOTE_SIGNAL_FUNDING));
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.governance;
+
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.MasternodeSignature;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.params.UnitTestParams;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GovernanceObjectVoteFileTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+    private static final Sha256Hash PARENT = Sha256Hash.of(new byte[] { 1 });
+
+    @Before
+    public void setUp() {
+        new Context(UNITTEST);
+    }
+
+    private static GovernanceVote vote(int masternode, GovernanceVote.VoteSignal signal) {
+        TransactionOutPoint outpoint = new TransactionOutPoint(UNITTEST, 0, Sha256Hash.of(new byte[] { (byte) masternode }));
+        GovernanceVote vote = new GovernanceVote(UNITTEST, outpoint, PARENT, signal, GovernanceVote.VoteOutcome.VOTE_OUTCOME_YES);
+        byte[] signature = new byte[66];
+        signature[0] = 65;
+        vote.setSignature(new MasternodeSignature(UNITTEST, signature, 0));
+        return vote;
+    }
+
+    @Test
+    public void votesAreNewestFirst() {
+        GovernanceVote first = vote(1, GovernanceVote.VoteSignal.VOTE_SIGNAL_FUNDING);
+        GovernanceVote second = vote(2, GovernanceVote.VoteSignal.VOTE_SIGNAL_FUNDING);
+        GovernanceVote third = vote(1, GovernanceVote.VoteSignal.VOTE_SIGNAL_VALID);
+        GovernanceObjectVoteFile file = new GovernanceObjectVoteFile();
+        file.addVote(first);
+        file.addVote(second);
+        file.addVote(third);
+        file.addVote(second);
+        assertEquals(3, file.getVoteCount());
+        assertEquals(Arrays.asList(third, second, first), file.getVotes());
+
+        // the file is written and read back in the same order
+        GovernanceObjectVoteFile reloaded = new GovernanceObjectVoteFile(UNITTEST, file.bitcoinSerialize(), 0);
+        assertEquals(3, reloaded.getVoteCount());
+        List<Sha256Hash> hashes = new ArrayList<>();
+        for (GovernanceVote vote : reloaded.getVotes())
+            hashes.add(vote.getHash());
+        assertEquals(Arrays.asList(third.getHash(), second.getHash(), first.getHash()), hashes);
+    }
+
+    @Test
+    public void getVotesReturnsCopy() {
+        GovernanceObjectVoteFile file = new GovernanceObjectVoteFile();
+        file.addVote(vote(1, GovernanceVote.VoteSignal.VOTE_SIGNAL_FUNDING));
+        file.addVote(vote(2, GovernanceVote.VoteSignal.VOTE_SIGNAL_FUNDING));
+        List<GovernanceVote> votes = file.getVotes();
+
+        // changing the file while iterating a result must not fail
+        for (GovernanceVote vote : votes)
+            file.addVote(vote(3, GovernanceVote.VoteSignal.VOTE_SIGNAL_DELETE));
+        assertEquals(2, votes.size());
+    }
+
+    @Test
+    public void removeVotesFromMasternode() {
+        GovernanceVote funding = vote(1, GovernanceVote.VoteSignal.VOTE_SIGNAL_FUNDING);
+        GovernanceVote valid = vote(1, GovernanceVote.VoteSignal.VOTE_SIGNAL_VALID);
+        GovernanceVote other = vote(2, GovernanceVote.VoteSignal.VOTE_SIGNAL_FUNDING);
+        GovernanceObjectVoteFile file = new GovernanceObjectVoteFile();
+        file.addVote(funding);
+        file.addVote(valid);
+        file.addVote(other);
+
+        file.removeVotesFromMasternode(funding.getMasternodeOutpoint());
+        assertEquals(1, file.getVoteCount());
+        assertFalse(file.hasVote(funding.getHash()));
+        assertFalse(file.hasVote(valid.getHash()));
+        assertTrue(file.hasVote(other.getHash()));
+        assertEquals(Arrays.asList(other), file.getVotes());
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.governance;
+
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.UnsafeByteArrayOutputStream;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.params.UnitTestParams;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class GovernanceVoteTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+
+    @Before
+    public void setUp() {
+        new Context(UNITTEST);
+    }
+
+    @Test
+    public void roundTripInWireFormat() throws Exception {
+        // the layout that parse() reads and Dash Core sends: outpoint, parent hash, outcome, signal, time, signature
+        Sha256Hash collateral = Sha256Hash.of(new byte[] { 1 });
+        Sha256Hash parent = Sha256Hash.of(new byte[] { 2 });
+        UnsafeByteArrayOutputStream bos = new UnsafeByteArrayOutputStream();
+        bos.write(collateral.getReversedBytes());
+        Utils.uint32ToByteStreamLE(3, bos);
+        bos.write(parent.getReversedBytes());
+        Utils.uint32ToByteStreamLE(GovernanceVote.VoteOutcome.VOTE_OUTCOME_NO.getValue(), bos);
+        Utils.uint32ToByteStreamLE(GovernanceVote.VoteSignal.VOTE_SIGNAL_DELETE.getValue(), bos);
+        Utils.int64ToByteStreamLE(1600000000L, bos);
+        bos.write(65);
+        bos.write(new byte[65]);
+        byte[] payload = bos.toByteArray();
+
+        GovernanceVote vote = new GovernanceVote(UNITTEST, payload, 0);
+        assertEquals(GovernanceVote.VoteOutcome.VOTE_OUTCOME_NO, vote.getOutcome());
+        assertEquals(GovernanceVote.VoteSignal.VOTE_SIGNAL_DELETE, vote.getSignal());
+        assertEquals(parent, vote.getParentHash());
+        assertEquals(3, vote.getMasternodeOutpoint().getIndex());
+        assertEquals(1600000000L, vote.getTimestamp());
+
+        // a vote is written back in the layout it was read in
+        assertArrayEquals(payload, vote.bitcoinSerialize());
+        GovernanceVote reread = new GovernanceVote(UNITTEST, vote.bitcoinSerialize(), 0);
+        assertEquals(vote.getHash(), reread.getHash());
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.net;
+
+import com.google.common.collect.ImmutableList;
+import org.bitcoinj.core.BloomFilter;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.PeerFilterProvider;
+import org.bitcoinj.core.Utils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FilterMergerTest {
+    private static final double FP_RATE = 0.0005;
+
+    private FilterMerger merger;
+    private KeyProvider provider;
+
+    // provides its keys as a wallet does
+    static class KeyProvider implements PeerFilterProvider {
+        final List<ECKey> keys = new ArrayList<>();
+        final long earliestKeyTime;
+
+        KeyProvider(int count, long earliestKeyTime) {
+            for (int i = 0; i < count; i++)
+                keys.add(new ECKey());
+            this.earliestKeyTime = earliestKeyTime;
+        }
+
+        @Override
+        public long getEarliestKeyCreationTime() {
+            return earliestKeyTime;
+        }
+
+        @Override
+        public void beginBloomFilterCalculation() {
+        }
+
+        @Override
+        public int getBloomFilterElementCount() {
+            return keys.size() * 2;
+        }
+
+        @Override
+        public BloomFilter getBloomFilter(int size, double falsePositiveRate, long nTweak) {
+            BloomFilter filter = new BloomFilter(size, falsePositiveRate, nTweak);
+            for (ECKey key : keys)
+                filter.insert(key);
+            return filter;
+        }
+
+        @Override
+        public boolean isRequiringUpdateAllBloomFilter() {
+            return false;
+        }
+
+        @Override
+        public void endBloomFilterCalculation() {
+        }
+    }
+
+    @Before
+    public void setUp() {
+        Utils.setMockClock();
+        merger = new FilterMerger(FP_RATE);
+        provider = new KeyProvider(10, Utils.currentTimeSeconds() - 86400);
+    }
+
+    @After
+    public void tearDown() {
+        Utils.resetMocking();
+    }
+
+    @Test
+    public void insertedKeysMatch() {
+        assertNull(merger.insertKeys(Arrays.asList(new ECKey())));
+        FilterMerger.Result calculated = merger.calculate(ImmutableList.<PeerFilterProvider>of(provider));
+        BloomFilter before = calculated.filter;
+        byte[] beforeData = before.getData().clone();
+
+        List<ECKey> added = Arrays.asList(new ECKey(), new ECKey());
+        FilterMerger.Result inserted = merger.insertKeys(added);
+        assertNotNull(inserted);
+        assertTrue(inserted.changed);
+        assertEquals(calculated.earliestKeyTimeSecs, inserted.earliestKeyTimeSecs);
+        BloomFilter after = inserted.filter;
+        for (ECKey key : added) {
+            assertTrue(after.contains(key.getPubKey()));
+            assertTrue(after.contains(key.getPubKeyHash()));
+        }
+        for (ECKey key : provider.keys)
+            assertTrue(after.contains(key.getPubKey()));
+
+        // the filter keeps its size, tweak and hash functions, so it is the filter that a recalculation would give
+        assertEquals(before.getData().length, after.getData().length);
+        assertEquals(before.getTweak(), after.getTweak());
+        assertEquals(before.getHashFuncs(), after.getHashFuncs());
+        assertEquals(before.getFlags(), after.getFlags());
+        provider.keys.addAll(added);
+        FilterMerger.Result recalculated = merger.calculate(ImmutableList.<PeerFilterProvider>of(provider));
+        assertEquals(after, recalculated.filter);
+        assertFalse(recalculated.changed);
+
+        // the filter that was handed out before is not changed
+        assertArrayEquals(beforeData, before.getData());
+    }
+
+    @Test
+    public void oldOrTooManyKeysNeedRecalculation() {
+        merger.calculate(ImmutableList.<PeerFilterProvider>of(provider));
+
+        // a key older than the earliest key time means blocks must be downloaded again
+        ECKey old = new ECKey();
+        old.setCreationTimeSeconds(provider.earliestKeyTime - 86400 * 30);
+        assertNull(merger.insertKeys(Arrays.asList(old)));
+
+        // too many keys for the size of the filter
+        List<ECKey> many = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+            many.add(new ECKey());
+        assertNull(merger.insertKeys(many));
+    }
+}
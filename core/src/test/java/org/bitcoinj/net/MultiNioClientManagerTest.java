@@ -0,0 +1,130 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.net;
+
+import org.bitcoinj.core.Context;
+import org.bitcoinj.params.UnitTestParams;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class MultiNioClientManagerTest {
+    private static final int CLIENTS = 6;
+
+    private InetSocketAddress address;
+    private NioServer server;
+    private MultiNioClientManager manager;
+    private CountDownLatch serverOpened;
+    private CountDownLatch serverClosed;
+
+    // a connection which ignores what it receives
+    private static class Connection implements StreamConnection {
+        final CountDownLatch opened;
+        final CountDownLatch closed;
+
+        Connection(CountDownLatch opened, CountDownLatch closed) {
+            this.opened = opened;
+            this.closed = closed;
+        }
+
+        @Override
+        public void connectionClosed() {
+            closed.countDown();
+        }
+
+        @Override
+        public void connectionOpened() {
+            opened.countDown();
+        }
+
+        @Override
+        public int receiveBytes(ByteBuffer buff) {
+            return buff.remaining();
+        }
+
+        @Override
+        public void setWriteTarget(MessageWriteTarget writeTarget) {
+        }
+
+        @Override
+        public int getMaxMessageSize() {
+            return 1024;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        // the selector threads take the context of the thread that starts them
+        new Context(UnitTestParams.get());
+        try (ServerSocket socket = new ServerSocket(0, 0, InetAddress.getLoopbackAddress())) {
+            address = new InetSocketAddress(InetAddress.getLoopbackAddress(), socket.getLocalPort());
+        }
+        serverOpened = new CountDownLatch(CLIENTS);
+        serverClosed = new CountDownLatch(CLIENTS);
+        server = new NioServer(new StreamConnectionFactory() {
+            @Override
+            public StreamConnection getNewConnection(InetAddress inetAddress, int port) {
+                return new Connection(serverOpened, serverClosed);
+            }
+        }, address);
+        server.startAsync().awaitRunning();
+        manager = new MultiNioClientManager(3);
+        manager.startAsync().awaitRunning();
+    }
+
+    @After
+    public void tearDown() {
+        manager.stopAsync().awaitTerminated();
+        server.stopAsync().awaitTerminated();
+    }
+
+    @Test
+    public void spreadsAndClosesConnections() throws Exception {
+        assertEquals(3, manager.getSelectorThreadCount());
+        CountDownLatch opened = new CountDownLatch(CLIENTS);
+        CountDownLatch closed = new CountDownLatch(CLIENTS);
+        for (int i = 0; i < CLIENTS; i++) {
+            manager.openConnection(address, new Connection(opened, closed)).get(5, TimeUnit.SECONDS);
+            // wait for each connection, so the next one sees it in the counts
+            while (manager.getConnectedClientCount() <= i)
+                Thread.sleep(10);
+        }
+        assertTrue(opened.await(5, TimeUnit.SECONDS));
+        assertTrue(serverOpened.await(5, TimeUnit.SECONDS));
+        assertEquals(CLIENTS, manager.getConnectedClientCount());
+
+        // two clients on each selector, so taking one each leaves one each
+        manager.closeConnections(3);
+        assertEquals(CLIENTS - 3, manager.getConnectedClientCount());
+        assertEquals(3, CLIENTS - closed.getCount());
+
+        // asking for more than there are closes the rest
+        manager.closeConnections(CLIENTS);
+        assertEquals(0, manager.getConnectedClientCount());
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+        assertTrue(serverClosed.await(5, TimeUnit.SECONDS));
+    }
+}
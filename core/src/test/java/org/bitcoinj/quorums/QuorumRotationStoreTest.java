@@ -0,0 +1,184 @@
+/*
+ * Copyright 2021 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.quorums;
+
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.evolution.Masternode;
+import org.bitcoinj.evolution.SimplifiedMasternodeListEntry;
+import org.bitcoinj.params.UnitTestParams;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class QuorumRotationStoreTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private SimplifiedMasternodeListEntry legacyEntry;
+    private SimplifiedMasternodeListEntry basicEntry;
+
+    @Before
+    public void setUp() throws Exception {
+        file = new File(folder.getRoot(), "quorumrotation.dat");
+        legacyEntry = new SimplifiedMasternodeListEntry(UNITTEST, Utils.HEX.decode("318c32ec1598fa8f38dc76e28d15c00c20553c7020161a4c64742524a18465c39b2d789571a3b223a5365fbde69b3fe7143c4f9ebc6293afb84d340f0000000000000000000000000000ffff23a3e2204e1f08b4c1a8b9c1402ea84afe7c47f7e98d657df873b9747a0e4a497120ec62c81f314ad91a6f3384648e7e60f2734554f7f4c0fe75eec22907d6b043edb0df74ccc7b85a4500"),
+                0, NetworkParameters.ProtocolVersion.BLS_LEGACY.getBitcoinProtocolVersion());
+        basicEntry = new SimplifiedMasternodeListEntry(UNITTEST, Utils.HEX.decode("0200e7aef4f585df3def44b855219ae93d6e8cc49a8c96658c5cc0813c48f5384c33e2999069d702d61d852a74b1e07d6f58101e0352d84043e866ff7946bdf5987f00000000000000000000ffff7f0000012f3197fe8172fd3207d71125a053ff32266e11110c06c1184d5be0a8118d0131d6119b138ec4d0398e7eacc5e16a75f718ed796c3a4cab668936c1f6d0945a7b97d7c0fee7cf0101002caa114755a4648d422a5caa5c915597f8c733b8e146"),
+                0, NetworkParameters.ProtocolVersion.CURRENT.getBitcoinProtocolVersion());
+    }
+
+    @Test
+    public void storesAndReloads() throws Exception {
+        Sha256Hash cycle = Sha256Hash.of(new byte[] { 1 });
+        QuorumSnapshot snapshot = new QuorumSnapshot(Arrays.asList(true, false, true), 1, Arrays.asList(2, 5));
+        ArrayList<ArrayList<Masternode>> members = new ArrayList<>();
+        members.add(new ArrayList<Masternode>(Arrays.asList(legacyEntry, basicEntry)));
+        members.add(new ArrayList<Masternode>(Arrays.asList(basicEntry)));
+
+        QuorumRotationStore store = new QuorumRotationStore(UNITTEST, file);
+        assertNull(store.getSnapshot(cycle));
+        store.putSnapshot(cycle, snapshot);
+        store.putQuorumMembers(cycle, members);
+        long length = file.length();
+        // records are not written twice
+        store.putSnapshot(cycle, snapshot);
+        store.putQuorumMembers(cycle, members);
+        assertEquals(length, file.length());
+        store.close();
+
+        store = new QuorumRotationStore(UNITTEST, file);
+        assertTrue(store.containsSnapshot(cycle));
+        assertArrayEquals(snapshot.bitcoinSerialize(), store.getSnapshot(cycle).bitcoinSerialize());
+        ArrayList<ArrayList<Masternode>> loaded = store.getQuorumMembers(cycle);
+        assertEquals(2, loaded.size());
+        assertEquals(2, loaded.get(0).size());
+        assertEquals(legacyEntry.getProTxHash(), loaded.get(0).get(0).getProTxHash());
+        assertEquals(basicEntry.getProTxHash(), loaded.get(0).get(1).getProTxHash());
+        assertArrayEquals(basicEntry.bitcoinSerialize(), loaded.get(1).get(0).bitcoinSerialize());
+        assertNull(store.getQuorumMembers(Sha256Hash.of(new byte[] { 2 })));
+        store.close();
+    }
+
+    @Test
+    public void dropsIncompleteRecord() throws Exception {
+        Sha256Hash first = Sha256Hash.of(new byte[] { 1 });
+        Sha256Hash second = Sha256Hash.of(new byte[] { 2 });
+        QuorumSnapshot snapshot = new QuorumSnapshot(Arrays.asList(true, true), 0, new ArrayList<Integer>());
+
+        QuorumRotationStore store = new QuorumRotationStore(UNITTEST, file);
+        store.putSnapshot(first, snapshot);
+        long length = file.length();
+        store.putSnapshot(second, snapshot);
+        store.close();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(file.length() - 1);
+        }
+
+        store = new QuorumRotationStore(UNITTEST, file);
+        assertTrue(store.containsSnapshot(first));
+        assertFalse(store.containsSnapshot(second));
+        assertEquals(length, file.length());
+        store.putSnapshot(second, snapshot);
+        assertNotNull(store.getSnapshot(second));
+        store.close();
+    }
+
+    @Test
+    public void corruptRecordIsMissing() throws Exception {
+        Sha256Hash cycle = Sha256Hash.of(new byte[] { 1 });
+        QuorumSnapshot snapshot = new QuorumSnapshot(Arrays.asList(true, false, true), 1, Arrays.asList(2, 5));
+        ArrayList<ArrayList<Masternode>> members = new ArrayList<>();
+        members.add(new ArrayList<Masternode>(Arrays.asList(legacyEntry, basicEntry)));
+
+        QuorumRotationStore store = new QuorumRotationStore(UNITTEST, file);
+        store.putSnapshot(cycle, snapshot);
+        long membersPosition = file.length();
+        store.putQuorumMembers(cycle, members);
+        store.close();
+        // flip the last byte of each payload
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            for (long position : new long[] { membersPosition - 1, raf.length() - 1 }) {
+                raf.seek(position);
+                int b = raf.read();
+                raf.seek(position);
+                raf.write(b ^ 0xff);
+            }
+        }
+
+        store = new QuorumRotationStore(UNITTEST, file);
+        assertNull(store.getSnapshot(cycle));
+        assertFalse(store.containsSnapshot(cycle));
+        assertNull(store.getQuorumMembers(cycle));
+        assertFalse(store.containsQuorumMembers(cycle));
+
+        // records written again replace the corrupt ones
+        store.putSnapshot(cycle, snapshot);
+        store.putQuorumMembers(cycle, members);
+        store.close();
+        store = new QuorumRotationStore(UNITTEST, file);
+        assertArrayEquals(snapshot.bitcoinSerialize(), store.getSnapshot(cycle).bitcoinSerialize());
+        assertEquals(basicEntry.getProTxHash(), store.getQuorumMembers(cycle).get(0).get(1).getProTxHash());
+        store.close();
+    }
+
+    @Test
+    public void compactsToLatestRecords() throws Exception {
+        QuorumSnapshot snapshot = new QuorumSnapshot(Arrays.asList(true, true), 0, new ArrayList<Integer>());
+        ArrayList<ArrayList<Masternode>> members = new ArrayList<>();
+        members.add(new ArrayList<Masternode>(Arrays.asList(legacyEntry, basicEntry)));
+
+        QuorumRotationStore store = new QuorumRotationStore(UNITTEST, file, 2);
+        for (int i = 1; i <= 8; i++)
+            store.putSnapshot(Sha256Hash.of(new byte[] { (byte) i }), snapshot);
+        long length = file.length();
+        // the ninth record passes the threshold of four times the kept records
+        store.putSnapshot(Sha256Hash.of(new byte[] { 9 }), snapshot);
+        assertTrue(file.length() < length);
+        assertFalse(store.containsSnapshot(Sha256Hash.of(new byte[] { 7 })));
+        assertNotNull(store.getSnapshot(Sha256Hash.of(new byte[] { 8 })));
+        assertNotNull(store.getSnapshot(Sha256Hash.of(new byte[] { 9 })));
+        Sha256Hash cycle = Sha256Hash.of(new byte[] { 10 });
+        store.putQuorumMembers(cycle, members);
+        store.close();
+
+        // the records survive reopening, and opening with fewer kept records compacts again
+        for (int i = 0; i < 4; i++) {
+            store = new QuorumRotationStore(UNITTEST, file);
+            assertTrue(store.containsSnapshot(Sha256Hash.of(new byte[] { 8 })));
+            store.putSnapshot(Sha256Hash.of(new byte[] { (byte) (20 + i) }), snapshot);
+            store.close();
+        }
+        store = new QuorumRotationStore(UNITTEST, file, 1);
+        assertFalse(store.containsSnapshot(Sha256Hash.of(new byte[] { 22 })));
+        assertNotNull(store.getSnapshot(Sha256Hash.of(new byte[] { 23 })));
+        assertEquals(basicEntry.getProTxHash(), store.getQuorumMembers(cycle).get(0).get(1).getProTxHash());
+        store.close();
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2022 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.quorums;
+
+import org.bitcoinj.core.Sha256Hash;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class QuorumVerificationContextTest {
+    @Test
+    public void signHashMatchesLLMQUtils() {
+        int llmqType = LLMQParameters.LLMQType.LLMQ_60_75.getValue();
+        Sha256Hash quorumHash = Sha256Hash.of(new byte[] { 1 });
+        QuorumVerificationContext context = new QuorumVerificationContext(llmqType, quorumHash, null);
+        for (int i = 0; i < 3; i++) {
+            Sha256Hash id = Sha256Hash.of(new byte[] { 2, (byte) i });
+            Sha256Hash msgHash = Sha256Hash.of(new byte[] { 3, (byte) i });
+            // the prefix is reused, so each sign hash must not depend on the ones before it
+            assertEquals(LLMQUtils.buildSignHash(llmqType, quorumHash, id, msgHash), context.buildSignHash(id, msgHash));
+        }
+    }
+}
@@ -122,7 +122,23 @@ public class ScriptTest {
         Script s = new Script(bytes);
         assertTrue(ScriptPattern.isP2PK(s));
     }
-    
+
+    @Test
+    public void testSignatureCache() throws Exception {
+        SignatureCache cache = new SignatureCache(2);
+        ECKey key = new ECKey();
+        Sha256Hash hash = Sha256Hash.of(new byte[] {1});
+        byte[] sig = new TransactionSignature(key.sign(hash), SigHash.ALL, false).encodeToBitcoin();
+
+        assertFalse(cache.contains(hash, key.getPubKey(), sig));
+        cache.add(hash, key.getPubKey(), sig);
+        assertTrue(cache.contains(hash, key.getPubKey(), sig));
+        assertFalse(cache.contains(Sha256Hash.of(new byte[] {2}), key.getPubKey(), sig));
+        assertFalse(cache.contains(hash, new ECKey().getPubKey(), sig));
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+    }
+
     @Test
     public void testCreateMultiSigInputScript() {
         // Setup transaction and signatures
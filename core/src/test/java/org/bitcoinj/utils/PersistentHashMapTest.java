@@ -0,0 +1,113 @@
+/*
+ * Copyright 2019 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PersistentHashMapTest {
+    /** A key with a small hash code range, so that many keys collide. */
+    private static class Key {
+        final int id;
+
+        Key(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return id % 50;
+        }
+    }
+
+    @Test
+    public void behavesLikeHashMap() {
+        Random random = new Random(1);
+        PersistentHashMap<Integer, Integer> map = PersistentHashMap.empty();
+        Map<Integer, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 20000; i++) {
+            int key = random.nextInt(3000) * (random.nextBoolean() ? 1 : 65536);
+            if (random.nextInt(3) == 0) {
+                map = map.minus(key);
+                expected.remove(key);
+            } else {
+                map = map.plus(key, i);
+                expected.put(key, i);
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        assertEquals(expected, map);
+        assertEquals(expected, new HashMap<>(map));
+        for (Map.Entry<Integer, Integer> entry : expected.entrySet())
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        assertNull(map.get(-1));
+    }
+
+    @Test
+    public void collisions() {
+        PersistentHashMap<Key, Integer> map = PersistentHashMap.empty();
+        for (int i = 0; i < 500; i++)
+            map = map.plus(new Key(i), i);
+        assertEquals(500, map.size());
+        for (int i = 0; i < 500; i++)
+            assertEquals(Integer.valueOf(i), map.get(new Key(i)));
+        for (int i = 0; i < 500; i += 2)
+            map = map.minus(new Key(i));
+        assertEquals(250, map.size());
+        for (int i = 0; i < 500; i++)
+            assertEquals(i % 2 == 0 ? null : Integer.valueOf(i), map.get(new Key(i)));
+        for (int i = 1; i < 500; i += 2)
+            map = map.minus(new Key(i));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void versionsAreUnchanged() {
+        List<PersistentHashMap<Integer, String>> versions = new ArrayList<>();
+        PersistentHashMap<Integer, String> map = PersistentHashMap.empty();
+        for (int i = 0; i < 100; i++) {
+            versions.add(map);
+            map = map.plus(i, "v" + i).minus(i - 10);
+        }
+        for (int v = 0; v < versions.size(); v++) {
+            PersistentHashMap<Integer, String> version = versions.get(v);
+            assertEquals(Math.min(v, 10), version.size());
+            for (int i = Math.max(0, v - 10); i < v; i++)
+                assertEquals("v" + i, version.get(i));
+        }
+        assertSame(map, map.minus(1000));
+        assertSame(map, map.plus(99, map.get(99)));
+        assertEquals(PersistentHashMap.copyOf(new HashMap<>(map)), map);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void immutable() {
+        PersistentHashMap.<Integer, Integer>empty().plus(1, 1).put(2, 2);
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2019 Dash Core Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.wallet;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
+import org.bitcoinj.testing.FakeTxBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class BlockArchiveRescannerTest {
+    private static final NetworkParameters UNITTEST = UnitTestParams.get();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HeaderStore blockStore;
+    private StoredBlock chainHead;
+    private final List<StoredBlock> storedBlocks = new ArrayList<>();
+
+    @Before
+    public void setUp() throws BlockStoreException {
+        Context.propagate(new Context(UNITTEST, 100, Coin.ZERO, false));
+        blockStore = new HeaderStore();
+        Block genesis = UNITTEST.getGenesisBlock().cloneAsHeader();
+        chainHead = new StoredBlock(genesis, BigInteger.ONE, 0);
+        blockStore.put(chainHead);
+        blockStore.setChainHead(chainHead);
+        storedBlocks.add(chainHead);
+    }
+
+    @After
+    public void tearDown() {
+        Utils.resetMocking();
+    }
+
+    // The rescanner only needs heights, so blocks are linked without proof of work. Their target is valid, as the
+    // work of archived headers is counted.
+    private Block addBlock(Transaction... transactions) throws BlockStoreException {
+        Block prev = chainHead.getHeader();
+        Block block = new Block(UNITTEST, Block.BLOCK_VERSION_GENESIS, prev.getHash(), Sha256Hash.ZERO_HASH,
+                prev.getTimeSeconds() + 1, Utils.encodeCompactBits(UNITTEST.getMaxTarget()), chainHead.getHeight(),
+                Arrays.asList(transactions));
+        chainHead = new StoredBlock(block.cloneAsHeader(), BigInteger.valueOf(chainHead.getHeight() + 2),
+                chainHead.getHeight() + 1);
+        blockStore.put(chainHead);
+        blockStore.setChainHead(chainHead);
+        storedBlocks.add(chainHead);
+        return block;
+    }
+
+    private File writeBlockFile(Block... blocks) throws IOException {
+        File file = folder.newFile("blk00000.dat");
+        try (FileOutputStream stream = new FileOutputStream(file)) {
+            for (Block block : blocks) {
+                byte[] bytes = block.bitcoinSerialize();
+                ByteBuffer header = ByteBuffer.allocate(8);
+                header.putInt((int) UNITTEST.getPacketMagic());
+                header.order(ByteOrder.LITTLE_ENDIAN).putInt(bytes.length);
+                stream.write(header.array());
+                stream.write(bytes);
+                // Dash Core preallocates block files, so there can be zeroes between and after blocks.
+                stream.write(new byte[16]);
+            }
+        }
+        return file;
+    }
+
+    @Test
+    public void rescanFindsTransactionsInChainOrder() throws Exception {
+        Wallet wallet = Wallet.createDeterministic(UNITTEST, Script.ScriptType.P2PKH);
+        // Another instance of the same wallet hands out addresses that the rescanned wallet never issued.
+        Wallet other = Wallet.fromSeed(UNITTEST, wallet.getKeyChainSeed(), Script.ScriptType.P2PKH);
+        int lookahead = wallet.getKeyChainGroupLookaheadSize();
+        Address first = null, beyondLookahead = null;
+        for (int i = 0; i < 2 * lookahead - 1; i++) {
+            Address address = other.freshReceiveAddress();
+            if (i == lookahead - 1)
+                first = address;
+            beyondLookahead = address;
+        }
+        Address stranger = Address.fromKey(UNITTEST, new ECKey());
+
+        Transaction received = FakeTxBuilder.createFakeTx(UNITTEST, Coin.COIN, first);
+        Block block1 = addBlock(received);
+        Transaction spend = new Transaction(UNITTEST);
+        spend.addInput(received.getOutput(0));
+        spend.addOutput(Coin.CENT.multiply(40), stranger);
+        spend.addOutput(Coin.CENT.multiply(50), other.freshAddress(KeyChain.KeyPurpose.CHANGE));
+        Block block2 = addBlock(spend);
+        Block block3 = addBlock(FakeTxBuilder.createFakeTx(UNITTEST, Coin.COIN.multiply(2), beyondLookahead));
+        Block block4 = addBlock(FakeTxBuilder.createFakeTx(UNITTEST, Coin.COIN, stranger));
+        Block orphan = new Block(UNITTEST, Block.BLOCK_VERSION_GENESIS, Sha256Hash.ZERO_HASH, Sha256Hash.ZERO_HASH,
+                1, block1.getDifficultyTarget(), 0,
+                Collections.singletonList(FakeTxBuilder.createFakeTx(UNITTEST, Coin.COIN, first)));
+
+        File file = writeBlockFile(block3, orphan, block2, block4, block1);
+        BlockArchiveRescanner rescanner = new BlockArchiveRescanner(wallet, blockStore, Collections.singletonList(file), 2);
+        assertEquals(3, rescanner.rescan());
+
+        assertEquals(3, wallet.getTransactions(false).size());
+        assertEquals(Coin.CENT.multiply(250), wallet.getBalance());
+        assertEquals(4, wallet.getLastBlockSeenHeight());
+        assertEquals(block4.getHash(), wallet.getLastBlockSeenHash());
+        assertEquals(4, wallet.getTransaction(received.getTxId()).getConfidence().getDepthInBlocks());
+        assertEquals(2, wallet.getTransaction(block3.getTransactions().get(0).getTxId()).getConfidence()
+                .getDepthInBlocks());
+    }
+
+    /** Returns a store with only the headers from the given height up, as an SPV store keeps only recent ones. */
+    private HeaderStore recentHeaders(int fromHeight) {
+        HeaderStore store = new HeaderStore();
+        for (StoredBlock block : storedBlocks.subList(fromHeight, storedBlocks.size()))
+            store.put(block);
+        store.setChainHead(chainHead);
+        return store;
+    }
+
+    @Test
+    public void archiveExtendsShallowStore() throws Exception {
+        Wallet wallet = Wallet.createDeterministic(UNITTEST, Script.ScriptType.P2PKH);
+        Transaction received = FakeTxBuilder.createFakeTx(UNITTEST, Coin.COIN, wallet.currentReceiveAddress());
+        Block block1 = addBlock(received);
+        Block block2 = addBlock();
+        Block block3 = addBlock(FakeTxBuilder.createFakeTx(UNITTEST, Coin.COIN, wallet.currentReceiveAddress()));
+        Block block4 = addBlock();
+
+        // the store only has the last two headers, the others come from the archive
+        File file = writeBlockFile(block3, block1, block4, block2);
+        BlockArchiveRescanner rescanner = new BlockArchiveRescanner(wallet, recentHeaders(3),
+                Collections.singletonList(file), 2);
+        assertEquals(2, rescanner.rescan());
+        assertEquals(Coin.COIN.multiply(2), wallet.getBalance());
+        assertEquals(4, wallet.getLastBlockSeenHeight());
+        assertEquals(1, wallet.getTransaction(received.getTxId()).getConfidence().getAppearedAtChainHeight());
+        assertEquals(4, wallet.getTransaction(received.getTxId()).getConfidence().getDepthInBlocks());
+    }
+
+    @Test
+    public void chainMustReachEarliestKeyTime() throws Exception {
+        // the keys are older than every block but the genesis block
+        Utils.setMockClock(UNITTEST.getGenesisBlock().getTimeSeconds());
+        Wallet wallet = Wallet.createDeterministic(UNITTEST, Script.ScriptType.P2PKH);
+        Block block1 = addBlock(FakeTxBuilder.createFakeTx(UNITTEST, Coin.COIN, wallet.currentReceiveAddress()));
+        addBlock();
+        Block block3 = addBlock();
+        Block block4 = addBlock();
+
+        // block 2 is in neither the store nor the archive, so block 1 can't be placed on the chain
+        File file = writeBlockFile(block1, block3, block4);
+        BlockArchiveRescanner rescanner = new BlockArchiveRescanner(wallet, recentHeaders(4),
+                Collections.singletonList(file), 2);
+        try {
+            rescanner.rescan();
+            fail("the chain doesn't reach back to the wallet's keys");
+        } catch (BlockStoreException x) {
+            assertTrue(x.getMessage(), x.getMessage().contains("block 3"));
+        }
+        assertEquals(0, wallet.getTransactions(false).size());
+    }
+
+    /** Keeps headers in a map, without checking their proof of work like MemoryBlockStore does. */
+    private static class HeaderStore implements BlockStore {
+        private final Map<Sha256Hash, StoredBlock> blocks = new HashMap<>();
+        private StoredBlock chainHead;
+
+        @Override
+        public synchronized void put(StoredBlock block) {
+            blocks.put(block.getHeader().getHash(), block);
+        }
+
+        @Override
+        public synchronized StoredBlock get(Sha256Hash hash) {
+            return blocks.get(hash);
+        }
+
+        @Override
+        public synchronized StoredBlock getChainHead() {
+            return chainHead;
+        }
+
+        @Override
+        public synchronized void setChainHead(StoredBlock chainHead) {
+            this.chainHead = chainHead;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public NetworkParameters getParams() {
+            return UNITTEST;
+        }
+
+        @Override
+        public synchronized StoredBlock get(int height) {
+            for (StoredBlock block : blocks.values())
+                if (block.getHeight() == height)
+                    return block;
+            return null;
+        }
+
+        @Override
+        public StoredBlock getChainHeadFromHash(Sha256Hash hash) {
+            return get(hash);
+        }
+    }
+}